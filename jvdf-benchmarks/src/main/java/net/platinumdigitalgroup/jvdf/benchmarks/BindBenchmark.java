@@ -0,0 +1,85 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf.benchmarks;
+
+import net.platinumdigitalgroup.jvdf.VDFBindField;
+import net.platinumdigitalgroup.jvdf.VDFBinder;
+import net.platinumdigitalgroup.jvdf.VDFNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures binding a parsed document to annotated objects.
+ * @author Brendan Heinonen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BindBenchmark {
+
+    /**
+     * Covers the built-in corpora; keys that do not exist in a document are skipped by the binder.
+     */
+    public static class Document {
+
+        public class ItemsGame {
+
+            public class GameInfo {
+                @VDFBindField
+                public int first_valid_class;
+
+                @VDFBindField
+                public int last_valid_class;
+
+                @VDFBindField
+                public long account_class_index;
+            }
+
+            @VDFBindField(keyName = "game_info")
+            public GameInfo gameInfo;
+
+            @VDFBindField
+            public VDFNode items;
+        }
+
+        @VDFBindField(keyName = "items_game")
+        public ItemsGame itemsGame;
+
+        @VDFBindField(keyName = "item_0")
+        public String item;
+
+        @VDFBindField(keyName = "prefab_0")
+        public VDFNode prefab;
+    }
+
+    @Benchmark
+    public Document bindTo(CorpusState state) {
+        Document document = new Document();
+        new VDFBinder(state.tree).bindTo(document);
+        return document;
+    }
+
+}
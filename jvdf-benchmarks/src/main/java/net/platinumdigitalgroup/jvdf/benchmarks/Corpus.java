@@ -0,0 +1,125 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf.benchmarks;
+
+import net.platinumdigitalgroup.jvdf.VDFCorpusGenerator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The documents benchmarks run over.  Valve's schemas cannot be redistributed, so the built-in corpora are generated
+ * with a fixed seed; a real schema can be benchmarked by passing its path as the corpus parameter,
+ * e.g. <code>-p corpus=/path/to/items_game.txt</code>.
+ * @author Brendan Heinonen
+ */
+final class Corpus {
+
+    /**
+     * Resembles the CS:GO item schema: about 3MB and 100k lines of items with attribute blocks, comments and repeated
+     * blocks that are merged by reduce.
+     */
+    static final String SCHEMA = "schema";
+
+    /**
+     * A 3MB document of randomly shaped blocks from {@link VDFCorpusGenerator}.
+     */
+    static final String GENERATED = "generated";
+
+    /**
+     * A 3MB document that exercises the slow paths: deep nesting, multimapped keys, comments, escaped quotes,
+     * conditionals and long values.
+     */
+    static final String STRESS = "stress";
+
+    private Corpus() {
+    }
+
+    /**
+     * Loads a built-in corpus by name, or reads a document from a file.
+     * @param name the name of a built-in corpus, or the path of a file
+     * @return the document text
+     * @throws IOException if the file cannot be read
+     */
+    static String load(String name) throws IOException {
+        switch(name) {
+            case SCHEMA:
+                return schema(new Random(0x5EED), 6000);
+            case GENERATED:
+                return new VDFCorpusGenerator()
+                        .setSeed(0x5EED)
+                        .setSize(3 * 1024 * 1024)
+                        .generate();
+            case STRESS:
+                return new VDFCorpusGenerator()
+                        .setSeed(0x5EED)
+                        .setSize(3 * 1024 * 1024)
+                        .setMaxDepth(16)
+                        .setFanOut(16)
+                        .setMultimapRatio(0.3)
+                        .setCommentRatio(0.2)
+                        .setEscapeRatio(0.1)
+                        .setConditionalRatio(0.1)
+                        .setLongValueRatio(0.02)
+                        .generate();
+            default:
+                Path path = Paths.get(name);
+                return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String schema(Random random, int items) {
+        StringBuilder vdf = new StringBuilder();
+        vdf.append("\"items_game\"\n{\n");
+        vdf.append("\t\"game_info\"\n\t{\n");
+        vdf.append("\t\t\"first_valid_class\"\t\"2\"\n");
+        vdf.append("\t\t\"last_valid_class\"\t\"9\"\n");
+        vdf.append("\t\t\"account_class_index\"\t\"7\"\n");
+        vdf.append("\t}\n");
+
+        // Real schemas split items across several "items" blocks, which reduce merges into one
+        for(int block = 0, id = 0; block < 4; block++) {
+            vdf.append("\t// Item block ").append(block).append('\n');
+            vdf.append("\t\"items\"\n\t{\n");
+            for(int i = 0; i < items / 4; i++, id++) {
+                vdf.append("\t\t\"").append(id).append("\"\n\t\t{\n");
+                vdf.append("\t\t\t\"name\"\t\"item_").append(id).append("\"\n");
+                vdf.append("\t\t\t\"prefab\"\t\"").append(random.nextBoolean() ? "weapon_base" : "cosmetic_base").append("\"\n");
+                vdf.append("\t\t\t\"item_quality\"\t\"").append(random.nextInt(12)).append("\"\n");
+                vdf.append("\t\t\t\"item_description\"\t\"#CSGO_Item_Desc_").append(id).append("\"\n");
+                vdf.append("\t\t\t\"attributes\"\n\t\t\t{\n");
+                for(int a = 0, count = 1 + random.nextInt(4); a < count; a++) {
+                    vdf.append("\t\t\t\t\"attribute_").append(random.nextInt(64)).append("\"\n\t\t\t\t{\n");
+                    vdf.append("\t\t\t\t\t\"attribute_class\"\t\"set_item_tint_rgb\"\n");
+                    vdf.append("\t\t\t\t\t\"value\"\t\"").append(random.nextInt(0xFFFFFF)).append("\"\n");
+                    vdf.append("\t\t\t\t}\n");
+                }
+                vdf.append("\t\t\t}\n");
+                vdf.append("\t\t}\n");
+            }
+            vdf.append("\t}\n");
+        }
+
+        vdf.append("}\n");
+        return vdf.toString();
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf.benchmarks;
+
+import net.platinumdigitalgroup.jvdf.VDFNode;
+import net.platinumdigitalgroup.jvdf.VDFParser;
+import net.platinumdigitalgroup.jvdf.VDFPreprocessor;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A corpus in every form the benchmarks start from.  Everything is prepared once per trial, outside of the measured
+ * code.
+ * @author Brendan Heinonen
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    @Param({Corpus.SCHEMA, Corpus.GENERATED, Corpus.STRESS})
+    public String corpus;
+
+    String text;
+
+    String[] lines;
+
+    byte[] utf8;
+
+    byte[] utf16;
+
+    byte[] gzip;
+
+    VDFNode tree;
+
+    /**
+     * Reads compressed corpora in the background.
+     */
+    ExecutorService reader;
+
+    @Setup
+    public void setup() throws IOException {
+        text = Corpus.load(corpus);
+        lines = text.split("\n");
+        utf8 = text.getBytes(StandardCharsets.UTF_8);
+        utf16 = text.getBytes(StandardCharsets.UTF_16);
+        tree = new VDFParser().parse(text);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(GZIPOutputStream compressed = new GZIPOutputStream(out)) {
+            compressed.write(utf8);
+        }
+        gzip = out.toByteArray();
+        reader = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "corpus-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.shutdown();
+    }
+
+    VDFParser parser() {
+        return new VDFParser(new VDFPreprocessor());
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf.benchmarks;
+
+import net.platinumdigitalgroup.jvdf.VDFCorpusGenerator;
+import net.platinumdigitalgroup.jvdf.VDFParser;
+import net.platinumdigitalgroup.jvdf.VDFParserSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a stream of small messages, such as game server events, with a new parse per message and with one
+ * reused session.  Run with <code>-prof gc</code> to compare the allocation rates.
+ * @author Brendan Heinonen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+
+    @State(Scope.Thread)
+    public static class Messages {
+
+        @Param({"256"})
+        public int size;
+
+        String[] messages;
+
+        VDFParser parser;
+
+        VDFParserSession session;
+
+        @Setup
+        public void setup() {
+            messages = new String[1000];
+            for(int i = 0; i < messages.length; i++)
+                messages[i] = new VDFCorpusGenerator().setSeed(i).setSize(size).setMaxDepth(3).generate();
+
+            parser = new VDFParser();
+            session = parser.newSession();
+        }
+
+    }
+
+    @Benchmark
+    public void parse(Messages state, Blackhole blackhole) {
+        for(String message : state.messages)
+            blackhole.consume(state.parser.parse(message));
+    }
+
+    @Benchmark
+    public void parseSession(Messages state, Blackhole blackhole) {
+        for(String message : state.messages)
+            blackhole.consume(state.session.parse(message));
+    }
+
+}
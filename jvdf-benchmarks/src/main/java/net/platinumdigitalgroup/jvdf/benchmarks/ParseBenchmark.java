@@ -0,0 +1,126 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf.benchmarks;
+
+import net.platinumdigitalgroup.jvdf.VDFNode;
+import net.platinumdigitalgroup.jvdf.VDFPreprocessor;
+import net.platinumdigitalgroup.jvdf.VDFProjection;
+import net.platinumdigitalgroup.jvdf.VDFWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Measures the text pipeline: preprocessing, parsing and writing a whole document.  inflateGzip is the time it takes
+ * to decompress the gzip corpus alone, which bounds how fast parseGzipBackground can be.
+ * @author Brendan Heinonen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    /**
+     * The item names out of the schema corpus.  The other corpora have no such keys, so everything is skipped.
+     */
+    private static final VDFProjection ITEM_NAMES = VDFProjection.of("items_game/items/*/name");
+
+    @Benchmark
+    public String preprocess(CorpusState state) {
+        return new VDFPreprocessor().process(state.text);
+    }
+
+    @Benchmark
+    public VDFNode parse(CorpusState state) {
+        return state.parser().parse(state.text);
+    }
+
+    @Benchmark
+    public VDFNode parseSlices(CorpusState state) {
+        return state.parser().setValueSlices(true).parse(state.text);
+    }
+
+    @Benchmark
+    public VDFNode parseLines(CorpusState state) {
+        return state.parser().parse(state.lines);
+    }
+
+    @Benchmark
+    public VDFNode parseUtf8(CorpusState state) {
+        return state.parser().parse(state.utf8);
+    }
+
+    @Benchmark
+    public VDFNode parseUtf16(CorpusState state) {
+        return state.parser().parse(state.utf16);
+    }
+
+    @Benchmark
+    public VDFNode parseStream(CorpusState state) throws IOException {
+        return state.parser().parse(new ByteArrayInputStream(state.utf8));
+    }
+
+    @Benchmark
+    public long inflateGzip(CorpusState state) throws IOException {
+        long total = 0;
+        byte[] buffer = new byte[1 << 16];
+        try(InputStream in = new GZIPInputStream(new ByteArrayInputStream(state.gzip), 1 << 16)) {
+            int read;
+            while((read = in.read(buffer)) > 0)
+                total += read;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public VDFNode parseGzip(CorpusState state) {
+        return state.parser().parse(state.gzip);
+    }
+
+    @Benchmark
+    public VDFNode parseGzipBackground(CorpusState state) {
+        return state.parser().setReadExecutor(state.reader).parse(state.gzip);
+    }
+
+    @Benchmark
+    public VDFNode parseProjected(CorpusState state) {
+        return state.parser().parse(state.text, ITEM_NAMES);
+    }
+
+    @Benchmark
+    public VDFNode parseProjectedUtf8(CorpusState state) {
+        return state.parser().parse(state.utf8, ITEM_NAMES);
+    }
+
+    @Benchmark
+    public String write(CorpusState state) {
+        return new VDFWriter().write(state.tree, true);
+    }
+
+}
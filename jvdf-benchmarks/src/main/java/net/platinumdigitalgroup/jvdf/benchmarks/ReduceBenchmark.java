@@ -0,0 +1,68 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf.benchmarks;
+
+import net.platinumdigitalgroup.jvdf.VDFNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reducing a freshly parsed document.  Reduce modifies the tree, so every invocation gets its own tree.  The
+ * reduction of a large document takes milliseconds, which keeps the overhead of the per-invocation setup negligible.
+ * @author Brendan Heinonen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReduceBenchmark {
+
+    @State(Scope.Thread)
+    public static class Tree {
+
+        VDFNode root;
+
+        @Setup(Level.Invocation)
+        public void parse(CorpusState corpus) {
+            root = corpus.parser().parse(corpus.text);
+        }
+
+    }
+
+    @Benchmark
+    public VDFNode reduce(Tree tree) {
+        return tree.root.reduce();
+    }
+
+    @Benchmark
+    public VDFNode reduceTopLevel(Tree tree) {
+        return tree.root.reduce(false);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf.benchmarks;
+
+import net.platinumdigitalgroup.jvdf.VDFNode;
+import net.platinumdigitalgroup.jvdf.VDFParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading and looking up the tokens of a localization file, stored as regular nodes and as a string table.
+ * @author Brendan Heinonen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokensBenchmark {
+
+    private static final String PATH = "lang/Tokens";
+
+    @State(Scope.Benchmark)
+    public static class Tokens {
+
+        @Param({"50000"})
+        public int tokens;
+
+        String text;
+
+        String[] keys;
+
+        VDFNode plain;
+
+        VDFNode table;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(38);
+            keys = new String[tokens];
+            StringBuilder builder = new StringBuilder("\"lang\"\n{\n\t\"Language\"\t\"english\"\n\t\"Tokens\"\n\t{\n");
+            for(int i = 0; i < tokens; i++) {
+                keys[i] = "DOTA_Tooltip_ability_" + Integer.toString(random.nextInt(), 36) + "_" + i;
+                builder.append("\t\t\"").append(keys[i]).append("\"\t\"Tooltip text number ").append(i).append("\"\n");
+            }
+            text = builder.append("\t}\n}\n").toString();
+
+            plain = new VDFParser().parse(text).getSubNode("lang").getSubNode("Tokens");
+            table = new VDFParser().setStringTable(PATH, true).parse(text).getSubNode("lang").getSubNode("Tokens");
+        }
+
+    }
+
+    @Benchmark
+    public VDFNode loadPlain(Tokens state) {
+        return new VDFParser().parse(state.text);
+    }
+
+    @Benchmark
+    public VDFNode loadTable(Tokens state) {
+        return new VDFParser().setStringTable(PATH, true).parse(state.text);
+    }
+
+    @Benchmark
+    public void lookupPlain(Tokens state, Blackhole blackhole) {
+        for(String key : state.keys)
+            blackhole.consume(state.plain.getString(key));
+    }
+
+    @Benchmark
+    public void lookupTable(Tokens state, Blackhole blackhole) {
+        for(String key : state.keys)
+            blackhole.consume(state.table.getString(key));
+    }
+
+}
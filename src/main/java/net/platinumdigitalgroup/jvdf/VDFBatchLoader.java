@@ -0,0 +1,329 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Loads many VDF documents concurrently, e.g. every manifest in a directory.  Documents are read and parsed on an
+ * Executor, which may be a pool of platform threads or a virtual-thread-per-task executor.
+ * <p>
+ * The number of bytes being read and parsed at any time is capped: submitting a document blocks the submitting thread
+ * until enough of the cap is free, so a fast producer of paths cannot flood the heap with documents that have not been
+ * parsed yet.  A document larger than the cap is loaded alone.  Read buffers are pooled and reused between documents.
+ * <p>
+ * A document that cannot be read or parsed fails on its own; the other documents of a batch are still loaded.
+ * @author Brendan Heinonen
+ */
+public class VDFBatchLoader {
+
+    /**
+     * The default cap on the bytes in flight, 64 MiB.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT_BYTES = 64 << 20;
+
+    private static final int MIN_BUFFER = 64 << 10;
+
+    /**
+     * The result of loading a single document of a batch.
+     */
+    public static final class Result {
+
+        private final Path file;
+        private final VDFNode root;
+        private final Throwable error;
+
+        Result(Path file, VDFNode root, Throwable error) {
+            this.file = file;
+            this.root = root;
+            this.error = error;
+        }
+
+        /**
+         * Returns the file the document was loaded from.
+         * @return the file of the document
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the parsed document.
+         * @return the root of the document, or null if the document failed to load
+         */
+        public VDFNode getRoot() {
+            return root;
+        }
+
+        /**
+         * Returns why the document failed to load, typically an IOException or a VDFParseException.
+         * @return the error, or null if the document was loaded
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Returns whether the document was loaded.
+         * @return if the document was loaded
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return file + (error == null ? ": loaded" : ": " + error);
+        }
+
+    }
+
+    private final VDFParser parser;
+
+    private final Executor executor;
+
+    private int maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+
+    private Semaphore inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT_BYTES);
+
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * Initializes the loader.
+     * @param parser the parser to parse documents with; its options apply to every document
+     * @param executor the executor to read and parse documents on
+     */
+    public VDFBatchLoader(VDFParser parser, Executor executor) {
+        this.parser = Objects.requireNonNull(parser);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Caps the number of bytes being read and parsed at any time.  Must be set before the first document is
+     * submitted.
+     * @param bytes the maximum number of bytes in flight
+     * @return this loader
+     */
+    public VDFBatchLoader setMaxInFlightBytes(int bytes) {
+        if(bytes <= 0)
+            throw new IllegalArgumentException("The cap on bytes in flight must be positive");
+        this.maxInFlightBytes = bytes;
+        this.inFlight = new Semaphore(bytes);
+        return this;
+    }
+
+    /**
+     * Loads a document from a file.  Blocks until the document fits under the cap on bytes in flight.
+     * @param file the file to load
+     * @return a future of the root of the document, which fails with the IOException or VDFParseException of the
+     * document
+     */
+    public CompletableFuture<VDFNode> load(Path file) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch(IOException ex) {
+            return failed(ex);
+        }
+
+        int permits = permits(size);
+        if(!acquire(permits))
+            return failed(new InterruptedException("Interrupted while waiting to load " + file));
+
+        return submit(permits, () -> read(file, size));
+    }
+
+    /**
+     * Parses an encoded document that is already in memory.  Blocks until the document fits under the cap on bytes in
+     * flight.
+     * @param document the encoded document
+     * @return a future of the root of the document
+     */
+    public CompletableFuture<VDFNode> load(byte[] document) {
+        int permits = permits(document.length);
+        if(!acquire(permits))
+            return failed(new InterruptedException("Interrupted while waiting to load a document"));
+
+        return submit(permits, () -> parser.parse(document));
+    }
+
+    /**
+     * Loads every file of a stream, handing each result to a consumer as soon as it is available.  Files are
+     * submitted from the calling thread, which blocks whenever the cap on bytes in flight is reached.  Calls to the
+     * consumer are serialized, but happen on the executor's threads and in no particular order.
+     * @param files the files to load
+     * @param consumer receives the result of every file, including failed ones
+     * @return a future that completes once every result has been consumed
+     */
+    public CompletableFuture<Void> loadAll(Stream<Path> files, Consumer<? super Result> consumer) {
+        Object lock = new Object();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        files.forEachOrdered(file -> pending.add(result(file).thenAccept(result -> {
+            synchronized(lock) {
+                consumer.accept(result);
+            }
+        })));
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Loads every file of a stream.  Files are submitted from the calling thread before this method returns, which
+     * blocks whenever the cap on bytes in flight is reached.
+     * @param files the files to load
+     * @return the results in the order of the files, waiting for each result as the stream reaches it
+     */
+    public Stream<Result> loadAll(Stream<Path> files) {
+        List<CompletableFuture<Result>> pending = new ArrayList<>();
+        files.forEachOrdered(file -> pending.add(result(file)));
+        return pending.stream().map(CompletableFuture::join);
+    }
+
+    /**
+     * A document to read and parse on the executor.
+     */
+    private interface Task {
+
+        VDFNode run() throws IOException;
+
+    }
+
+    /**
+     * Runs a task on the executor and releases its permits once it is done, before its future completes.
+     */
+    private CompletableFuture<VDFNode> submit(int permits, Task task) {
+        CompletableFuture<VDFNode> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                VDFNode root = null;
+                Throwable error = null;
+                try {
+                    root = task.run();
+                } catch(Throwable t) {
+                    error = t;
+                } finally {
+                    inFlight.release(permits);
+                }
+
+                if(error != null)
+                    future.completeExceptionally(error);
+                else
+                    future.complete(root);
+            });
+        } catch(RuntimeException ex) {
+            // The executor rejected the task
+            inFlight.release(permits);
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Result> result(Path file) {
+        return load(file).handle((root, error) -> new Result(file, root, error != null ? unwrap(error) : null));
+    }
+
+    /**
+     * Reads a file into a pooled buffer and parses it, unless the parser loads files from snapshots.  Encoded documents
+     * are decoded into strings while they are parsed, so the buffer can be reused as soon as the parse returns.
+     */
+    private VDFNode read(Path file, long size) throws IOException {
+        if(parser.isSnapshotCache())
+            return parser.parse(file);
+        if(size > Integer.MAX_VALUE)
+            throw new IOException("The file " + file + " is too large to parse");
+
+        byte[] buffer = borrow((int) size);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // A pooled buffer may be larger than the file, which may also have grown since it was sized
+            ByteBuffer in = ByteBuffer.wrap(buffer);
+            ((Buffer) in).limit((int) size);
+            while(in.hasRemaining() && channel.read(in) >= 0) {
+                // Keep reading until the file is in the buffer
+            }
+            ((Buffer) in).flip();
+            return parser.parse(in);
+        } finally {
+            giveBack(buffer);
+        }
+    }
+
+    private byte[] borrow(int size) {
+        byte[] buffer = buffers.poll();
+        if(buffer != null) {
+            pooledBytes.addAndGet(-buffer.length);
+            if(buffer.length >= size)
+                return buffer;
+        }
+        return new byte[Math.max(size, MIN_BUFFER)];
+    }
+
+    /**
+     * Returns a buffer to the pool, unless the pool already holds as many bytes as may be in flight.
+     */
+    private void giveBack(byte[] buffer) {
+        if(pooledBytes.addAndGet(buffer.length) <= maxInFlightBytes)
+            buffers.offer(buffer);
+        else
+            pooledBytes.addAndGet(-buffer.length);
+    }
+
+    private int permits(long size) {
+        return (int) Math.min(size, maxInFlightBytes);
+    }
+
+    private boolean acquire(int permits) {
+        try {
+            inFlight.acquire(permits);
+            return true;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Unwraps the CompletionException that dependent futures wrap the error of a document in.
+     */
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+}
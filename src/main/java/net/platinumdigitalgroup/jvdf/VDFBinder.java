@@ -31,12 +31,40 @@ public class VDFBinder {
 
     private final VDFNode rootNode;
 
+    /**
+     * The recording of the bind this binder is part of, or null.
+     */
+    private final VDFRecording recording;
+
+    /**
+     * The depth of the bound node below the node the bind started at.
+     */
+    private final int depth;
+
+    private VDFMetricsListener metricsListener;
+
     /**
      * Initializes the VDF binder with a VDF root node.
      * @param root the VDF root node
      */
     public VDFBinder(VDFNode root) {
+        this(root, null, 0);
+    }
+
+    private VDFBinder(VDFNode root, VDFRecording recording, int depth) {
         this.rootNode = root;
+        this.recording = recording;
+        this.depth = depth;
+    }
+
+    /**
+     * Reports the metrics of every bind to a listener.  Nested objects are part of the bind of their parent.
+     * @param listener the listener to report to, or null to stop reporting
+     * @return this binder
+     */
+    public VDFBinder setMetricsListener(VDFMetricsListener listener) {
+        this.metricsListener = listener;
+        return this;
     }
 
     /**
@@ -44,6 +72,16 @@ public class VDFBinder {
      * @param obj the POJO to bind the VDF node to
      */
     public void bindTo(Object obj) {
+        VDFRecording recording = VDFRecording.begin(VDFMetrics.Phase.BIND, metricsListener);
+        if(recording == null) {
+            bindFields(obj);
+        } else {
+            new VDFBinder(rootNode, recording, 0).bindFields(obj);
+            recording.end(0, 0);
+        }
+    }
+
+    private void bindFields(Object obj) {
         Class<?> clazz = obj.getClass();
         Field[] fields = clazz.getDeclaredFields();
 
@@ -99,7 +137,9 @@ public class VDFBinder {
         Class<?> type = f.getType();
 
         Object newObj = createType(obj, type);
-        new VDFBinder(node).bindTo(newObj);
+        if(recording != null)
+            recording.node(depth + 1);
+        new VDFBinder(node, recording, depth + 1).bindFields(newObj);
 
         f.set(obj, newObj);
     }
@@ -0,0 +1,216 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A parsed VDF conditional such as <code>[$WIN32]</code> or <code>[!$X360 &amp;&amp; ($WIN32 || $OSX)]</code>.
+ * Conditionals are compiled into a small postfix program so they can be evaluated repeatedly against different sets
+ * of defines without re-parsing.
+ * @author Brendan Heinonen
+ */
+public final class VDFCondition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte OP_DEFINE = 0;
+    private static final byte OP_NOT = 1;
+    private static final byte OP_AND = 2;
+    private static final byte OP_OR = 3;
+
+    /**
+     * The expression as it appeared between the brackets, used when writing the conditional back out.
+     */
+    private final String expression;
+
+    /**
+     * The postfix program. Every OP_DEFINE consumes the next entry in names.
+     */
+    private final byte[] ops;
+
+    private final String[] names;
+
+    private VDFCondition(String expression, byte[] ops, String[] names) {
+        this.expression = expression;
+        this.ops = ops;
+        this.names = names;
+    }
+
+    /**
+     * Parses a conditional expression. The surrounding brackets are optional.
+     * @param expression the conditional expression, e.g. <code>!$X360</code>
+     * @return the parsed condition
+     * @throws VDFParseException if the expression is malformed
+     */
+    public static VDFCondition parse(String expression) {
+        String expr = expression.trim();
+        if(expr.length() >= 2 && expr.charAt(0) == '[' && expr.charAt(expr.length() - 1) == ']')
+            expr = expr.substring(1, expr.length() - 1).trim();
+
+        Compiler compiler = new Compiler(expr);
+        compiler.or();
+        if(compiler.pos != expr.length())
+            throw compiler.error();
+
+        byte[] ops = new byte[compiler.ops.size()];
+        for(int i = 0; i < ops.length; i++)
+            ops[i] = compiler.ops.get(i);
+
+        return new VDFCondition(expr, ops, compiler.names.toArray(new String[0]));
+    }
+
+    /**
+     * Evaluates the conditional against a set of defines.
+     * @param defines the names that are defined, without the leading '$' (e.g. "WIN32")
+     * @return if the value guarded by this conditional is present under the defines
+     */
+    public boolean evaluate(Set<String> defines) {
+        boolean[] stack = new boolean[ops.length];
+        int top = 0;
+        int name = 0;
+
+        for(byte op : ops) {
+            switch (op) {
+                case OP_DEFINE:
+                    stack[top++] = defines.contains(names[name++]);
+                    break;
+                case OP_NOT:
+                    stack[top - 1] = !stack[top - 1];
+                    break;
+                case OP_AND:
+                    top--;
+                    stack[top - 1] = stack[top - 1] & stack[top];
+                    break;
+                case OP_OR:
+                    top--;
+                    stack[top - 1] = stack[top - 1] | stack[top];
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Returns the expression as it appeared between the brackets.
+     * @return the conditional expression
+     */
+    public String expression() {
+        return expression;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VDFCondition && ((VDFCondition) o).expression.equals(expression);
+    }
+
+    @Override
+    public int hashCode() {
+        return expression.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + expression + "]";
+    }
+
+    /**
+     * Recursive descent compiler for the conditional grammar:
+     * <pre>
+     * or    := and ('||' and)*
+     * and   := unary ('&amp;&amp;' unary)*
+     * unary := '!' unary | '(' or ')' | '$'? name
+     * </pre>
+     */
+    private static class Compiler {
+
+        private final String expr;
+        private final List<Byte> ops = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private int pos = 0;
+
+        Compiler(String expr) {
+            this.expr = expr;
+        }
+
+        void or() {
+            and();
+            while(accept("||")) {
+                and();
+                ops.add(OP_OR);
+            }
+        }
+
+        void and() {
+            unary();
+            while(accept("&&")) {
+                unary();
+                ops.add(OP_AND);
+            }
+        }
+
+        void unary() {
+            skipWhitespace();
+            if(accept("!")) {
+                unary();
+                ops.add(OP_NOT);
+            } else if(accept("(")) {
+                or();
+                if(!accept(")"))
+                    throw error();
+            } else {
+                accept("$");
+                int start = pos;
+                while(pos < expr.length() && isNameChar(expr.charAt(pos)))
+                    pos++;
+                if(start == pos)
+                    throw error();
+
+                names.add(expr.substring(start, pos));
+                ops.add(OP_DEFINE);
+                skipWhitespace();
+            }
+        }
+
+        boolean accept(String token) {
+            skipWhitespace();
+            if(expr.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        void skipWhitespace() {
+            while(pos < expr.length() && Character.isWhitespace(expr.charAt(pos)))
+                pos++;
+        }
+
+        boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+
+        VDFParseException error() {
+            return new VDFParseException("Malformed conditional [" + expr + "] at position " + pos);
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes 64-bit content hashes of VDF subtrees.  Two subtrees with the same keys, values and conditionals in the
+ * same order have the same hash, regardless of which node classes they are made of.
+ * <p>
+ * Hashes of immutable nodes are cached on the nodes themselves, and hashes of flat nodes on their tree, since they can
+ * never change.  Hashes of mutable nodes are cached in a memo that lives as long as this object, so it must not
+ * outlive modifications to the tree.
+ * @author Brendan Heinonen
+ */
+final class VDFContentHash {
+
+    private static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private static final long NODE_TAG = 0x4e4f4445L;
+    private static final long VALUE_TAG = 0x56414c55L;
+
+    private final Map<VDFNode, Long> memo = new IdentityHashMap<>();
+
+    /**
+     * Returns the content hash of a subtree, computing the hashes of every subnode that is not yet known.  Subnodes are
+     * hashed iteratively, children before parents, so deep trees do not recurse.
+     * @param root the root of the subtree
+     * @return the content hash of the subtree
+     */
+    long hash(VDFNode root) {
+        long known = known(root);
+        if(known != 0)
+            return known;
+
+        // Collect unhashed nodes in preorder; walking that list backwards visits children before their parents
+        List<VDFNode> order = new ArrayList<>();
+        ArrayDeque<VDFNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while(!stack.isEmpty()) {
+            VDFNode node = stack.pop();
+            order.add(node);
+            for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); ) {
+                for(Object value : it.next().getValue()) {
+                    if(value instanceof VDFNode && known((VDFNode) value) == 0)
+                        stack.push((VDFNode) value);
+                }
+            }
+        }
+
+        for(int i = order.size() - 1; i >= 0; i--) {
+            VDFNode node = order.get(i);
+            if(known(node) == 0)
+                remember(node, hashLevel(node));
+        }
+
+        return known(root);
+    }
+
+    /**
+     * Hashes a single node whose subnodes have already been hashed.
+     */
+    private long hashLevel(VDFNode node) {
+        long h = SEED;
+        for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); ) {
+            Map.Entry<String, Object[]> e = it.next();
+            String key = e.getKey();
+            Object[] values = e.getValue();
+
+            h = combine(h, hashChars(key));
+            h = combine(h, values.length);
+            for(int i = 0; i < values.length; i++) {
+                h = combine(h, hashValue(values[i]));
+
+                VDFCondition condition = node.getCondition(key, i);
+                if(condition != null)
+                    h = combine(h, hashChars(condition.expression()));
+            }
+        }
+        return finish(h);
+    }
+
+    /**
+     * Hashes a single value.  Subnodes must already be hashed.
+     * @param value a leaf value or subnode
+     * @return the hash of the value
+     */
+    long hashValue(Object value) {
+        if(value instanceof VDFNode)
+            return combine(NODE_TAG, known((VDFNode) value));
+        return combine(VALUE_TAG, hashChars(value instanceof CharSequence ? (CharSequence) value : value.toString()));
+    }
+
+    private long known(VDFNode node) {
+        if(node instanceof VDFImmutableNode)
+            return ((VDFImmutableNode) node).cachedHash();
+        if(node instanceof VDFFlatNode)
+            return ((VDFFlatNode) node).cachedHash();
+
+        Long hash = memo.get(node);
+        return hash != null ? hash : 0;
+    }
+
+    private void remember(VDFNode node, long hash) {
+        if(node instanceof VDFImmutableNode)
+            ((VDFImmutableNode) node).cacheHash(hash);
+        else if(node instanceof VDFFlatNode)
+            ((VDFFlatNode) node).cacheHash(hash);
+        else
+            memo.put(node, hash);
+    }
+
+    /**
+     * FNV-1a over the UTF-16 code units of a character sequence.
+     */
+    static long hashChars(CharSequence chars) {
+        long h = SEED;
+        for(int i = 0, length = chars.length(); i < length; i++) {
+            h ^= chars.charAt(i);
+            h *= PRIME;
+        }
+        return h;
+    }
+
+    private static long combine(long h, long value) {
+        return (h ^ value) * PRIME + 0x9e3779b97f4a7c15L;
+    }
+
+    /**
+     * Finalizes a hash with the MurmurHash3 mixer.  Zero is reserved to mean "not hashed yet".
+     */
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates synthetic VDF documents for tests and benchmarks.  Output only depends on the settings and the seed, so the
+ * same document can be reproduced on any machine.  Documents are streamed to a Writer as they are generated, which
+ * keeps memory use constant no matter how large the document is.
+ * <p>
+ * Every ratio is the probability of a feature occurring at a single entry; a ratio of 0 disables the feature.
+ * @author Brendan Heinonen
+ */
+public class VDFCorpusGenerator {
+
+    private static final String[] WORDS = {
+            "item", "prefab", "name", "attribute", "value", "class", "quality", "model", "player", "description",
+            "visuals", "sound", "icon", "rarity", "slot", "style", "tint", "origin", "loot", "token"
+    };
+
+    private static final String[] CONDITIONALS = {
+            "[$WIN32]", "[$OSX]", "[$LINUX]", "[!$X360]", "[$WIN32||$OSX]", "[$POSIX&&!$OSX]"
+    };
+
+    /**
+     * Generated text is collected into chunks of this size before it is handed to the Writer.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private long seed = 0;
+    private long size = 64 * 1024;
+    private int maxDepth = 4;
+    private int fanOut = 8;
+    private double nodeRatio = 0.3;
+    private double multimapRatio = 0.1;
+    private double commentRatio = 0.05;
+    private double escapeRatio = 0.02;
+    private double conditionalRatio = 0.02;
+    private double longValueRatio = 0.01;
+    private int longValueLength = 4096;
+
+    /**
+     * Sets the seed of the generator.  Equal seeds and settings produce identical documents.
+     * @param seed the random seed
+     * @return this generator
+     */
+    public VDFCorpusGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Sets the approximate size of generated documents.  Once the size is reached, the open subnodes are closed, so
+     * documents end up slightly larger than this.
+     * @param size the size in characters
+     * @return this generator
+     */
+    public VDFCorpusGenerator setSize(long size) {
+        if(size < 0)
+            throw new IllegalArgumentException("Size must not be negative");
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * Sets the maximum nesting depth of subnodes.
+     * @param maxDepth the maximum depth, or 0 for a document without subnodes
+     * @return this generator
+     */
+    public VDFCorpusGenerator setMaxDepth(int maxDepth) {
+        if(maxDepth < 0)
+            throw new IllegalArgumentException("Depth must not be negative");
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of entries in a subnode.  The number of entries of each subnode is picked uniformly
+     * between 1 and this value.  The root node has as many entries as it takes to reach the document size.
+     * @param fanOut the maximum number of entries per subnode
+     * @return this generator
+     */
+    public VDFCorpusGenerator setFanOut(int fanOut) {
+        if(fanOut < 1)
+            throw new IllegalArgumentException("Fan-out must be at least 1");
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    /**
+     * Sets the probability of an entry being a subnode rather than a value.
+     * @param nodeRatio the ratio of subnodes
+     * @return this generator
+     */
+    public VDFCorpusGenerator setNodeRatio(double nodeRatio) {
+        this.nodeRatio = ratio(nodeRatio);
+        return this;
+    }
+
+    /**
+     * Sets the probability of an entry repeating the key of the previous entry.
+     * @param multimapRatio the ratio of multimapped entries
+     * @return this generator
+     */
+    public VDFCorpusGenerator setMultimapRatio(double multimapRatio) {
+        this.multimapRatio = ratio(multimapRatio);
+        return this;
+    }
+
+    /**
+     * Sets the probability of an entry being accompanied by a comment, either on its own line or after the value.
+     * @param commentRatio the ratio of commented entries
+     * @return this generator
+     */
+    public VDFCorpusGenerator setCommentRatio(double commentRatio) {
+        this.commentRatio = ratio(commentRatio);
+        return this;
+    }
+
+    /**
+     * Sets the probability of a value containing escaped quotes.
+     * @param escapeRatio the ratio of values with escaped quotes
+     * @return this generator
+     */
+    public VDFCorpusGenerator setEscapeRatio(double escapeRatio) {
+        this.escapeRatio = ratio(escapeRatio);
+        return this;
+    }
+
+    /**
+     * Sets the probability of an entry being guarded by a conditional such as <code>[$WIN32]</code>.
+     * @param conditionalRatio the ratio of conditional entries
+     * @return this generator
+     */
+    public VDFCorpusGenerator setConditionalRatio(double conditionalRatio) {
+        this.conditionalRatio = ratio(conditionalRatio);
+        return this;
+    }
+
+    /**
+     * Sets the probability of a value being a long value, such as a localized description.
+     * @param longValueRatio the ratio of long values
+     * @return this generator
+     */
+    public VDFCorpusGenerator setLongValueRatio(double longValueRatio) {
+        this.longValueRatio = ratio(longValueRatio);
+        return this;
+    }
+
+    /**
+     * Sets the length of long values.
+     * @param longValueLength the length in characters
+     * @return this generator
+     */
+    public VDFCorpusGenerator setLongValueLength(int longValueLength) {
+        if(longValueLength < 1)
+            throw new IllegalArgumentException("Long values must be at least 1 character long");
+        this.longValueLength = longValueLength;
+        return this;
+    }
+
+    private static double ratio(double ratio) {
+        if(ratio < 0 || ratio > 1)
+            throw new IllegalArgumentException("Ratio must be between 0 and 1");
+        return ratio;
+    }
+
+    /**
+     * Generates a document into a string.
+     * @return the generated document
+     */
+    public String generate() {
+        StringWriter out = new StringWriter();
+        try {
+            generate(out);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Streams a generated document to a Writer.  The writer is flushed, but not closed.
+     * @param out the writer to write the document to
+     * @throws IOException if the writer fails
+     */
+    public void generate(Writer out) throws IOException {
+        Output output = new Output(out);
+        Random random = new Random(seed);
+
+        // Open subnodes are tracked explicitly, so the depth is only limited by the setting
+        int[] remaining = new int[maxDepth + 1];
+        String[] lastKeys = new String[maxDepth + 1];
+        int[] keyCounters = new int[maxDepth + 1];
+        int depth = 0;
+
+        while(true) {
+            if(output.written() >= size) {
+                // Close every open subnode once the size is reached
+                if(depth == 0)
+                    break;
+                remaining[depth] = 0;
+            }
+
+            if(depth > 0 && remaining[depth] == 0) {
+                depth--;
+                output.indent(depth).append("}").newLine();
+                continue;
+            }
+            remaining[depth]--;
+
+            String key;
+            if(lastKeys[depth] != null && random.nextDouble() < multimapRatio)
+                key = lastKeys[depth];
+            else
+                key = WORDS[random.nextInt(WORDS.length)] + "_" + keyCounters[depth]++;
+            lastKeys[depth] = key;
+
+            if(random.nextDouble() < commentRatio)
+                output.indent(depth).append("// ").append(WORDS[random.nextInt(WORDS.length)]).append(" section").newLine();
+
+            output.indent(depth).append('"').append(key).append('"');
+
+            if(depth < maxDepth && random.nextDouble() < nodeRatio) {
+                output.newLine().indent(depth).append("{");
+                output.newLine();
+                depth++;
+                remaining[depth] = 1 + random.nextInt(fanOut);
+                lastKeys[depth] = null;
+                keyCounters[depth] = 0;
+                continue;
+            }
+
+            output.append('\t').append('"');
+            value(random, output);
+            output.append('"');
+            if(random.nextDouble() < conditionalRatio)
+                output.append(' ').append(CONDITIONALS[random.nextInt(CONDITIONALS.length)]);
+            if(random.nextDouble() < commentRatio)
+                output.append("\t// trailing comment");
+            output.newLine();
+        }
+
+        output.flush();
+    }
+
+    private void value(Random random, Output output) throws IOException {
+        if(random.nextDouble() < longValueRatio) {
+            for(int i = 0; i < longValueLength; i++)
+                output.append(i % 8 == 7 ? ' ' : (char) ('a' + random.nextInt(26)));
+            return;
+        }
+
+        switch(random.nextInt(4)) {
+            case 0:
+                output.append(Integer.toString(random.nextInt(100000)));
+                break;
+            case 1:
+                output.append(Float.toString(random.nextInt(10000) / 100f));
+                break;
+            case 2:
+                output.append(Integer.toString(random.nextInt(256))).append(' ')
+                        .append(Integer.toString(random.nextInt(256))).append(' ')
+                        .append(Integer.toString(random.nextInt(256)));
+                break;
+            default:
+                output.append("#").append(WORDS[random.nextInt(WORDS.length)]).append("_")
+                        .append(Integer.toString(random.nextInt(1000)));
+                break;
+        }
+
+        if(random.nextDouble() < escapeRatio)
+            output.append(" \\\"quoted\\\"");
+    }
+
+    /**
+     * Counts and buffers the generated text.
+     */
+    private static final class Output {
+
+        private final Writer out;
+
+        private final StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 256);
+
+        private final char[] buffer = new char[CHUNK_SIZE];
+
+        private long flushed = 0;
+
+        Output(Writer out) {
+            this.out = out;
+        }
+
+        Output append(CharSequence text) throws IOException {
+            chunk.append(text);
+            return drain();
+        }
+
+        Output append(char c) throws IOException {
+            chunk.append(c);
+            return drain();
+        }
+
+        Output indent(int depth) throws IOException {
+            for(int i = 0; i < depth; i++)
+                chunk.append('\t');
+            return drain();
+        }
+
+        Output newLine() throws IOException {
+            return append('\n');
+        }
+
+        long written() {
+            return flushed + chunk.length();
+        }
+
+        private Output drain() throws IOException {
+            if(chunk.length() >= CHUNK_SIZE)
+                write();
+            return this;
+        }
+
+        private void write() throws IOException {
+            for(int from = 0; from < chunk.length(); from += buffer.length) {
+                int length = Math.min(buffer.length, chunk.length() - from);
+                chunk.getChars(from, from + length, buffer, 0);
+                out.write(buffer, 0, length);
+            }
+            flushed += chunk.length();
+            chunk.setLength(0);
+        }
+
+        void flush() throws IOException {
+            write();
+            out.flush();
+        }
+
+    }
+
+}
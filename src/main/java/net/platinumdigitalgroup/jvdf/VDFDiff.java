@@ -0,0 +1,283 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Computes the structural differences between two VDF trees.
+ * <p>
+ * Every subtree is summarized by a 64-bit content hash, so subtrees that did not change are skipped without being
+ * visited.  Hashes of immutable nodes are cached on the nodes, which makes repeated diffs of snapshots that share most
+ * of their subtrees (see {@link VDFImmutableNode.Builder}) proportional to the size of the change.  Two subtrees with
+ * equal hashes are considered identical; with 64-bit hashes a collision is vanishingly unlikely.
+ * <p>
+ * Values at the same index of the same key are compared with each other, so a value inserted in the middle of a
+ * multimap shows up as a change of every following index.
+ * @author Brendan Heinonen
+ */
+public class VDFDiff {
+
+    /**
+     * Describes what happened to a value.
+     */
+    public enum Type {
+
+        /**
+         * The value only exists in the new tree.
+         */
+        ADDED,
+
+        /**
+         * The value only exists in the old tree.
+         */
+        REMOVED,
+
+        /**
+         * The value exists in both trees but differs.  Subnodes that exist in both trees are only reported as changed
+         * when their conditional changed; otherwise the differences within them are reported.
+         */
+        CHANGED
+
+    }
+
+    /**
+     * A single difference between two trees.
+     */
+    public static final class Change {
+
+        private final Type type;
+        private final VDFPath path;
+        private final Object oldValue;
+        private final Object newValue;
+
+        Change(Type type, VDFPath path, Object oldValue, Object newValue) {
+            this.type = type;
+            this.path = path;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Returns the path of the value, including the multimap index of every key.
+         * @return the path of the value
+         */
+        public VDFPath getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the value in the old tree.
+         * @return the old value, or null if the value was added
+         */
+        public Object getOldValue() {
+            return oldValue;
+        }
+
+        /**
+         * Returns the value in the new tree.
+         * @return the new value, or null if the value was removed
+         */
+        public Object getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + path + ": " + oldValue + " -> " + newValue;
+        }
+
+    }
+
+    /**
+     * Two subnodes at the same path that still need to be compared.
+     */
+    private static final class Pair {
+
+        private final VDFPath path;
+        private final VDFNode oldNode;
+        private final VDFNode newNode;
+
+        Pair(VDFPath path, VDFNode oldNode, VDFNode newNode) {
+            this.path = path;
+            this.oldNode = oldNode;
+            this.newNode = newNode;
+        }
+
+    }
+
+    /**
+     * Computes the differences between two trees.  The stream is lazy: subtrees are compared as the stream is
+     * consumed, in document order, without recursion.
+     * @param oldTree the old tree
+     * @param newTree the new tree
+     * @return a stream of the differences between the trees
+     */
+    public Stream<Change> diff(VDFNode oldTree, VDFNode newTree) {
+        VDFContentHash hashes = new VDFContentHash();
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(new Pair(VDFPath.ROOT, oldTree, newTree));
+
+        Spliterator<Change> spliterator = new Spliterators.AbstractSpliterator<Change>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Change> action) {
+                while(!pending.isEmpty()) {
+                    Object next = pending.pop();
+                    if(next instanceof Change) {
+                        action.accept((Change) next);
+                        return true;
+                    }
+                    expand((Pair) next, hashes, pending);
+                }
+                return false;
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Collects the differences between two trees into a list.
+     * @param oldTree the old tree
+     * @param newTree the new tree
+     * @return the differences between the trees, in document order
+     */
+    public List<Change> changes(VDFNode oldTree, VDFNode newTree) {
+        List<Change> changes = new ArrayList<>();
+        diff(oldTree, newTree).forEachOrdered(changes::add);
+        return changes;
+    }
+
+    /**
+     * Returns the content hash of a subtree.
+     * @param node the root of the subtree
+     * @return a 64-bit hash of the keys, values and conditionals of the subtree
+     */
+    public long contentHash(VDFNode node) {
+        return new VDFContentHash().hash(node);
+    }
+
+    /**
+     * Compares one level of two subnodes and pushes the results onto the pending stack so that they are popped in
+     * document order.
+     */
+    private static void expand(Pair pair, VDFContentHash hashes, ArrayDeque<Object> pending) {
+        VDFNode a = pair.oldNode;
+        VDFNode b = pair.newNode;
+        if(a == b || hashes.hash(a) == hashes.hash(b))
+            return;
+
+        List<Object> items = new ArrayList<>();
+        Comparator<? super String> comparator = a.comparator();
+
+        Iterator<Map.Entry<String, Object[]>> ia = a.rawEntries();
+        Iterator<Map.Entry<String, Object[]>> ib = b.rawEntries();
+        Map.Entry<String, Object[]> ea = ia.hasNext() ? ia.next() : null;
+        Map.Entry<String, Object[]> eb = ib.hasNext() ? ib.next() : null;
+
+        // Merge the two sorted key sequences
+        while(ea != null || eb != null) {
+            int cmp;
+            if(ea == null)
+                cmp = 1;
+            else if(eb == null)
+                cmp = -1;
+            else
+                cmp = comparator != null ? comparator.compare(ea.getKey(), eb.getKey()) : ea.getKey().compareTo(eb.getKey());
+
+            if(cmp < 0) {
+                removed(pair.path, ea.getKey(), ea.getValue(), 0, items);
+                ea = ia.hasNext() ? ia.next() : null;
+            } else if(cmp > 0) {
+                added(pair.path, eb.getKey(), eb.getValue(), 0, items);
+                eb = ib.hasNext() ? ib.next() : null;
+            } else {
+                compareValues(pair, ea.getKey(), ea.getValue(), eb.getValue(), hashes, items);
+                ea = ia.hasNext() ? ia.next() : null;
+                eb = ib.hasNext() ? ib.next() : null;
+            }
+        }
+
+        for(int i = items.size() - 1; i >= 0; i--)
+            pending.push(items.get(i));
+    }
+
+    private static void compareValues(Pair pair, String key, Object[] oldValues, Object[] newValues,
+                                      VDFContentHash hashes, List<Object> items) {
+        int common = Math.min(oldValues.length, newValues.length);
+        for(int i = 0; i < common; i++) {
+            Object o = oldValues[i];
+            Object n = newValues[i];
+            VDFPath path = pair.path.child(key, i);
+
+            if(o instanceof VDFNode && n instanceof VDFNode) {
+                // Hashes are compared when the pair is expanded, so unchanged subtrees cost nothing beyond this
+                if(!Objects.equals(pair.oldNode.getCondition(key, i), pair.newNode.getCondition(key, i)))
+                    items.add(new Change(Type.CHANGED, path, o, n));
+                items.add(new Pair(path, (VDFNode) o, (VDFNode) n));
+            } else if(o instanceof VDFNode || n instanceof VDFNode || !sameValue(o, n)
+                    || !Objects.equals(pair.oldNode.getCondition(key, i), pair.newNode.getCondition(key, i))) {
+                items.add(new Change(Type.CHANGED, path, o, n));
+            }
+        }
+
+        removed(pair.path, key, oldValues, common, items);
+        added(pair.path, key, newValues, common, items);
+    }
+
+    private static boolean sameValue(Object a, Object b) {
+        if(a.equals(b))
+            return true;
+
+        CharSequence x = a instanceof CharSequence ? (CharSequence) a : a.toString();
+        CharSequence y = b instanceof CharSequence ? (CharSequence) b : b.toString();
+        if(x.length() != y.length())
+            return false;
+        for(int i = 0; i < x.length(); i++) {
+            if(x.charAt(i) != y.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static void removed(VDFPath parent, String key, Object[] values, int from, List<Object> items) {
+        for(int i = from; i < values.length; i++)
+            items.add(new Change(Type.REMOVED, parent.child(key, i), values[i], null));
+    }
+
+    private static void added(VDFPath parent, String key, Object[] values, int from, List<Object> items) {
+        for(int i = from; i < values.length; i++)
+            items.add(new Change(Type.ADDED, parent.child(key, i), null, values[i]));
+    }
+
+}
@@ -0,0 +1,841 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Edits a VDF document without losing its comments and formatting.  The document keeps the source span of every key
+ * and value, and edits are recorded against those spans.  When the document is written, only the changed regions are
+ * rewritten and the rest is copied as it was, so patching a value of a big hand-maintained file produces a one-line
+ * diff.
+ * <p>
+ * Values are addressed by {@link VDFPath}, e.g. <code>VDFPath.parse("items_game/items/5021/name")</code>, with the
+ * same keys and multimap indices as a parsed tree.  New values follow the indentation and key/value separator of
+ * their siblings.  {@link #save(Path)} patches the file in place when every change keeps its length in bytes, and
+ * otherwise streams the spliced document to a temporary file that replaces the original.
+ * <p>
+ * Documents are read and written as UTF-8; a byte order mark is kept.  A document is not thread-safe.
+ * @author Brendan Heinonen
+ */
+public final class VDFDocument {
+
+    private String text;
+
+    /**
+     * The file the document was loaded from or last saved to, which can be patched in place.
+     */
+    private Path file;
+
+    private long fileBytes;
+
+    /**
+     * The top level of the document.  Its close index is the end of the text.
+     */
+    private Entry root;
+
+    private String indentUnit;
+
+    private String lineSeparator;
+
+    private boolean modified;
+
+    private VDFNode tree;
+
+    private VDFDocument(String text) {
+        reset(text);
+    }
+
+    /**
+     * Creates a document from VDF text.
+     * @param text the VDF document
+     * @return a document that can be edited
+     * @throws VDFParseException if the subnodes of the document do not match up
+     */
+    public static VDFDocument of(String text) {
+        return new VDFDocument(text);
+    }
+
+    /**
+     * Loads a UTF-8 VDF file.
+     * @param file the file to load
+     * @return a document that can be edited and saved back to the file
+     * @throws IOException if the file cannot be read
+     * @throws VDFParseException if the subnodes of the document do not match up
+     */
+    public static VDFDocument load(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        VDFDocument document = new VDFDocument(new String(bytes, StandardCharsets.UTF_8));
+        document.file = file;
+        document.fileBytes = bytes.length;
+        return document;
+    }
+
+    /**
+     * Replaces a string value.
+     * @param path the path of the value
+     * @param value the new value
+     * @return this document
+     * @throws IllegalArgumentException if the value does not exist or is a subnode
+     */
+    public VDFDocument set(VDFPath path, String value) {
+        Entry entry = find(path);
+        if(entry.children != null || entry.added instanceof VDFNode)
+            throw new IllegalArgumentException("The value at " + path + " is a subnode");
+
+        if(entry.start < 0) {
+            entry.added = value;
+        } else {
+            entry.value = value;
+            entry.changed = true;
+        }
+        return modified();
+    }
+
+    /**
+     * Adds a value after the last value of a subnode.
+     * @param parent the path of the subnode, or {@link VDFPath#ROOT}
+     * @param key the key of the value
+     * @param value a String or VDFNode
+     * @return this document
+     * @throws IllegalArgumentException if the parent does not exist or is not a subnode
+     */
+    public VDFDocument add(VDFPath parent, String key, Object value) {
+        if(!(value instanceof String) && !(value instanceof VDFNode))
+            throw new IllegalArgumentException("Values must be Strings or VDFNodes");
+
+        Entry container = parent.getParent() == null ? root : find(parent);
+        if(container.children == null)
+            throw new IllegalArgumentException("The value at " + parent + " is not a subnode");
+
+        Entry entry = new Entry(key);
+        entry.added = value instanceof VDFNode ? VDFImmutableNode.copyOf((VDFNode) value) : value;
+        container.children.add(entry);
+        return modified();
+    }
+
+    /**
+     * Removes a value, along with its conditional, any comment following it on the same line, and its line if
+     * nothing else is left on it.
+     * @param path the path of the value
+     * @return this document
+     * @throws IllegalArgumentException if the value does not exist
+     */
+    public VDFDocument remove(VDFPath path) {
+        Entry entry = find(path);
+        Entry container = path.getParent().getParent() == null ? root : find(path.getParent());
+        if(entry.start < 0)
+            container.children.remove(entry);
+        else
+            entry.removed = true;
+        return modified();
+    }
+
+    /**
+     * Returns whether the document was edited since it was created, loaded or saved.
+     * @return if there are edits that have not been saved
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Parses the document with its edits.
+     * @return the root of the edited document
+     */
+    public VDFNode root() {
+        if(tree == null)
+            tree = new VDFParser().parse(toString());
+        return tree;
+    }
+
+    /**
+     * Returns the document with its edits.
+     * @return the edited VDF text
+     */
+    @Override
+    public String toString() {
+        List<Splice> splices = splices();
+        if(splices.isEmpty())
+            return text;
+
+        StringBuilder builder = new StringBuilder(text.length() + 256);
+        int copied = 0;
+        for(Splice splice : splices) {
+            builder.append(text, copied, splice.start).append(splice.replacement);
+            copied = splice.end;
+        }
+        return builder.append(text, copied, text.length()).toString();
+    }
+
+    /**
+     * Writes the document with its edits as UTF-8.  Unchanged regions are copied without building the whole edited
+     * text.  The stream is flushed but not closed.
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        int copied = 0;
+        for(Splice splice : splices()) {
+            writer.write(text, copied, splice.start - copied);
+            writer.write(splice.replacement);
+            copied = splice.end;
+        }
+        writer.write(text, copied, text.length() - copied);
+        writer.flush();
+    }
+
+    /**
+     * Saves the document with its edits as UTF-8.  If the file is the one the document was loaded from and every
+     * change keeps its length in bytes, only the changed bytes are written.  Otherwise the document is written to a
+     * temporary file next to it, which then replaces the file.  The file must not have been changed by anyone else
+     * since it was loaded.
+     * @param file the file to save to
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        List<Splice> splices = splices();
+        if(!patch(file, splices)) {
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try(OutputStream out = Files.newOutputStream(temp)) {
+                    write(out);
+                }
+                try {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch(AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        String saved = toString();
+        reset(saved);
+        this.file = file;
+        this.fileBytes = utf8Length(saved, 0, saved.length());
+    }
+
+    /**
+     * Writes the changed bytes into the file the document was loaded from, if every change keeps its length.
+     * @return true if the file was patched
+     */
+    private boolean patch(Path file, List<Splice> splices) throws IOException {
+        if(this.file == null || !Files.exists(file) || !Files.isSameFile(this.file, file)
+                || Files.size(file) != fileBytes)
+            return false;
+
+        // Byte offsets are counted along the text, which the splices are sorted by
+        long[] offsets = new long[splices.size()];
+        long bytes = 0;
+        int counted = 0;
+        for(int i = 0; i < splices.size(); i++) {
+            Splice splice = splices.get(i);
+            bytes += utf8Length(text, counted, splice.start);
+            offsets[i] = bytes;
+            long length = utf8Length(text, splice.start, splice.end);
+            if(utf8Length(splice.replacement, 0, splice.replacement.length()) != length)
+                return false;
+            bytes += length;
+            counted = splice.end;
+        }
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for(int i = 0; i < splices.size(); i++) {
+                ByteBuffer buffer = StandardCharsets.UTF_8.encode(splices.get(i).replacement);
+                long position = offsets[i];
+                while(buffer.hasRemaining())
+                    position += channel.write(buffer, position);
+            }
+        }
+        return true;
+    }
+
+    private VDFDocument modified() {
+        modified = true;
+        tree = null;
+        return this;
+    }
+
+    /**
+     * Finds the entry of a value.
+     */
+    private Entry find(VDFPath path) {
+        if(path.getParent() == null)
+            throw new IllegalArgumentException("The root of the document is not a value");
+
+        Entry container = path.getParent().getParent() == null ? root : find(path.getParent());
+        if(container.children == null)
+            throw new IllegalArgumentException("The value at " + path.getParent() + " is not a subnode");
+
+        int index = path.getIndex();
+        for(Entry entry : container.children) {
+            if(!entry.removed && entry.key.equals(path.getKey()) && index-- == 0)
+                return entry;
+        }
+        throw new IllegalArgumentException("The value at " + path + " does not exist");
+    }
+
+    /**
+     * Starts over with a new text, dropping every edit.
+     */
+    private void reset(String text) {
+        this.text = text;
+        this.root = scan();
+        this.indentUnit = detectIndentUnit();
+        this.lineSeparator = text.contains("\r\n") ? "\r\n" : "\n";
+        this.modified = false;
+        this.tree = null;
+    }
+
+    /**
+     * A key and its value, either read from the text or added by an edit.
+     */
+    private static final class Entry {
+
+        private final String key;
+
+        /**
+         * The index of the key in the text, or -1 if the entry was added.
+         */
+        private int start = -1;
+
+        private int keyEnd;
+
+        /**
+         * The span of the value: a token with its quotes, or a subnode from its opening to after its closing brace.
+         */
+        private int valueStart;
+        private int valueEnd;
+
+        /**
+         * The index after the entry, including a conditional that follows the value.
+         */
+        private int end;
+
+        /**
+         * The index of the closing brace of a subnode.
+         */
+        private int close;
+
+        private boolean quoted;
+
+        /**
+         * The entries of a subnode, or null for a string value.
+         */
+        private List<Entry> children;
+
+        private String value;
+
+        private boolean changed;
+
+        private boolean removed;
+
+        /**
+         * The value of an added entry.
+         */
+        private Object added;
+
+        Entry(String key) {
+            this.key = key;
+        }
+
+    }
+
+    /**
+     * A region of the text and what it is replaced with.
+     */
+    private static final class Splice {
+
+        private final int start;
+        private final int end;
+        private final String replacement;
+
+        Splice(int start, int end, String replacement) {
+            this.start = start;
+            this.end = end;
+            this.replacement = replacement;
+        }
+
+    }
+
+    /**
+     * Reads the entries of the text.  Subnodes are tracked on a stack rather than by recursion, so deep documents are
+     * safe.
+     */
+    private Entry scan() {
+        int length = text.length();
+        Entry top = new Entry(null);
+        top.children = new ArrayList<>();
+
+        ArrayDeque<Entry> open = new ArrayDeque<>();
+        Entry container = top;
+        int i = 0;
+        while(true) {
+            i = skipSpace(i);
+            if(i >= length) {
+                if(container != top)
+                    throw new VDFParseException("The subnode " + container.key + " was not closed (missing '}'?).");
+                top.close = length;
+                return top;
+            }
+
+            char c = text.charAt(i);
+            if(c == '}') {
+                if(container == top)
+                    throw new VDFParseException("A '}' at index " + i + " closes no subnode.");
+                container.close = i;
+                container.valueEnd = i + 1;
+                container.end = conditionAfter(i + 1);
+                i = container.end;
+                container = open.pop();
+                continue;
+            }
+            if(c == '[') {
+                // A conditional without a value to guard
+                i = conditionEnd(i);
+                continue;
+            }
+            if(c == ']' || c == '{') {
+                i++;
+                continue;
+            }
+
+            int keyEnd = c == '"' ? quotedEnd(i) : bareEnd(i);
+            int v = skipSpace(keyEnd);
+            if(v < length && text.charAt(v) == '[')
+                v = skipSpace(conditionEnd(v));
+            if(v >= length || text.charAt(v) == '}') {
+                // A key without a value is dropped by the parser
+                i = v;
+                continue;
+            }
+
+            Entry entry = new Entry(decode(i, keyEnd));
+            entry.start = i;
+            entry.keyEnd = keyEnd;
+            entry.valueStart = v;
+            container.children.add(entry);
+
+            char vc = text.charAt(v);
+            if(vc == '{') {
+                entry.children = new ArrayList<>();
+                open.push(container);
+                container = entry;
+                i = v + 1;
+                continue;
+            }
+
+            entry.quoted = vc == '"';
+            entry.valueEnd = entry.quoted ? quotedEnd(v) : bareEnd(v);
+            entry.value = decode(v, entry.valueEnd);
+            entry.end = conditionAfter(entry.valueEnd);
+            i = entry.end;
+        }
+    }
+
+    /**
+     * Returns the index after a conditional that follows a value, or the index after the value if there is none.
+     */
+    private int conditionAfter(int valueEnd) {
+        int i = skipSpace(valueEnd);
+        return i < text.length() && text.charAt(i) == '[' ? conditionEnd(i) : valueEnd;
+    }
+
+    private int conditionEnd(int i) {
+        int end = text.indexOf(']', i);
+        return end < 0 ? text.length() : end + 1;
+    }
+
+    /**
+     * Skips whitespace, line breaks, byte order marks and comments.
+     */
+    private int skipSpace(int i) {
+        int length = text.length();
+        while(i < length) {
+            char c = text.charAt(i);
+            if(isSpace(c) || c == '\n' || c == '\r' || c == '\uFEFF')
+                i++;
+            else if(isComment(i))
+                i = endOfLine(i);
+            else
+                break;
+        }
+        return i;
+    }
+
+    private int quotedEnd(int i) {
+        int length = text.length();
+        for(i++; i < length; i++) {
+            char c = text.charAt(i);
+            if(c == '\\')
+                i++;
+            else if(c == '"')
+                return i + 1;
+        }
+        throw new VDFParseException("A quoted string was not terminated (missing '\"'?).");
+    }
+
+    private int bareEnd(int i) {
+        int length = text.length();
+        while(i < length) {
+            char c = text.charAt(i);
+            if(c == '\\') {
+                i += 2;
+                continue;
+            }
+            if(isSpace(c) || c == '\n' || c == '\r' || c == '"' || c == '{' || c == '}' || c == '[' || c == ']'
+                    || isComment(i))
+                break;
+            i++;
+        }
+        return Math.min(i, length);
+    }
+
+    /**
+     * Decodes a token the way the parser does: escape sequences are resolved and runs of whitespace become a single
+     * space.
+     */
+    private String decode(int start, int end) {
+        if(text.charAt(start) == '"') {
+            start++;
+            end--;
+        }
+
+        StringBuilder builder = new StringBuilder(end - start);
+        for(int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if(c == '\\' && i + 1 < end) {
+                c = text.charAt(++i);
+                builder.append(c == 'n' ? '\n' : c);
+            } else if(isSpace(c) || c == '\n' || c == '\r') {
+                while(i + 1 < end && (isSpace(text.charAt(i + 1)) || text.charAt(i + 1) == '\n'
+                        || text.charAt(i + 1) == '\r'))
+                    i++;
+                builder.append(' ');
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private boolean isComment(int i) {
+        if(text.charAt(i) != '/' || i + 1 >= text.length())
+            return false;
+        char n = text.charAt(i + 1);
+        return n == '/' || n == '*';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == 0x0B;
+    }
+
+    private int endOfLine(int i) {
+        int end = text.indexOf('\n', i);
+        return end < 0 ? text.length() : end;
+    }
+
+    private int lineStart(int i) {
+        return text.lastIndexOf('\n', i - 1) + 1;
+    }
+
+    private boolean isBlank(int from, int to) {
+        for(int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if(!isSpace(c) && c != '\uFEFF')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the indentation of the first indented line as one level of indentation.
+     */
+    private String detectIndentUnit() {
+        for(int i = text.indexOf('\n'); i >= 0 && i + 1 < text.length(); i = text.indexOf('\n', i + 1)) {
+            int from = i + 1;
+            int to = from;
+            while(to < text.length() && isSpace(text.charAt(to)))
+                to++;
+            if(to > from && to < text.length() && text.charAt(to) != '\r' && text.charAt(to) != '\n')
+                return text.substring(from, to);
+        }
+        return "\t";
+    }
+
+    /**
+     * Turns the edits into splices of the text, sorted by their position.
+     */
+    private List<Splice> splices() {
+        List<Splice> splices = new ArrayList<>();
+        if(!modified)
+            return splices;
+
+        ArrayDeque<Entry> pending = new ArrayDeque<>();
+        pending.push(root);
+        while(!pending.isEmpty()) {
+            Entry container = pending.pop();
+            List<Entry> added = new ArrayList<>();
+            for(Entry entry : container.children) {
+                if(entry.start < 0)
+                    added.add(entry);
+                else if(entry.removed)
+                    splices.add(removal(entry));
+                else if(entry.children != null)
+                    pending.push(entry);
+                else if(entry.changed)
+                    splices.add(new Splice(entry.valueStart, entry.valueEnd, format(entry.value, !entry.quoted)));
+            }
+            if(!added.isEmpty())
+                splices.add(insertion(container, added));
+        }
+
+        splices.sort(Comparator.comparingInt((Splice s) -> s.start).thenComparingInt(s -> s.end));
+
+        // Removals of values that share a line touch or reach into each other's whitespace, so they are merged
+        List<Splice> merged = new ArrayList<>(splices.size());
+        for(Splice splice : splices) {
+            Splice previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if(previous != null && splice.start <= previous.end && previous.replacement.isEmpty()
+                    && splice.replacement.isEmpty()) {
+                merged.set(merged.size() - 1, removal(previous.start, Math.max(previous.end, splice.end)));
+            } else if(previous == null || splice.start >= previous.end) {
+                merged.add(splice);
+            } else {
+                merged.add(new Splice(previous.end, Math.max(previous.end, splice.end), splice.replacement));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Removes a region of the text that ends a line along with the whitespace before it, or the whole line if nothing
+     * else is left on it.
+     */
+    private Splice removal(int from, int to) {
+        int length = text.length();
+        if(to < length && text.charAt(to) != '\r' && text.charAt(to) != '\n')
+            return new Splice(from, to, "");
+
+        int lineStart = lineStart(from);
+        if(isBlank(lineStart, from)) {
+            from = lineStart;
+            if(to < length && text.charAt(to) == '\r')
+                to++;
+            if(to < length && text.charAt(to) == '\n')
+                to++;
+        } else {
+            while(from > lineStart && isSpace(text.charAt(from - 1)))
+                from--;
+        }
+        return new Splice(from, to, "");
+    }
+
+    /**
+     * Removes an entry, and its line if nothing else is on it.
+     */
+    private Splice removal(Entry entry) {
+        int length = text.length();
+        int from = entry.start;
+        int to = entry.end;
+
+        // A comment after the value on the same line goes with it
+        int after = to;
+        while(after < length && isSpace(text.charAt(after)))
+            after++;
+        if(after < length && isComment(after))
+            after = endOfLine(after);
+        boolean endOfLine = after >= length || text.charAt(after) == '\n' || text.charAt(after) == '\r';
+
+        int lineStart = lineStart(from);
+        if(endOfLine && isBlank(lineStart, from)) {
+            from = lineStart;
+            to = after;
+            if(to < length && text.charAt(to) == '\r')
+                to++;
+            if(to < length && text.charAt(to) == '\n')
+                to++;
+        } else if(endOfLine) {
+            // Other values precede it on its line
+            while(from > lineStart && isSpace(text.charAt(from - 1)))
+                from--;
+            to = after;
+        } else {
+            // Other values follow it on its line
+            to = after;
+        }
+        return new Splice(from, to, "");
+    }
+
+    /**
+     * Inserts the added entries of a subnode before its closing brace, or at the end of the document.
+     */
+    private Splice insertion(Entry container, List<Entry> added) {
+        StringBuilder builder = new StringBuilder();
+        int close = container.close;
+        int lineStart = lineStart(close);
+
+        if(container != root && !isBlank(lineStart, close)) {
+            // The subnode closes on a line with other content, so the values are inserted on that line too
+            if(close > 0 && !isSpace(text.charAt(close - 1)) && text.charAt(close - 1) != '\n')
+                builder.append(' ');
+            for(Entry entry : added) {
+                render(builder, entry.key, entry.added, "", "", " ", separator(container));
+                builder.append(' ');
+            }
+            return new Splice(close, close, builder.toString());
+        }
+
+        int at = container == root ? text.length() : lineStart;
+        if(container == root && at > 0 && text.charAt(at - 1) != '\n')
+            builder.append(lineSeparator);
+
+        String indent = childIndent(container, lineStart, close);
+        for(Entry entry : added) {
+            render(builder, entry.key, entry.added, indent, indentUnit, lineSeparator, separator(container));
+            builder.append(lineSeparator);
+        }
+        return new Splice(at, at, builder.toString());
+    }
+
+    /**
+     * Returns the indentation of the values of a subnode: that of its first value if it starts a line, otherwise one
+     * level more than its closing brace.
+     */
+    private String childIndent(Entry container, int closeLineStart, int close) {
+        for(Entry entry : container.children) {
+            if(entry.start >= 0) {
+                int lineStart = lineStart(entry.start);
+                if(isBlank(lineStart, entry.start))
+                    return text.substring(lineStart, entry.start).replace("\uFEFF", "");
+                break;
+            }
+        }
+        return container == root ? "" : text.substring(closeLineStart, close) + indentUnit;
+    }
+
+    /**
+     * Returns the whitespace between the key and value of the first string value of a subnode, if they are on the
+     * same line.
+     */
+    private String separator(Entry container) {
+        for(Entry entry : container.children) {
+            if(entry.start >= 0 && entry.children == null) {
+                if(isBlank(entry.keyEnd, entry.valueStart) && entry.valueStart > entry.keyEnd)
+                    return text.substring(entry.keyEnd, entry.valueStart);
+                break;
+            }
+        }
+        return " ";
+    }
+
+    /**
+     * Renders a key and its value.  Subnodes open their brace on the line after their key.
+     */
+    private static void render(StringBuilder builder, String key, Object value, String indent, String unit,
+                               String newline, String separator) {
+        builder.append(indent);
+        VDFWriter.appendQuoted(builder, key);
+        if(!(value instanceof VDFNode)) {
+            builder.append(separator).append(format(value.toString(), false));
+            return;
+        }
+
+        VDFNode node = (VDFNode) value;
+        builder.append(newline).append(indent).append('{').append(newline);
+        for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); ) {
+            Map.Entry<String, Object[]> e = it.next();
+            Object[] values = e.getValue();
+            for(int i = 0; i < values.length; i++) {
+                render(builder, e.getKey(), values[i], indent + unit, unit, newline, separator);
+                VDFCondition condition = node.getCondition(e.getKey(), i);
+                if(condition != null)
+                    builder.append(' ').append(condition);
+                builder.append(newline);
+            }
+        }
+        builder.append(indent).append('}');
+    }
+
+    /**
+     * Formats a value as a token, unquoted if it was unquoted before and still can be.
+     */
+    private static String format(String value, boolean bare) {
+        if(bare && isBare(value))
+            return value;
+        StringBuilder builder = new StringBuilder(value.length() + 2);
+        VDFWriter.appendQuoted(builder, value);
+        return builder.toString();
+    }
+
+    private static boolean isBare(String value) {
+        if(value.isEmpty())
+            return false;
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c <= ' ' || c == '"' || c == '\\' || c == '{' || c == '}' || c == '[' || c == ']' || c == '/')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes of a region of text in UTF-8.  Unpaired surrogates count as the single byte they
+     * are replaced with.
+     */
+    private static long utf8Length(CharSequence text, int from, int to) {
+        long bytes = 0;
+        for(int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if(c < 0x80) {
+                bytes++;
+            } else if(c < 0x800) {
+                bytes += 2;
+            } else if(Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if(Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only node of a {@link VDFFlatTree}.  A flat node is a handle to a node record in the tree's buffer.  Keys
+ * are binary searched in place, and {@link #getString(String, int)}, {@link #getInt(String, int)} and
+ * {@link #getSubNode(String, int)} only decode the value they return.  The Map interface decodes the values of the
+ * entries it returns.
+ * @author Brendan Heinonen
+ */
+public final class VDFFlatNode extends VDFReadOnlyNode {
+
+    private final VDFFlatTree tree;
+
+    private final int offset;
+
+    VDFFlatNode(VDFFlatTree tree, int offset) {
+        this.tree = tree;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns the tree this node belongs to.
+     * @return the flat tree of this node
+     */
+    public VDFFlatTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public int size() {
+        return tree.getInt(offset);
+    }
+
+    private int entry(int index) {
+        return offset + 8 + 12 * index;
+    }
+
+    /**
+     * Binary searches the entries of this node.
+     * @return the index of the key's entry, or -1 if the key does not exist in this node
+     */
+    private int indexOf(String key) {
+        int low = 0;
+        int high = size() - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = tree.compare(tree.getInt(entry(mid)), key);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the encoded nth value of an entry.
+     */
+    private int rawValue(int index, int value) {
+        int entry = entry(index);
+        int count = tree.getInt(entry + 4);
+        if(value >= count)
+            throw new ArrayIndexOutOfBoundsException(value);
+        return count == 1 ? tree.getInt(entry + 8) : tree.getInt(tree.getInt(entry + 8) + 4 * value);
+    }
+
+    private Object decode(int value) {
+        return value >= 0 ? tree.string(value) : new VDFFlatNode(tree, ~value << 2);
+    }
+
+    private Object[] values(int index) {
+        int count = tree.getInt(entry(index) + 4);
+        Object[] values = new Object[count];
+        for(int i = 0; i < count; i++)
+            values[i] = decode(rawValue(index, i));
+        return values;
+    }
+
+    @Override
+    Object[] lookup(String key) {
+        int index = indexOf(key);
+        return index >= 0 ? values(index) : null;
+    }
+
+    /**
+     * Values are decoded as they are looked up, so they can be handed out without copying them.
+     */
+    @Override
+    public Object[] get(Object key) {
+        return key instanceof String ? lookup((String) key) : null;
+    }
+
+    @Override
+    Iterator<Map.Entry<String, Object[]>> rawEntries() {
+        return new Iterator<Map.Entry<String, Object[]>>() {
+            private final int size = size();
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Map.Entry<String, Object[]> next() {
+                if(index >= size)
+                    throw new NoSuchElementException();
+                Map.Entry<String, Object[]> e = new AbstractMap.SimpleImmutableEntry<>(
+                        tree.string(tree.getInt(entry(index))), values(index));
+                index++;
+                return e;
+            }
+        };
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public int values(String key) {
+        int index = indexOf(key);
+        return index >= 0 ? tree.getInt(entry(index) + 4) : 0;
+    }
+
+    @Override
+    public String getString(String key, int index) {
+        int i = indexOf(key);
+        return i >= 0 ? (String) decode(rawValue(i, index)) : null;
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        int i = indexOf(key);
+        if(i < 0)
+            return defaultValue;
+
+        int value = rawValue(i, 0);
+        if(value < 0)
+            throw new ClassCastException("Value of key " + key + " is a subnode");
+        return tree.parseInt(value);
+    }
+
+    @Override
+    public VDFNode getSubNode(String key, int index) {
+        int i = indexOf(key);
+        return i >= 0 ? (VDFNode) decode(rawValue(i, index)) : null;
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return tree.isIgnoreCase() ? String.CASE_INSENSITIVE_ORDER : null;
+    }
+
+    @Override
+    boolean hasConditions() {
+        return tree.getInt(offset + 4) != 0;
+    }
+
+    @Override
+    public VDFCondition getCondition(String key, int index) {
+        int table = tree.getInt(offset + 4);
+        if(table == 0)
+            return null;
+
+        int i = indexOf(key);
+        if(i < 0 || index >= tree.getInt(entry(i) + 4))
+            return null;
+
+        int conditions = tree.getInt(table + 4 * i);
+        if(conditions == 0)
+            return null;
+        int expression = tree.getInt(conditions + 4 * index);
+        return expression >= 0 ? VDFCondition.parse(tree.string(expression)) : null;
+    }
+
+    long cachedHash() {
+        return tree.cachedHash(offset);
+    }
+
+    void cacheHash(long hash) {
+        tree.cacheHash(offset, hash);
+    }
+
+}
@@ -0,0 +1,485 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A VDF tree encoded into a single contiguous ByteBuffer.  The buffer can be allocated outside of the Java heap or
+ * mapped straight from a file, so a large document costs the garbage collector nothing but a few small objects, and
+ * is navigated in place without deserializing it.  {@link #root()} exposes the tree as a read-only VDFNode.
+ * <p>
+ * All numbers are little-endian ints, and offsets are relative to the start of the buffer, which limits a tree to the
+ * 2GB a ByteBuffer can address.  The layout is:
+ * <ul>
+ *     <li>A header: the magic number, the format version, flags, the offset of the root node, the number of strings
+ *     and the offset of the string index.  The only flag is {@link #FLAG_IGNORE_CASE}: keys are sorted and matched
+ *     regardless of case, because the root of the encoded tree was ordered by
+ *     <code>String.CASE_INSENSITIVE_ORDER</code>.</li>
+ *     <li>Node records, children before their parents: the number of entries, the offset of the node's conditional
+ *     table or 0, and an entry per key in key order.  An entry is the string id of the key, the number of values, and
+ *     either the value itself if there is one, or the offset of an array of values.  A value is a string id if it is
+ *     positive, or the bitwise complement of a node offset divided by 4 if it is negative.</li>
+ *     <li>Conditional tables: an offset per entry, or 0 if none of its values is conditional, pointing to the string
+ *     ids of the conditional expressions of its values, or -1 for values without a conditional.</li>
+ *     <li>The string index, the offset of every string, followed by the strings: the length shifted left by one, with
+ *     the lowest bit set if the string is stored as Latin-1 rather than UTF-16, and then the characters.</li>
+ * </ul>
+ * Every string is stored once, and subtrees that are the same instance in the encoded tree (see {@link VDFInterner})
+ * are stored once as well.
+ * @author Brendan Heinonen
+ */
+public final class VDFFlatTree {
+
+    static final int MAGIC = 0x4644564A;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 24;
+
+    static final int FLAG_IGNORE_CASE = 1;
+
+    private final ByteBuffer buffer;
+
+    private final int stringCount;
+
+    private final int stringIndex;
+
+    private final int rootOffset;
+
+    private final boolean ignoreCase;
+
+    /**
+     * Content hashes of node records by offset.  Flat nodes are created on demand, so the hashes cannot be cached on
+     * the nodes like those of immutable nodes.
+     */
+    private final Map<Integer, Long> contentHashes = new ConcurrentHashMap<>();
+
+    private VDFFlatTree(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if(this.buffer.limit() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC)
+            throw new VDFParseException("The buffer does not contain a flat VDF tree");
+        if(this.buffer.getInt(4) != VERSION)
+            throw new VDFParseException("Unsupported flat VDF tree version " + this.buffer.getInt(4));
+
+        this.ignoreCase = (this.buffer.getInt(8) & FLAG_IGNORE_CASE) != 0;
+        this.rootOffset = this.buffer.getInt(12);
+        this.stringCount = this.buffer.getInt(16);
+        this.stringIndex = this.buffer.getInt(20);
+        if(rootOffset < HEADER_SIZE || stringIndex < HEADER_SIZE
+                || (long) stringIndex + 4L * stringCount > this.buffer.limit())
+            throw new VDFParseException("The flat VDF tree is truncated");
+    }
+
+    /**
+     * Wraps a buffer that contains an encoded tree.  The buffer must start at position 0 and must not be modified
+     * while the tree is in use.
+     * @param buffer the buffer to read
+     * @return the tree in the buffer
+     * @throws VDFParseException if the buffer does not contain a flat tree
+     */
+    public static VDFFlatTree wrap(ByteBuffer buffer) {
+        return new VDFFlatTree(buffer);
+    }
+
+    /**
+     * Encodes a tree into a direct buffer.
+     * @param root the root of the tree to encode
+     * @return the encoded tree
+     */
+    public static VDFFlatTree encode(VDFNode root) {
+        ByteBuffer encoded = new Encoder().encode(root);
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.limit());
+        direct.put(encoded);
+        ((Buffer) direct).flip();
+        return new VDFFlatTree(direct);
+    }
+
+    /**
+     * Encodes a tree into a heap buffer.
+     * @return a buffer positioned at the start of the encoded tree, whose limit is the end of the tree
+     */
+    static ByteBuffer encodeToHeap(VDFNode root) {
+        return new Encoder().encode(root);
+    }
+
+    /**
+     * Encodes a tree into a file, which can later be mapped with {@link #map(Path)}.
+     * @param root the root of the tree to encode
+     * @param file the file to write, which is replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(VDFNode root, Path file) throws IOException {
+        ByteBuffer encoded = new Encoder().encode(root);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(encoded.hasRemaining())
+                channel.write(encoded);
+        }
+    }
+
+    /**
+     * Maps a file written by {@link #write(VDFNode, Path)} into memory.  Pages are loaded by the operating system as
+     * the tree is navigated.
+     * @param file the file to map
+     * @return the tree in the file
+     * @throws IOException if the file cannot be mapped
+     * @throws VDFParseException if the file does not contain a flat tree
+     */
+    public static VDFFlatTree map(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new VDFFlatTree(channel.map(FileChannel.MapMode.READ_ONLY, 0, Files.size(file)));
+        }
+    }
+
+    /**
+     * Returns the root node of the tree.  Nodes are lightweight handles into the buffer, created as they are
+     * navigated to.
+     * @return a read-only view of the root node
+     */
+    public VDFFlatNode root() {
+        return new VDFFlatNode(this, rootOffset);
+    }
+
+    /**
+     * Returns the encoded tree.
+     * @return a read-only buffer positioned at the start of the tree
+     */
+    public ByteBuffer buffer() {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the size of the encoded tree.
+     * @return the size in bytes
+     */
+    public int size() {
+        return buffer.limit();
+    }
+
+    /**
+     * Returns whether keys are sorted and matched regardless of case.
+     * @return if the keys of the tree are case-insensitive
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    long cachedHash(int offset) {
+        Long hash = contentHashes.get(offset);
+        return hash != null ? hash : 0;
+    }
+
+    void cacheHash(int offset, long hash) {
+        contentHashes.put(offset, hash);
+    }
+
+    int getInt(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    private int stringOffset(int id) {
+        if(id < 0 || id >= stringCount)
+            throw new VDFParseException("String " + id + " does not exist in the flat VDF tree");
+        return buffer.getInt(stringIndex + 4 * id);
+    }
+
+    /**
+     * Decodes a string.
+     */
+    String string(int id) {
+        int offset = stringOffset(id);
+        int header = buffer.getInt(offset);
+        int length = header >>> 1;
+        char[] chars = new char[length];
+        if((header & 1) != 0) {
+            for(int i = 0; i < length; i++)
+                chars[i] = (char) (buffer.get(offset + 4 + i) & 0xFF);
+        } else {
+            for(int i = 0; i < length; i++)
+                chars[i] = buffer.getChar(offset + 4 + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Compares a string of the tree with a string in the same order as String.compareTo, or as
+     * String.CASE_INSENSITIVE_ORDER if keys are case-insensitive, without decoding it.
+     */
+    int compare(int id, String s) {
+        int offset = stringOffset(id);
+        int header = buffer.getInt(offset);
+        int length = header >>> 1;
+        boolean latin1 = (header & 1) != 0;
+
+        for(int i = 0, n = Math.min(length, s.length()); i < n; i++) {
+            char c = latin1 ? (char) (buffer.get(offset + 4 + i) & 0xFF) : buffer.getChar(offset + 4 + 2 * i);
+            char d = s.charAt(i);
+            if(c != d && ignoreCase) {
+                // The same folding as String.CASE_INSENSITIVE_ORDER
+                c = Character.toUpperCase(c);
+                d = Character.toUpperCase(d);
+                if(c != d) {
+                    c = Character.toLowerCase(c);
+                    d = Character.toLowerCase(d);
+                }
+            }
+            if(c != d)
+                return c - d;
+        }
+        return length - s.length();
+    }
+
+    /**
+     * Parses a string of the tree as an int, without decoding it.  Anything but a plain decimal number that cannot
+     * overflow is handed to Integer.parseInt, so the result and the exceptions are the same.
+     */
+    int parseInt(int id) {
+        int offset = stringOffset(id);
+        int header = buffer.getInt(offset);
+        int length = header >>> 1;
+
+        if((header & 1) != 0 && length > 0 && length <= 9) {
+            int start = buffer.get(offset + 4) == '-' ? 1 : 0;
+            int value = 0;
+            boolean digits = start < length;
+            for(int i = start; i < length && digits; i++) {
+                int c = buffer.get(offset + 4 + i) - '0';
+                digits = c >= 0 && c <= 9;
+                value = value * 10 + c;
+            }
+            if(digits)
+                return start == 1 ? -value : value;
+        }
+        return Integer.parseInt(string(id));
+    }
+
+    /**
+     * Lays out a tree into a heap buffer.
+     */
+    private static final class Encoder {
+
+        private ByteBuffer out = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+        private int size = HEADER_SIZE;
+
+        private final Map<String, Integer> stringIds = new HashMap<>();
+
+        private final Map<VDFNode, Integer> nodeOffsets = new IdentityHashMap<>();
+
+        /**
+         * A node whose children are being encoded.
+         */
+        private static final class Frame {
+
+            private final VDFNode node;
+            private final Iterator<Map.Entry<String, Object[]>> entries;
+            private Object[] values;
+            private int index;
+
+            Frame(VDFNode node) {
+                this.node = node;
+                this.entries = node.rawEntries();
+            }
+
+            /**
+             * Returns the next subnode of this node that has not been encoded yet.
+             */
+            VDFNode nextChild(Map<VDFNode, Integer> encoded) {
+                while(true) {
+                    if(values == null || index == values.length) {
+                        if(!entries.hasNext())
+                            return null;
+                        values = entries.next().getValue();
+                        index = 0;
+                    }
+                    Object value = values[index++];
+                    if(value instanceof VDFNode && !encoded.containsKey(value))
+                        return (VDFNode) value;
+                }
+            }
+
+        }
+
+        ByteBuffer encode(VDFNode root) {
+            // Nodes are written in post-order, so the offsets of children are known when their parent is written
+            ArrayDeque<Frame> stack = new ArrayDeque<>();
+            stack.push(new Frame(root));
+            while(!stack.isEmpty()) {
+                VDFNode child = stack.peek().nextChild(nodeOffsets);
+                if(child != null) {
+                    stack.push(new Frame(child));
+                } else {
+                    VDFNode node = stack.pop().node;
+                    nodeOffsets.put(node, writeNode(node));
+                }
+            }
+
+            int stringIndex = writeStrings();
+
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putInt(8, root.comparator() == String.CASE_INSENSITIVE_ORDER ? FLAG_IGNORE_CASE : 0);
+            out.putInt(12, nodeOffsets.get(root));
+            out.putInt(16, stringIds.size());
+            out.putInt(20, stringIndex);
+
+            ByteBuffer result = out.duplicate();
+            ((Buffer) result).limit(size);
+            return result;
+        }
+
+        private int writeNode(VDFNode node) {
+            int count = node.size();
+            int offset = allocate(8 + 12 * count);
+            out.putInt(offset, count);
+
+            int[] conditionSlots = node.hasConditions() ? new int[count] : null;
+
+            int i = 0;
+            for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); i++) {
+                Map.Entry<String, Object[]> e = it.next();
+                int entry = offset + 8 + 12 * i;
+                Object[] values = e.getValue();
+
+                out.putInt(entry, stringId(e.getKey()));
+                out.putInt(entry + 4, values.length);
+                if(values.length == 1) {
+                    out.putInt(entry + 8, value(values[0]));
+                } else {
+                    int array = allocate(4 * values.length);
+                    for(int j = 0; j < values.length; j++)
+                        out.putInt(array + 4 * j, value(values[j]));
+                    out.putInt(entry + 8, array);
+                }
+
+                if(conditionSlots != null)
+                    conditionSlots[i] = writeConditions(node, e.getKey(), values.length);
+            }
+
+            if(conditionSlots != null) {
+                int table = allocate(4 * count);
+                for(int j = 0; j < count; j++)
+                    out.putInt(table + 4 * j, conditionSlots[j]);
+                out.putInt(offset + 4, table);
+            }
+            return offset;
+        }
+
+        /**
+         * Writes the conditionals of a key's values.
+         * @return the offset of the conditionals, or 0 if no value of the key is conditional
+         */
+        private int writeConditions(VDFNode node, String key, int count) {
+            int[] ids = null;
+            for(int i = 0; i < count; i++) {
+                VDFCondition condition = node.getCondition(key, i);
+                if(condition != null) {
+                    if(ids == null) {
+                        ids = new int[count];
+                        Arrays.fill(ids, -1);
+                    }
+                    ids[i] = stringId(condition.expression());
+                }
+            }
+            if(ids == null)
+                return 0;
+
+            int offset = allocate(4 * count);
+            for(int i = 0; i < count; i++)
+                out.putInt(offset + 4 * i, ids[i]);
+            return offset;
+        }
+
+        private int value(Object value) {
+            if(value instanceof VDFNode)
+                return ~(nodeOffsets.get(value) >>> 2);
+            return stringId(value.toString());
+        }
+
+        private int stringId(String s) {
+            Integer id = stringIds.get(s);
+            if(id == null) {
+                id = stringIds.size();
+                stringIds.put(s, id);
+            }
+            return id;
+        }
+
+        private int writeStrings() {
+            String[] strings = new String[stringIds.size()];
+            for(Map.Entry<String, Integer> e : stringIds.entrySet())
+                strings[e.getValue()] = e.getKey();
+
+            int index = allocate(4 * strings.length);
+            for(int id = 0; id < strings.length; id++) {
+                String s = strings[id];
+                boolean latin1 = true;
+                for(int i = 0; i < s.length() && latin1; i++)
+                    latin1 = s.charAt(i) <= 0xFF;
+
+                int offset = allocate(4 + (latin1 ? s.length() : 2 * s.length()));
+                out.putInt(index + 4 * id, offset);
+                out.putInt(offset, s.length() << 1 | (latin1 ? 1 : 0));
+                if(latin1) {
+                    for(int i = 0; i < s.length(); i++)
+                        out.put(offset + 4 + i, (byte) s.charAt(i));
+                } else {
+                    for(int i = 0; i < s.length(); i++)
+                        out.putChar(offset + 4 + 2 * i, s.charAt(i));
+                }
+            }
+            return index;
+        }
+
+        /**
+         * Reserves space at the end of the buffer.  Allocations are aligned to 4 bytes.
+         * @return the offset of the space
+         */
+        private int allocate(int bytes) {
+            int offset = size;
+            long end = ((long) offset + bytes + 3) & ~3L;
+            if(end > Integer.MAX_VALUE - 8)
+                throw new IllegalStateException("The tree does not fit into a 2GB flat VDF tree");
+
+            if(end > out.capacity()) {
+                long capacity = Math.max(end, Math.min((long) out.capacity() * 2, Integer.MAX_VALUE - 8));
+                ByteBuffer grown = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+                System.arraycopy(out.array(), 0, grown.array(), 0, size);
+                out = grown;
+            }
+            size = (int) end;
+            return offset;
+        }
+
+    }
+
+}
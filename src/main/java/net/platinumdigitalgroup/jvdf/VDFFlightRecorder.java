@@ -0,0 +1,41 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+/**
+ * Emits JDK Flight Recorder events.  Flight Recorder cannot be referred to by Java 8 sources, so this class emits
+ * nothing; jars built with JDK 11 or newer replace it with the implementation in <code>src/main/java11</code>, which is
+ * used on Java 11 and newer.
+ * @author Brendan Heinonen
+ */
+final class VDFFlightRecorder {
+
+    private VDFFlightRecorder() {
+    }
+
+    /**
+     * Starts an event.
+     * @return the event, or null if no recording is interested in it
+     */
+    static Object begin() {
+        return null;
+    }
+
+    static void commit(Object event, VDFMetrics metrics) {
+    }
+
+}
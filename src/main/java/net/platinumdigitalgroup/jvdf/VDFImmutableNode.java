@@ -0,0 +1,406 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * A deeply immutable snapshot of a VDF node.  Keys are kept in a sorted array and looked up with a binary search, which
+ * is considerably more compact than the TreeMap entries of a regular VDFNode.
+ * <p>
+ * Every field is final and fully populated before the constructor returns, so a snapshot may be published to other
+ * threads through a plain field or an AtomicReference without further synchronization, and read concurrently without
+ * locks.  Updates go through a {@link Builder}, which copies only the levels that are modified and shares every other
+ * subtree with the original snapshot.
+ * @author Brendan Heinonen
+ */
+public final class VDFImmutableNode extends VDFReadOnlyNode {
+
+    private final String[] keys;
+
+    private final Object[][] values;
+
+    /**
+     * Conditionals indexed like values, or null if no value of this node is conditional.
+     */
+    private final VDFCondition[][] conditions;
+
+    /**
+     * The order of the keys, or null for their natural order.
+     */
+    private final Comparator<? super String> comparator;
+
+    /**
+     * The content hash of this subtree, or 0 if it has not been computed yet.  Computing it twice from different threads
+     * is harmless; the field is volatile only so that the 64-bit write cannot tear.
+     */
+    private volatile long contentHash;
+
+    private VDFImmutableNode(String[] keys, Object[][] values, VDFCondition[][] conditions,
+                             Comparator<? super String> comparator) {
+        this.keys = keys;
+        this.values = values;
+        this.conditions = conditions;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Creates a deeply immutable snapshot of a node.  Subtrees that are already immutable are shared rather than
+     * copied.
+     * @param node the node to snapshot
+     * @return an immutable snapshot of the node
+     */
+    public static VDFImmutableNode copyOf(VDFNode node) {
+        if(node instanceof VDFImmutableNode)
+            return (VDFImmutableNode) node;
+
+        int size = node.size();
+        String[] keys = new String[size];
+        Object[][] values = new Object[size][];
+        VDFCondition[][] conditions = null;
+
+        int i = 0;
+        for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); i++) {
+            Map.Entry<String, Object[]> e = it.next();
+            String key = e.getKey();
+            Object[] source = e.getValue();
+
+            Object[] copy = new Object[source.length];
+            for(int j = 0; j < source.length; j++) {
+                Object value = source[j];
+                copy[j] = value instanceof VDFNode ? copyOf((VDFNode) value) : value;
+
+                VDFCondition condition = node.getCondition(key, j);
+                if(condition != null) {
+                    if(conditions == null)
+                        conditions = new VDFCondition[size][];
+                    if(conditions[i] == null)
+                        conditions[i] = new VDFCondition[source.length];
+                    conditions[i][j] = condition;
+                }
+            }
+
+            keys[i] = key;
+            values[i] = copy;
+        }
+
+        return new VDFImmutableNode(keys, values, conditions, node.comparator());
+    }
+
+    /**
+     * Creates a snapshot from arrays that are already sorted by the comparator and whose subnodes are already
+     * immutable.  The arrays are taken over, not copied.
+     */
+    static VDFImmutableNode of(String[] keys, Object[][] values, VDFCondition[][] conditions,
+                               Comparator<? super String> comparator) {
+        return new VDFImmutableNode(keys, values, conditions, comparator);
+    }
+
+    String keyAt(int index) {
+        return keys[index];
+    }
+
+    Object[] valuesAt(int index) {
+        return values[index];
+    }
+
+    VDFCondition[] conditionsAt(int index) {
+        return conditions != null ? conditions[index] : null;
+    }
+
+    /**
+     * Returns a builder that starts out with the key/value pairs of this snapshot.
+     * @return a copy-on-write builder based on this snapshot
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns a builder for a new, empty snapshot.
+     * @return an empty builder
+     */
+    public static Builder builder() {
+        return new Builder(null);
+    }
+
+    private int indexOf(String key) {
+        return comparator == null ? Arrays.binarySearch(keys, key) : Arrays.binarySearch(keys, key, comparator);
+    }
+
+    @Override
+    Object[] lookup(String key) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    Iterator<Map.Entry<String, Object[]>> rawEntries() {
+        return new Iterator<Map.Entry<String, Object[]>>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < keys.length;
+            }
+
+            @Override
+            public Map.Entry<String, Object[]> next() {
+                if(index >= keys.length)
+                    throw new NoSuchElementException();
+                Map.Entry<String, Object[]> e = new AbstractMap.SimpleImmutableEntry<>(keys[index], values[index]);
+                index++;
+                return e;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return comparator;
+    }
+
+    long cachedHash() {
+        return contentHash;
+    }
+
+    void cacheHash(long hash) {
+        contentHash = hash;
+    }
+
+    @Override
+    boolean hasConditions() {
+        return conditions != null;
+    }
+
+    @Override
+    public VDFCondition getCondition(String key, int index) {
+        if(conditions == null)
+            return null;
+        int i = indexOf(key);
+        if(i < 0 || conditions[i] == null || index >= conditions[i].length)
+            return null;
+        return conditions[i][index];
+    }
+
+    /**
+     * Builds immutable snapshots.  A builder created from a snapshot does not copy anything until it is modified, and
+     * then only copies the level it belongs to.  Subnodes are edited through child builders obtained from
+     * {@link #edit(String, int)}, so an update deep in the tree only copies the path leading to it.
+     */
+    public static final class Builder {
+
+        private final VDFImmutableNode base;
+
+        /**
+         * The key/value pairs of this level once it has been modified.  Values may be child builders.
+         */
+        private TreeMap<String, Object[]> entries;
+
+        private TreeMap<String, VDFCondition[]> conditions;
+
+        private boolean modified = false;
+
+        private Builder(VDFImmutableNode base) {
+            this.base = base;
+            if(base == null) {
+                entries = new TreeMap<>();
+                conditions = new TreeMap<>();
+            }
+        }
+
+        /**
+         * Copies the key/value pairs of the base snapshot into this builder.  Only this level is copied; value arrays
+         * are copied lazily as they are modified.
+         */
+        private void copyOnWrite() {
+            if(entries != null)
+                return;
+
+            entries = new TreeMap<>(base.comparator);
+            conditions = new TreeMap<>(base.comparator);
+            for(int i = 0; i < base.keys.length; i++) {
+                entries.put(base.keys[i], base.values[i]);
+                if(base.conditions != null && base.conditions[i] != null)
+                    conditions.put(base.keys[i], base.conditions[i]);
+            }
+        }
+
+        /**
+         * Pushes a value to the back of a key's values.  Mutable subnodes are snapshotted when the builder is built.
+         * @param key the key of the value
+         * @param value a String or VDFNode
+         * @return this
+         */
+        public Builder put(String key, Object value) {
+            return put(key, value, null);
+        }
+
+        /**
+         * Pushes a value guarded by a conditional to the back of a key's values.
+         * @param key the key of the value
+         * @param value a String or VDFNode
+         * @param condition the conditional guarding the value, or null
+         * @return this
+         */
+        public Builder put(String key, Object value, VDFCondition condition) {
+            copyOnWrite();
+            modified = true;
+
+            Object[] old = entries.get(key);
+            int index = old == null ? 0 : old.length;
+            Object[] values = old == null ? new Object[1] : Arrays.copyOf(old, index + 1);
+            values[index] = value;
+            entries.put(key, values);
+
+            VDFCondition[] guards = conditions.get(key);
+            if(condition != null || guards != null) {
+                guards = guards == null ? new VDFCondition[index + 1] : Arrays.copyOf(guards, index + 1);
+                guards[index] = condition;
+                conditions.put(key, guards);
+            }
+            return this;
+        }
+
+        /**
+         * Replaces every value of a key with a single value.
+         * @param key the key of the value
+         * @param value a String or VDFNode
+         * @return this
+         */
+        public Builder set(String key, Object value) {
+            remove(key);
+            return put(key, value);
+        }
+
+        /**
+         * Removes every value of a key.
+         * @param key the key to remove
+         * @return this
+         */
+        public Builder remove(String key) {
+            copyOnWrite();
+            if(entries.remove(key) != null)
+                modified = true;
+            conditions.remove(key);
+            return this;
+        }
+
+        /**
+         * Returns a builder for the first subnode of a key.
+         * @param key the key of the subnode
+         * @return a child builder whose changes are included when this builder is built
+         */
+        public Builder edit(String key) {
+            return edit(key, 0);
+        }
+
+        /**
+         * Returns a builder for the nth subnode of a key.  Repeated calls return the same child builder.
+         * @param key the key of the subnode
+         * @param index the nth value of the key
+         * @return a child builder whose changes are included when this builder is built
+         */
+        public Builder edit(String key, int index) {
+            copyOnWrite();
+
+            Object[] values = entries.get(key);
+            if(values == null)
+                throw new IllegalArgumentException("Key " + key + " does not exist in this node");
+
+            Object value = values[index];
+            if(value instanceof Builder)
+                return (Builder) value;
+            if(!(value instanceof VDFNode))
+                throw new IllegalArgumentException("Value " + index + " of key " + key + " is not a subnode");
+
+            Builder child = new Builder(VDFImmutableNode.copyOf((VDFNode) value));
+            values = values.clone();
+            values[index] = child;
+            entries.put(key, values);
+            return child;
+        }
+
+        /**
+         * Builds the snapshot.  If neither this level nor any edited subnode changed, the base snapshot itself is
+         * returned, so unchanged subtrees keep their identity.
+         * @return an immutable snapshot
+         */
+        public VDFImmutableNode build() {
+            if(entries == null)
+                return base;
+
+            boolean changed = modified;
+            int size = entries.size();
+            String[] keys = new String[size];
+            Object[][] values = new Object[size][];
+            VDFCondition[][] guards = null;
+
+            int i = 0;
+            for(Map.Entry<String, Object[]> e : entries.entrySet()) {
+                Object[] source = e.getValue();
+                Object[] copy = source;
+
+                for(int j = 0; j < source.length; j++) {
+                    Object value = source[j];
+                    Object built = value;
+                    if(value instanceof Builder) {
+                        Builder child = (Builder) value;
+                        built = child.build();
+                        changed |= built != child.base;
+                    } else if(value instanceof VDFNode) {
+                        built = VDFImmutableNode.copyOf((VDFNode) value);
+                    }
+
+                    if(built != value) {
+                        if(copy == source)
+                            copy = source.clone();
+                        copy[j] = built;
+                    }
+                }
+
+                VDFCondition[] condition = conditions.get(e.getKey());
+                if(condition != null) {
+                    if(guards == null)
+                        guards = new VDFCondition[size][];
+                    guards[i] = condition;
+                }
+
+                keys[i] = e.getKey();
+                values[i] = copy;
+                i++;
+            }
+
+            if(!changed && base != null)
+                return base;
+            return new VDFImmutableNode(keys, values, guards, entries.comparator());
+        }
+
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Deduplicates VDF trees by hash-consing: every subtree is converted into an immutable snapshot, and structurally
+ * identical subtrees share a single instance.  Keys and string values are interned as well, and value slices are
+ * replaced with strings.  Documents such as item schemas, which repeat the same blocks under thousands of entries,
+ * shrink considerably.
+ * <p>
+ * An interner keeps its tables between calls, so trees interned by the same interner share their common subtrees
+ * with each other too.  The tables keep every distinct subtree and string they have seen, so an interner that lives
+ * longer than one batch of documents should be cleared between batches (see {@link #clear()}) or given a capacity.
+ * Trees interned before the tables are emptied stay valid; they just no longer share instances with later trees.
+ * Methods are synchronized, so one interner may be shared between threads.
+ * @author Brendan Heinonen
+ */
+public class VDFInterner {
+
+    private final VDFContentHash hashes = new VDFContentHash();
+
+    /**
+     * Canonical subtrees by content hash.  Colliding subtrees are kept in a list and told apart by comparing them.
+     */
+    private final Map<Long, Object> nodes = new HashMap<>();
+
+    private final Map<String, String> strings = new HashMap<>();
+
+    /**
+     * The number of entries each table may hold before it is emptied.
+     */
+    private final int capacity;
+
+    private long uniqueNodes = 0;
+    private long duplicateNodes = 0;
+    private long duplicateStrings = 0;
+    private long bytesSaved = 0;
+
+    /**
+     * Initializes an interner whose tables grow until they are cleared.
+     */
+    public VDFInterner() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Initializes an interner whose tables hold at most a number of subtrees and strings each.  A full table is
+     * emptied before the next entry is added, so memory stays bounded at the cost of sharing less across documents.
+     * @param capacity the maximum number of subtrees, and of strings, to keep
+     */
+    public VDFInterner(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Converts a tree into an immutable snapshot in which identical subtrees share one instance.
+     * @param root the tree to intern
+     * @return the canonical snapshot of the tree
+     */
+    public synchronized VDFImmutableNode intern(VDFNode root) {
+        // Collect nodes in preorder; walking the list backwards visits children before their parents
+        List<VDFNode> order = new ArrayList<>();
+        ArrayDeque<VDFNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while(!stack.isEmpty()) {
+            VDFNode node = stack.pop();
+            order.add(node);
+            for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); ) {
+                for(Object value : it.next().getValue()) {
+                    if(value instanceof VDFNode)
+                        stack.push((VDFNode) value);
+                }
+            }
+        }
+
+        Map<VDFNode, VDFImmutableNode> canonical = new IdentityHashMap<>();
+        for(int i = order.size() - 1; i >= 0; i--) {
+            VDFNode node = order.get(i);
+            if(!canonical.containsKey(node))
+                canonical.put(node, canonicalize(node, canonical));
+        }
+        return canonical.get(root);
+    }
+
+    /**
+     * Builds the canonical snapshot of a node whose subnodes have already been canonicalized.
+     */
+    private VDFImmutableNode canonicalize(VDFNode node, Map<VDFNode, VDFImmutableNode> canonical) {
+        if(node instanceof VDFImmutableNode && isCanonical((VDFImmutableNode) node))
+            return (VDFImmutableNode) node;
+
+        int size = node.size();
+        String[] keys = new String[size];
+        Object[][] values = new Object[size][];
+        VDFCondition[][] conditions = null;
+
+        int i = 0;
+        for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); i++) {
+            Map.Entry<String, Object[]> e = it.next();
+            Object[] source = e.getValue();
+            Object[] copy = new Object[source.length];
+
+            for(int j = 0; j < source.length; j++) {
+                Object value = source[j];
+                if(value instanceof VDFNode)
+                    copy[j] = canonical.get(value);
+                else if(value instanceof CharSequence)
+                    copy[j] = string(value.toString());
+                else
+                    copy[j] = value;
+
+                VDFCondition condition = node.getCondition(e.getKey(), j);
+                if(condition != null) {
+                    if(conditions == null)
+                        conditions = new VDFCondition[size][];
+                    if(conditions[i] == null)
+                        conditions[i] = new VDFCondition[source.length];
+                    conditions[i][j] = condition;
+                }
+            }
+
+            keys[i] = string(e.getKey());
+            values[i] = copy;
+        }
+
+        VDFImmutableNode candidate = VDFImmutableNode.of(keys, values, conditions, node.comparator());
+        long hash = hashes.hash(candidate);
+
+        Object bucket = nodes.get(hash);
+        if(bucket == null) {
+            if(nodes.size() >= capacity)
+                nodes.clear();
+            nodes.put(hash, candidate);
+            uniqueNodes++;
+            return candidate;
+        }
+
+        List<VDFImmutableNode> list;
+        if(bucket instanceof VDFImmutableNode) {
+            VDFImmutableNode existing = (VDFImmutableNode) bucket;
+            if(sameLevel(existing, candidate))
+                return duplicate(existing, candidate);
+            list = new ArrayList<>();
+            list.add(existing);
+            nodes.put(hash, list);
+        } else {
+            @SuppressWarnings("unchecked")
+            List<VDFImmutableNode> l = (List<VDFImmutableNode>) bucket;
+            list = l;
+            for(VDFImmutableNode existing : list) {
+                if(sameLevel(existing, candidate))
+                    return duplicate(existing, candidate);
+            }
+        }
+
+        list.add(candidate);
+        uniqueNodes++;
+        return candidate;
+    }
+
+    private boolean isCanonical(VDFImmutableNode node) {
+        Object bucket = nodes.get(hashes.hash(node));
+        return bucket == node || bucket instanceof List && ((List<?>) bucket).stream().anyMatch(n -> n == node);
+    }
+
+    private VDFImmutableNode duplicate(VDFImmutableNode existing, VDFImmutableNode discarded) {
+        duplicateNodes++;
+        bytesSaved += VDFMemoryLayout.levelBytes(discarded);
+        return existing;
+    }
+
+    private String string(String value) {
+        String existing = strings.get(value);
+        if(existing == null) {
+            if(strings.size() >= capacity)
+                strings.clear();
+            strings.put(value, value);
+            return value;
+        }
+        if(existing != value) {
+            duplicateStrings++;
+            bytesSaved += VDFMemoryLayout.stringBytes(value);
+        }
+        return existing;
+    }
+
+    /**
+     * Compares two snapshots whose subnodes are canonical.  Since equal subtrees are the same instance, subnodes are
+     * compared by identity, which makes this a comparison of a single level.
+     */
+    private static boolean sameLevel(VDFImmutableNode a, VDFImmutableNode b) {
+        if(a.size() != b.size() || !Objects.equals(a.comparator(), b.comparator()))
+            return false;
+
+        for(int i = 0, size = a.size(); i < size; i++) {
+            if(!a.keyAt(i).equals(b.keyAt(i)))
+                return false;
+
+            Object[] x = a.valuesAt(i);
+            Object[] y = b.valuesAt(i);
+            if(x.length != y.length)
+                return false;
+            for(int j = 0; j < x.length; j++) {
+                if(x[j] instanceof VDFNode ? x[j] != y[j] : !x[j].equals(y[j]))
+                    return false;
+            }
+
+            if(!Arrays.equals(a.conditionsAt(i), b.conditionsAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Empties the tables of this interner, e.g. once a batch of documents has been interned.  The statistics keep
+     * counting across clears.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+        strings.clear();
+    }
+
+    /**
+     * Returns the number of distinct subtrees this interner has added to its table.
+     * @return the number of canonical subtrees
+     */
+    public synchronized long getUniqueNodes() {
+        return uniqueNodes;
+    }
+
+    /**
+     * Returns the number of subtrees that were replaced by an identical canonical subtree.
+     * @return the number of deduplicated subtrees
+     */
+    public synchronized long getDuplicateNodes() {
+        return duplicateNodes;
+    }
+
+    /**
+     * Returns the number of keys and values that were replaced by an identical string.
+     * @return the number of deduplicated strings
+     */
+    public synchronized long getDuplicateStrings() {
+        return duplicateStrings;
+    }
+
+    /**
+     * Returns an estimate of the heap memory saved by deduplication, based on the typical object layout of a 64-bit
+     * JVM with compressed oops.
+     * @return the estimated number of bytes saved
+     */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Estimates the heap size of the objects that make up VDF trees.  The figures assume a 64-bit JVM with compressed
+ * oops (12 byte object headers, 4 byte references, 8 byte alignment) and compact Latin-1 strings.
+ * @author Brendan Heinonen
+ */
+final class VDFMemoryLayout {
+
+    static final int HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    /**
+     * A TreeMap entry: header, key, value, left, right and parent references, and the color flag.
+     */
+    static final int ENTRY = 40;
+
+    private VDFMemoryLayout() {
+    }
+
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    static long arrayBytes(int length, int elementSize) {
+        return align(ARRAY_HEADER + (long) length * elementSize);
+    }
+
+    /**
+     * Estimates the size of a String and its backing array.
+     * @param value the string
+     * @return the estimated number of bytes
+     */
+    static long stringBytes(String value) {
+        // Strings with a character beyond Latin-1 store two bytes per character
+        int width = 1;
+        for(int i = 0, length = value.length(); i < length && width == 1; i++) {
+            if(value.charAt(i) > 0xFF)
+                width = 2;
+        }
+
+        // String: header, value reference, hash, coder and hashIsZero flags
+        return align(HEADER + REFERENCE + 4 + 2) + arrayBytes(value.length(), width);
+    }
+
+    /**
+     * Estimates the size of a value other than a String or a node: a boxed number, or a slice without the document it
+     * refers to.
+     * @param value the value
+     * @return the estimated number of bytes
+     */
+    static long valueBytes(Object value) {
+        if(value instanceof VDFSlice)
+            // Slice: header, source and string references, offset and length
+            return align(HEADER + 2 * REFERENCE + 2 * 4);
+        if(value instanceof Long || value instanceof Double)
+            return align(HEADER + 8);
+        return align(HEADER + 4);
+    }
+
+    /**
+     * Estimates the size of a single level of a regular node: the node, its TreeMap entries, its value arrays and
+     * its conditionals, but neither the keys, the values nor the subnodes.
+     * @param node the node
+     * @return the estimated number of bytes
+     */
+    static long levelBytes(VDFNode node) {
+        // Node: header, the TreeMap and AbstractMap fields, and the conditionals reference
+        long bytes = align(HEADER + 8 * REFERENCE + 2 * 4);
+        boolean conditional = node.hasConditions();
+        if(conditional)
+            bytes += align(HEADER + 7 * REFERENCE + 2 * 4);
+
+        for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); ) {
+            Map.Entry<String, Object[]> e = it.next();
+            int length = e.getValue().length;
+            bytes += ENTRY + arrayBytes(length, REFERENCE);
+
+            if(conditional) {
+                for(int i = 0; i < length; i++) {
+                    if(node.getCondition(e.getKey(), i) != null) {
+                        bytes += ENTRY + arrayBytes(length, REFERENCE);
+                        break;
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimates the size of a single level of an immutable node: the node itself and its arrays, but neither the keys,
+     * the values nor the subnodes.
+     * @param node the node
+     * @return the estimated number of bytes
+     */
+    static long levelBytes(VDFImmutableNode node) {
+        int size = node.size();
+        // Node: header, the TreeMap fields it inherits, and its own four fields
+        long bytes = align(HEADER + 6 * REFERENCE + 2 * 4 + 3 * REFERENCE + 8);
+        bytes += 2 * arrayBytes(size, REFERENCE);
+        for(int i = 0; i < size; i++) {
+            bytes += arrayBytes(node.valuesAt(i).length, REFERENCE);
+            VDFCondition[] conditions = node.conditionsAt(i);
+            if(conditions != null)
+                bytes += arrayBytes(conditions.length, REFERENCE);
+        }
+        if(node.hasConditions())
+            bytes += arrayBytes(size, REFERENCE);
+        return bytes;
+    }
+
+}
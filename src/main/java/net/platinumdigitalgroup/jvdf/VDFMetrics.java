@@ -0,0 +1,119 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+/**
+ * The counters of a single preprocess, parse, bind or write call.  Sizes are measured in characters, since documents
+ * are handled as strings.
+ * @author Brendan Heinonen
+ */
+public final class VDFMetrics {
+
+    /**
+     * The stage of document handling a measurement belongs to.
+     */
+    public enum Phase {
+        PREPROCESS,
+        PARSE,
+        BIND,
+        WRITE
+    }
+
+    private final Phase phase;
+    private final long characters;
+    private final long lines;
+    private final long nodes;
+    private final int maxDepth;
+    private final long multimappedKeys;
+    private final long durationNanos;
+    private final String thread;
+
+    VDFMetrics(Phase phase, long characters, long lines, long nodes, int maxDepth, long multimappedKeys,
+               long durationNanos, String thread) {
+        this.phase = phase;
+        this.characters = characters;
+        this.lines = lines;
+        this.nodes = nodes;
+        this.maxDepth = maxDepth;
+        this.multimappedKeys = multimappedKeys;
+        this.durationNanos = durationNanos;
+        this.thread = thread;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Returns the size of the document that was read, or written for {@link Phase#WRITE}.
+     * @return the number of characters
+     */
+    public long getCharacters() {
+        return characters;
+    }
+
+    /**
+     * Returns the number of lines of the document that was read, or written for {@link Phase#WRITE}.
+     * @return the number of lines
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * Returns the number of subnodes that were created, bound or written, not counting the root node.
+     * @return the number of subnodes
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the deepest nesting level of the subnodes that were handled.
+     * @return the maximum depth, or 0 if only the root node was handled
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of keys that ended up with more than one value.
+     * @return the number of multimapped keys
+     */
+    public long getMultimappedKeys() {
+        return multimappedKeys;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Returns the name of the thread that made the call.
+     * @return the thread name
+     */
+    public String getThread() {
+        return thread;
+    }
+
+    @Override
+    public String toString() {
+        return phase + " on " + thread + ": " + characters + " characters, " + lines + " lines, " + nodes + " nodes, "
+                + "depth " + maxDepth + ", " + multimappedKeys + " multimapped keys in " + durationNanos / 1000 + "us";
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+/**
+ * Receives the metrics of every preprocess, parse, bind and write call of the components it is registered with.  The
+ * listener is called synchronously on the thread that made the call, so it should hand the metrics off quickly.
+ * @author Brendan Heinonen
+ */
+@FunctionalInterface
+public interface VDFMetricsListener {
+
+    /**
+     * Called after a phase completed successfully.
+     * @param metrics the counters of the phase
+     */
+    void phaseCompleted(VDFMetrics metrics);
+
+}
@@ -18,8 +18,14 @@ package net.platinumdigitalgroup.jvdf;
 
 import java.awt.*;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An iterable tree structure that represents a set of key-value pairs in a VDF document.
@@ -27,6 +33,32 @@ import java.util.TreeMap;
  */
 public class VDFNode extends TreeMap<String, Object[]> {
 
+    /**
+     * Conditionals attached to values, indexed the same way as the value arrays. This is only allocated once a
+     * conditional is set, so documents without conditionals pay nothing for it.  Each entry is bound to the value
+     * array it guards, so values that are removed or replaced through any view of the map, such as
+     * {@link #pollFirstEntry()} or <code>headMap(key).clear()</code>, leave no conditionals behind for the values that
+     * take their place.
+     */
+    private TreeMap<String, Guards> conditions;
+
+    /**
+     * Initializes an empty node whose keys are case-sensitive.
+     */
+    public VDFNode() {
+        super();
+    }
+
+    /**
+     * Initializes an empty node whose keys are ordered and matched by a comparator.  With
+     * <code>String.CASE_INSENSITIVE_ORDER</code>, keys are matched regardless of case like the engine does, without
+     * converting them, and each key keeps the spelling it was first put with.
+     * @param comparator the order of the keys, or null for their natural order
+     */
+    public VDFNode(Comparator<? super String> comparator) {
+        super(comparator);
+    }
+
     /**
      * Puts a key/value pair into the map, or push it to the back of the multimap
      * @param key the key of the value
@@ -34,15 +66,127 @@ public class VDFNode extends TreeMap<String, Object[]> {
      * @return the value
      */
     public Object put(String key, Object value) {
+        append(key, value);
+        return value;
+    }
+
+    /**
+     * Puts a key/value pair into the map, or push it to the back of the multimap, and guards it with a conditional.
+     * @param key the key of the value
+     * @param value the value which corresponds to the key
+     * @param condition the conditional guarding the value, or null
+     * @return the value
+     */
+    public Object put(String key, Object value, VDFCondition condition) {
+        int index = append(key, value);
+        if(condition != null)
+            setCondition(key, index, condition);
+        return value;
+    }
+
+    /**
+     * Pushes a value to the back of the multimap.
+     * @param key the key of the value
+     * @param value the value which corresponds to the key
+     * @return the index of the value within the key's values
+     */
+    int append(String key, Object value) {
         Object[] values = this.get(key);
         if(values == null) {
-            this.put(key, new Object[]{ value });
+            super.put(key, new Object[]{ value });
+            rebind(key, null, null);
+            return 0;
         } else {
             Object[] appendTo = Arrays.copyOf(values, values.length + 1);
             appendTo[values.length] = value;
-            this.put(key, appendTo);
+            super.put(key, appendTo);
+            rebind(key, values, appendTo);
+            return values.length;
         }
-        return value;
+    }
+
+    /**
+     * Pushes several values to the back of the multimap with a single copy.
+     * @param key the key of the values
+     * @param values the values which correspond to the key
+     * @return the index of the first appended value within the key's values
+     */
+    int appendAll(String key, Object[] values) {
+        Object[] existing = this.get(key);
+        if(existing == null) {
+            super.put(key, values.clone());
+            rebind(key, null, null);
+            return 0;
+        }
+
+        Object[] appendTo = Arrays.copyOf(existing, existing.length + values.length);
+        System.arraycopy(values, 0, appendTo, existing.length, values.length);
+        super.put(key, appendTo);
+        rebind(key, existing, appendTo);
+        return existing.length;
+    }
+
+    /**
+     * Moves the conditionals of a key over to the array that replaced its values when they were appended to.
+     * Conditionals left behind by values that were removed without going through this node are dropped.
+     * @param key the key
+     * @param previous the values the conditionals were bound to, or null if the key was absent
+     * @param values the array that now holds the values, or null if the key was absent
+     */
+    private void rebind(String key, Object[] previous, Object[] values) {
+        if(conditions == null)
+            return;
+        Guards guards = conditions.get(key);
+        if(guards == null)
+            return;
+        if(previous != null && guards.values == previous)
+            conditions.put(key, new Guards(values, guards.conditions));
+        else
+            conditions.remove(key);
+    }
+
+    /**
+     * Replaces every value of a key. Conditionals attached to the previous values are discarded.
+     * @param key the key
+     * @param value the new values
+     * @return the previous values, or null if the key did not exist in this node
+     */
+    @Override
+    public Object[] put(String key, Object[] value) {
+        if(conditions != null)
+            conditions.remove(key);
+        return super.put(key, value);
+    }
+
+    @Override
+    public Object[] remove(Object key) {
+        if(conditions != null)
+            conditions.remove(key);
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        conditions = null;
+        super.clear();
+    }
+
+    /**
+     * Returns the values of a key without copying them.  Accessors go through this method so that nodes which do not
+     * store their values in the backing map can answer them directly.
+     * @param key the key name
+     * @return the values of the key, or null if the key does not exist in this node
+     */
+    Object[] lookup(String key) {
+        return this.get(key);
+    }
+
+    /**
+     * Iterates the key/value pairs of this node in key order without copying the value arrays.
+     * @return an iterator over the entries of this node
+     */
+    Iterator<Map.Entry<String, Object[]>> rawEntries() {
+        return this.entrySet().iterator();
     }
 
     /**
@@ -51,12 +195,137 @@ public class VDFNode extends TreeMap<String, Object[]> {
      * @return the number of values that correspond to the key
      */
     public int values(String key) {
-        Object[] values = this.get(key);
+        Object[] values = this.lookup(key);
         if(values == null)
             return 0;
         return values.length;
     }
 
+    /**
+     * Fetches the conditional guarding a value.
+     * @param key the key name
+     * @param index the nth key
+     * @return the conditional of the value, or null if the value is unconditional
+     */
+    public VDFCondition getCondition(String key, int index) {
+        if(conditions == null)
+            return null;
+        Guards guards = conditions.get(key);
+        if(guards == null || guards.values != this.get(key))
+            return null;
+        return index < guards.conditions.length ? guards.conditions[index] : null;
+    }
+
+    /**
+     * Guards a value with a conditional.
+     * @param key the key name
+     * @param index the nth key
+     * @param condition the conditional, or null to make the value unconditional
+     */
+    public void setCondition(String key, int index, VDFCondition condition) {
+        int count = values(key);
+        if(index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Key " + key + " has no value at index " + index);
+
+        if(conditions == null) {
+            if(condition == null)
+                return;
+            conditions = new TreeMap<>(comparator());
+        }
+
+        // Conditional arrays are copied on write so that clones may share them
+        Object[] values = this.get(key);
+        Guards guards = conditions.get(key);
+        VDFCondition[] guarded = guards == null || guards.values != values ? new VDFCondition[count]
+                : Arrays.copyOf(guards.conditions, Math.max(count, guards.conditions.length));
+        guarded[index] = condition;
+        conditions.put(key, new Guards(values, guarded));
+    }
+
+    /**
+     * Returns whether any value of this node is guarded by a conditional.
+     * @return if this node has conditionals
+     */
+    boolean hasConditions() {
+        return conditions != null;
+    }
+
+    /**
+     * Makes every value of a key unconditional.
+     * @param key the key name
+     */
+    void removeConditions(String key) {
+        if(conditions != null)
+            conditions.remove(key);
+    }
+
+    @Override
+    public Object clone() {
+        VDFNode clone = (VDFNode) super.clone();
+        if(conditions != null)
+            clone.conditions = new TreeMap<>(conditions);
+        return clone;
+    }
+
+    /**
+     * Creates a deeply immutable snapshot of this node that is safe to share between threads without locking.  Calling
+     * this on a snapshot returns the snapshot itself.
+     * @return an immutable snapshot of this node
+     */
+    public VDFImmutableNode freeze() {
+        return VDFImmutableNode.copyOf(this);
+    }
+
+    /**
+     * Creates an observable tree that starts out with a snapshot of this node.  Updates made through the observable
+     * tree are reported to its listeners as batches of changes; this node itself is not affected.
+     * @param executor the executor to compute and deliver the batches on
+     * @return an observable tree of this node
+     */
+    public VDFObservableTree observe(Executor executor) {
+        return new VDFObservableTree(this, executor);
+    }
+
+    /**
+     * Returns a read-only view of this node as seen by a platform with the given defines.  Values whose conditionals
+     * evaluate to false are hidden, and unconditional values are always visible.  Conditionals are evaluated lazily as
+     * each subnode of the view is first accessed, so many views can share one parsed tree.
+     * @param defines the names that are defined, without the leading '$' (e.g. "WIN32")
+     * @return a view of this node for the defines
+     */
+    public VDFNode view(Set<String> defines) {
+        return new VDFNodeView(this, defines);
+    }
+
+    /**
+     * Streams every value below this node with its path, in document order: each subnode comes before its contents.
+     * The traversal does not recurse, so trees of any depth can be walked, and the stream splits by subtree size when
+     * it is made parallel.  The tree must not be modified while it is being walked.
+     * @return a stream of the paths and values below this node
+     */
+    public Stream<Map.Entry<VDFPath, Object>> walk() {
+        return StreamSupport.stream(new VDFWalker(this, false), false);
+    }
+
+    /**
+     * Streams every value below this node that is not a subnode, with its path, in document order.  See
+     * {@link #walk()}.
+     * @return a stream of the paths and leaf values below this node
+     */
+    public Stream<Map.Entry<VDFPath, Object>> leaves() {
+        return StreamSupport.stream(new VDFWalker(this, true), false);
+    }
+
+    /**
+     * Measures the tree below this node: its node and value counts, depths, multimapped keys and repeated strings,
+     * and an estimate of the heap memory retained by it and by each of its subtrees.  The measurement does not
+     * recurse, and takes memory in proportion to the tree, so it is meant for sizing rather than for every parse.
+     * @return the statistics of this tree
+     */
+    public VDFStats footprint() {
+        return VDFStats.of(this);
+    }
+
     /**
      * Fetches a string value by name and index.
      * @param key the key name
@@ -64,8 +333,11 @@ public class VDFNode extends TreeMap<String, Object[]> {
      * @return the string value of the specified key, or null if the key does not exist in this node
      */
     public String getString(String key, int index) {
-        Object[] objects = this.get(key);
-        return objects != null ? (String) objects[index] : null;
+        Object[] objects = this.lookup(key);
+        if(objects == null)
+            return null;
+        Object value = objects[index];
+        return value instanceof VDFSlice || value instanceof Number ? value.toString() : (String) value;
     }
 
     /**
@@ -104,8 +376,13 @@ public class VDFNode extends TreeMap<String, Object[]> {
      * @return the int value of the specified key, or the default value if the key does not exist in this node
      * */
     public int getInt(String key, int defaultValue) {
-        String value = getString(key);
-        return value != null ? Integer.parseInt(value) : defaultValue;
+        Object[] objects = this.lookup(key);
+        if(objects == null)
+            return defaultValue;
+        Object value = objects[0];
+        if(value instanceof Number)
+            return ((Number) value).intValue();
+        return value instanceof VDFSlice ? ((VDFSlice) value).parseInt() : Integer.parseInt((String) value);
     }
 
     /**
@@ -124,8 +401,11 @@ public class VDFNode extends TreeMap<String, Object[]> {
      * @return the float value of the specified key, or the default value if the key does not exist in this node
      */
     public float getFloat(String key, float defaultValue) {
-        String value = getString(key);
-        return value != null ? Float.parseFloat(value) : defaultValue;
+        Object[] objects = this.lookup(key);
+        if(objects == null)
+            return defaultValue;
+        Object value = objects[0];
+        return value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(getString(key));
     }
 
     /**
@@ -144,8 +424,13 @@ public class VDFNode extends TreeMap<String, Object[]> {
      * @return the long value of the specified key, or the default value if the key does not exist in this node
      */
     public long getLong(String key, long defaultValue) {
-        String value = getString(key);
-        return value != null ? Long.parseLong(value) : defaultValue;
+        Object[] objects = this.lookup(key);
+        if(objects == null)
+            return defaultValue;
+        Object value = objects[0];
+        if(value instanceof Number)
+            return ((Number) value).longValue();
+        return value instanceof VDFSlice ? ((VDFSlice) value).parseLong() : Long.parseLong((String) value);
     }
 
     /**
@@ -196,55 +481,38 @@ public class VDFNode extends TreeMap<String, Object[]> {
      * @return a VDFNode instance of the specified key, or null if the key does not exist in this node
      */
     public VDFNode getSubNode(String key, int index) {
-        return (VDFNode)this.get(key)[index];
+        return (VDFNode)this.lookup(key)[index];
     }
 
     /**
-     * Reduces multimapped keys into a single key.
+     * Reduces multimapped subnodes into a single subnode.  This is safe to call on large trees: subnodes are merged in
+     * bulk, and big subnodes are reduced in parallel.
      * @param recursive if subnodes should be reduced as well
      * @return this
      */
     public VDFNode reduce(boolean recursive) {
-        this.entrySet()
-                .parallelStream()
-                // filter keys that have more than 1 value (multimapped)
-                .filter(e -> e.getValue()[0] instanceof VDFNode)
-                .forEach(e -> reduceKeyValue(e, recursive));
+        VDFReducer.reduce(this, recursive);
         return this;
     }
 
-    private void reduceKeyValue(Map.Entry<String, Object[]> entry, boolean recursive) {
-        Object[] nodes = entry.getValue();
-
-        // The first value becomes the node that we're joining
-        VDFNode newNode = (VDFNode)nodes[0];
-
-        // If recursion is enabled, we need to reduce every subnode
-        if (recursive)
-            newNode.reduce(true);
-
-        if(nodes.length <= 1)
-            return;
-
-
-        for (int i = 1, nodesLength = nodes.length; i < nodesLength; i++) {
-            VDFNode node = (VDFNode)nodes[i];
-
-            // Merge this node into the new node
-            node.join(newNode);
-        }
-
-        this.put(entry.getKey(), new Object[] { newNode });
-    }
-
     /**
      * Put the key/value pairs in this node into another node.
      * @param other the node to merge into
      */
     public void join(VDFNode other) {
-        for(Map.Entry<String, Object[]> e : this.entrySet()) {
-            for(Object o : e.getValue())
-                other.put(e.getKey(), o);
+        for(Iterator<Map.Entry<String, Object[]>> it = rawEntries(); it.hasNext(); ) {
+            Map.Entry<String, Object[]> e = it.next();
+            String key = e.getKey();
+            Object[] values = e.getValue();
+            int offset = other.appendAll(key, values);
+
+            if(hasConditions()) {
+                for(int i = 0; i < values.length; i++) {
+                    VDFCondition condition = getCondition(key, i);
+                    if(condition != null)
+                        other.setCondition(key, offset + i, condition);
+                }
+            }
         }
     }
 
@@ -256,5 +524,20 @@ public class VDFNode extends TreeMap<String, Object[]> {
         return reduce(true);
     }
 
+    /**
+     * The conditionals of a key's values, together with the value array they were set for.
+     */
+    private static final class Guards {
+
+        private final Object[] values;
+
+        private final VDFCondition[] conditions;
+
+        private Guards(Object[] values, VDFCondition[] conditions) {
+            this.values = values;
+            this.conditions = conditions;
+        }
+
+    }
 
 }
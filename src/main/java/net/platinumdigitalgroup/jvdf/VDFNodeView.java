@@ -0,0 +1,126 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A read-only view of a VDF node as seen by a platform with a specific set of defines.  The view does not evaluate
+ * anything until it is first accessed, and then only evaluates the conditionals of its own level.  Subnodes are
+ * wrapped in views of their own, so untouched parts of the tree are never evaluated.
+ * @author Brendan Heinonen
+ */
+class VDFNodeView extends VDFReadOnlyNode {
+
+    private final VDFNode source;
+
+    private final Set<String> defines;
+
+    /**
+     * The visible key/value pairs of this level, built on first access.
+     */
+    private volatile TreeMap<String, Object[]> visible;
+
+    VDFNodeView(VDFNode source, Set<String> defines) {
+        this.source = source;
+        this.defines = defines;
+    }
+
+    private TreeMap<String, Object[]> visible() {
+        TreeMap<String, Object[]> map = visible;
+        if(map == null) {
+            synchronized (this) {
+                map = visible;
+                if(map == null)
+                    visible = map = evaluate();
+            }
+        }
+        return map;
+    }
+
+    private TreeMap<String, Object[]> evaluate() {
+        TreeMap<String, Object[]> map = new TreeMap<>(source.comparator());
+
+        for(Iterator<Map.Entry<String, Object[]>> it = source.rawEntries(); it.hasNext(); ) {
+            Map.Entry<String, Object[]> e = it.next();
+            String key = e.getKey();
+            Object[] values = e.getValue();
+
+            Object[] kept = new Object[values.length];
+            int count = 0;
+            boolean changed = false;
+            for(int i = 0; i < values.length; i++) {
+                VDFCondition condition = source.getCondition(key, i);
+                if(condition != null && !condition.evaluate(defines)) {
+                    changed = true;
+                    continue;
+                }
+
+                Object value = values[i];
+                if(value instanceof VDFNode) {
+                    value = new VDFNodeView((VDFNode) value, defines);
+                    changed = true;
+                }
+                kept[count++] = value;
+            }
+
+            if(count == 0)
+                continue;
+
+            // Share the source's array when nothing in it was hidden or wrapped
+            if(!changed)
+                kept = values;
+            else if(count < kept.length)
+                kept = Arrays.copyOf(kept, count);
+
+            map.put(key, kept);
+        }
+
+        return map;
+    }
+
+    @Override
+    Object[] lookup(String key) {
+        return visible().get(key);
+    }
+
+    @Override
+    Iterator<Map.Entry<String, Object[]>> rawEntries() {
+        return visible().entrySet().iterator();
+    }
+
+    @Override
+    public int size() {
+        return visible().size();
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return source.comparator();
+    }
+
+    @Override
+    public VDFNode view(Set<String> defines) {
+        return source.view(defines);
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * A VDF tree that tells listeners what changed, for consumers of configuration that is edited or reloaded at runtime.
+ * <p>
+ * The tree is held as an immutable snapshot, which readers get from {@link #get()} without locking.  Every update
+ * (a {@link #put(String, Object)}, an {@link #update(Consumer)}, a {@link #join(VDFNode)}, a {@link #reduce(boolean)}
+ * or a reload through {@link #set(VDFNode)}) publishes a new snapshot, and listeners receive the differences between
+ * the previous and the new snapshot as one {@link Batch}.  Batches are computed and delivered on an executor, one at a
+ * time and in the order of the updates, so a listener only recomputes what the values it uses depend on.  Edits share
+ * the subtrees they do not touch with the previous snapshot, so their batches cost time in proportion to the change.
+ * <p>
+ * Updates are synchronized, so a tree may be updated from several threads.
+ * @author Brendan Heinonen
+ */
+public final class VDFObservableTree {
+
+    /**
+     * Receives the changes of an observable tree.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Called on the executor of the tree once for every update that changed the tree.  Batches are delivered one
+         * at a time, in the order of the updates.
+         * @param batch the changes of the update
+         */
+        void treeChanged(Batch batch);
+
+    }
+
+    /**
+     * The changes of a single update.
+     */
+    public static final class Batch {
+
+        private final long version;
+        private final VDFImmutableNode oldTree;
+        private final VDFImmutableNode newTree;
+        private final List<VDFDiff.Change> changes;
+
+        Batch(long version, VDFImmutableNode oldTree, VDFImmutableNode newTree, List<VDFDiff.Change> changes) {
+            this.version = version;
+            this.oldTree = oldTree;
+            this.newTree = newTree;
+            this.changes = changes;
+        }
+
+        /**
+         * Returns the number of the update, which counts up from 1 for the first update of the tree.
+         * @return the version of the new tree
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the tree before the update.
+         * @return the old snapshot
+         */
+        public VDFImmutableNode getOldTree() {
+            return oldTree;
+        }
+
+        /**
+         * Returns the tree after the update, which may no longer be the current tree once the batch is delivered.
+         * @return the new snapshot
+         */
+        public VDFImmutableNode getNewTree() {
+            return newTree;
+        }
+
+        /**
+         * Returns the changes of the update, each with its path, old value and new value.
+         * @return the changes, in document order
+         */
+        public List<VDFDiff.Change> getChanges() {
+            return changes;
+        }
+
+        @Override
+        public String toString() {
+            return "Version " + version + ": " + changes.size() + " changes";
+        }
+
+    }
+
+    /**
+     * An update whose batch has not been delivered yet.
+     */
+    private static final class Update {
+
+        private final long version;
+        private final VDFImmutableNode oldTree;
+        private final VDFImmutableNode newTree;
+
+        Update(long version, VDFImmutableNode oldTree, VDFImmutableNode newTree) {
+            this.version = version;
+            this.oldTree = oldTree;
+            this.newTree = newTree;
+        }
+
+    }
+
+    private final Executor executor;
+
+    private final VDFDiff diff = new VDFDiff();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile VDFImmutableNode tree;
+
+    /**
+     * The number of updates, the batches that have not been delivered yet, and whether a delivery is running on the
+     * executor, guarded by this tree.
+     */
+    private long version = 0;
+    private final ArrayDeque<Update> pending = new ArrayDeque<>();
+    private boolean delivering = false;
+
+    /**
+     * Creates an observable tree.
+     * @param root the initial tree, which is snapshotted
+     * @param executor the executor to compute and deliver batches on
+     */
+    public VDFObservableTree(VDFNode root, Executor executor) {
+        this.tree = VDFImmutableNode.copyOf(root);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Returns the current tree.
+     * @return the current snapshot
+     */
+    public VDFImmutableNode get() {
+        return tree;
+    }
+
+    /**
+     * Registers a listener for the updates that follow.
+     * @param listener the listener
+     * @return this
+     */
+    public VDFObservableTree addListener(Listener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+        return this;
+    }
+
+    /**
+     * Unregisters a listener.  Batches that are being delivered may still reach it.
+     * @param listener the listener
+     * @return this
+     */
+    public VDFObservableTree removeListener(Listener listener) {
+        listeners.remove(listener);
+        return this;
+    }
+
+    /**
+     * Replaces the whole tree, e.g. with a reloaded document.  Listeners receive the differences between the old and
+     * the new document as a single batch.
+     * @param root the new tree, which is snapshotted
+     * @return the new snapshot
+     */
+    public VDFImmutableNode set(VDFNode root) {
+        return publish(VDFImmutableNode.copyOf(root));
+    }
+
+    /**
+     * Edits the tree.  Every edit made to the builder is part of the same batch.
+     * @param edit edits the builder, which starts out with the current tree
+     * @return the new snapshot
+     */
+    public synchronized VDFImmutableNode update(Consumer<VDFImmutableNode.Builder> edit) {
+        VDFImmutableNode.Builder builder = tree.toBuilder();
+        edit.accept(builder);
+        return publish(builder.build());
+    }
+
+    /**
+     * Pushes a value to the back of a key's values in the root of the tree.
+     * @param key the key of the value
+     * @param value a String or VDFNode
+     * @return the new snapshot
+     */
+    public VDFImmutableNode put(String key, Object value) {
+        return update(builder -> builder.put(key, value));
+    }
+
+    /**
+     * Puts the key/value pairs of another node into the root of the tree, like <code>other.join(tree)</code>.
+     * @param other the node whose key/value pairs are added
+     * @return the new snapshot
+     */
+    public VDFImmutableNode join(VDFNode other) {
+        return update(builder -> {
+            for(Iterator<Map.Entry<String, Object[]>> it = other.rawEntries(); it.hasNext(); ) {
+                Map.Entry<String, Object[]> e = it.next();
+                Object[] values = e.getValue();
+                for(int i = 0; i < values.length; i++)
+                    builder.put(e.getKey(), values[i], other.getCondition(e.getKey(), i));
+            }
+        });
+    }
+
+    /**
+     * Reduces multimapped subnodes of the tree into single subnodes.  See {@link VDFNode#reduce(boolean)}.
+     * @param recursive if subnodes should be reduced as well
+     * @return the new snapshot
+     */
+    public synchronized VDFImmutableNode reduce(boolean recursive) {
+        VDFNode copy = (VDFNode) tree.clone();
+        copy.reduce(recursive);
+        return publish(copy.freeze());
+    }
+
+    /**
+     * Makes a snapshot the current tree and queues its batch.  The differences are computed on the executor, so an
+     * update only costs the caller the snapshot itself.
+     */
+    private synchronized VDFImmutableNode publish(VDFImmutableNode next) {
+        VDFImmutableNode previous = tree;
+        if(next == previous)
+            return next;
+
+        tree = next;
+        pending.add(new Update(++version, previous, next));
+        if(!delivering) {
+            delivering = true;
+            try {
+                executor.execute(this::deliver);
+            } catch(RejectedExecutionException e) {
+                // The tree is updated regardless; its batch stays queued for the next update to deliver
+                delivering = false;
+                throw e;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Delivers queued batches until none are left.  Only one delivery runs at a time, which keeps the batches in
+     * order.
+     */
+    private void deliver() {
+        while(true) {
+            Update update;
+            synchronized(this) {
+                update = pending.poll();
+                if(update == null) {
+                    delivering = false;
+                    return;
+                }
+            }
+
+            List<VDFDiff.Change> changes = diff.changes(update.oldTree, update.newTree);
+            if(changes.isEmpty())
+                continue;
+
+            Batch batch = new Batch(update.version, update.oldTree, update.newTree,
+                    Collections.unmodifiableList(changes));
+            for(Listener listener : listeners) {
+                try {
+                    listener.treeChanged(batch);
+                } catch(RuntimeException e) {
+                    // A failing listener neither stops the others nor the batches that follow
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+        }
+    }
+
+}
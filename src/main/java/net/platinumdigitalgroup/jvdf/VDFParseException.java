@@ -25,4 +25,8 @@ public class VDFParseException extends RuntimeException {
         super(str);
     }
 
+    public VDFParseException(String str, Throwable cause) {
+        super(str, cause);
+    }
+
 }
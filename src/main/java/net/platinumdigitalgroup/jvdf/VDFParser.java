@@ -16,6 +16,21 @@ limitations under the License.
 
 package net.platinumdigitalgroup.jvdf;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
 /**
  * Parses VDF documents into iterable tree structures.
  * @author Brendan Heinonen
@@ -24,6 +39,24 @@ public class VDFParser {
 
     private final VDFPreprocessor preprocessor;
 
+    private VDFInterner interner;
+
+    private VDFMetricsListener metricsListener;
+
+    private boolean snapshotCache = false;
+
+    private boolean valueSlices = false;
+
+    private boolean ignoreCase = false;
+
+    private Executor readExecutor;
+
+    private VDFSchema schema;
+
+    private String[] stringTablePath;
+
+    private boolean stringTableIgnoreCase;
+
     /**
      * Initializes the VDFParser with a specific preprocessor
      * @param preprocessor the preprocessor to process input strings with
@@ -39,6 +72,289 @@ public class VDFParser {
         this(new VDFPreprocessor());
     }
 
+    /**
+     * Enables deduplication of parsed documents.  Parsed trees are then returned as immutable snapshots in which
+     * identical subtrees share one instance.  The interner's statistics report how much memory was saved, and an
+     * interner shared between parsers also deduplicates subtrees across documents.  Its tables grow with every
+     * distinct subtree, so long-running services should clear it between batches or give it a capacity.
+     * @param interner the interner to deduplicate parsed trees with, or null to disable deduplication
+     * @return this parser
+     */
+    public VDFParser setInterner(VDFInterner interner) {
+        this.interner = interner;
+        return this;
+    }
+
+    /**
+     * Reports the metrics of every parse to a listener: one {@link VDFMetrics.Phase#PREPROCESS} and one
+     * {@link VDFMetrics.Phase#PARSE} measurement per document.  Encoded documents are preprocessed while they are
+     * parsed, so they only report a PARSE measurement, which counts code units rather than characters.
+     * @param listener the listener to report to, or null to stop reporting
+     * @return this parser
+     */
+    public VDFParser setMetricsListener(VDFMetricsListener listener) {
+        this.metricsListener = listener;
+        return this;
+    }
+
+    /**
+     * Stores values as {@link VDFSlice} views of the parsed document instead of strings, which saves a String and its
+     * characters for every value.  Values that contain escape sequences are still stored as strings.  The getters of
+     * VDFNode accept both, but code that reads the raw values of a node has to expect CharSequences rather than
+     * Strings.
+     * <p>
+     * The parsed tree keeps the preprocessed document alive for as long as any of its slices is reachable.
+     * @param enabled if values should be stored as slices
+     * @return this parser
+     */
+    public VDFParser setValueSlices(boolean enabled) {
+        this.valueSlices = enabled;
+        return this;
+    }
+
+    /**
+     * Builds nodes whose keys are matched regardless of case, like the engine does.  Lookups such as
+     * <code>getString("Name")</code> then find the key <code>"name"</code> without converting either of them, and
+     * every key keeps the spelling it first appeared with, which is also how it is written back out.  Values of keys
+     * that only differ in case become values of the same multimapped key.  See {@link VDFNode#VDFNode(Comparator)}.
+     * @param enabled if keys should be case-insensitive
+     * @return this parser
+     */
+    public VDFParser setIgnoreCase(boolean enabled) {
+        this.ignoreCase = enabled;
+        return this;
+    }
+
+    boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Stores the subnodes at a path as {@link VDFStringTableNode}s, compact hash tables of strings.  This is meant for
+     * the huge flat blocks of localization files, e.g. <code>setStringTable("lang/Tokens", true)</code>.  The keys of
+     * the path are matched regardless of case, and a subnode at the path must only contain string values.
+     * <p>
+     * String tables are converted into regular nodes when the tree is deduplicated (see
+     * {@link #setInterner(VDFInterner)}) or written to a flat tree, and parsers with string tables do not use
+     * snapshots.
+     * @param path the keys leading to the subnodes, separated by '/', or null to disable string tables
+     * @param ignoreCase if keys within the tables are matched regardless of case
+     * @return this parser
+     */
+    public VDFParser setStringTable(String path, boolean ignoreCase) {
+        this.stringTablePath = path != null ? path.split("/") : null;
+        this.stringTableIgnoreCase = ignoreCase;
+        return this;
+    }
+
+    /**
+     * Converts values at the paths typed by a schema while they are parsed.  Typed values are stored as Integers,
+     * Longs and Floats rather than strings, which are smaller and need no conversion when they are read with
+     * {@link VDFNode#getInt(String)} and its siblings.  A value that does not fit its type, or a subnode where a
+     * number is expected, fails the parse with a VDFParseException that names the path of the value.
+     * <p>
+     * Numbers are written back out in their canonical form, e.g. <code>1.50</code> as <code>1.5</code>.  Flat trees
+     * store them as strings, so parsers with a schema do not use snapshots.
+     * @param schema the schema, or null to store every value as it is
+     * @return this parser
+     */
+    public VDFParser setSchema(VDFSchema schema) {
+        this.schema = schema;
+        return this;
+    }
+
+    /**
+     * Reads streams on an executor while the calling thread parses what has been read so far, so that reading and
+     * decompressing a document overlaps with parsing it.  Without an executor, streams are read on the calling thread
+     * in chunks, between which the parser catches up.  The executor should not be a bounded pool that is also running
+     * the parse, since the parse waits for the read.
+     * @param executor the executor to read streams on, or null to read them on the calling thread
+     * @return this parser
+     */
+    public VDFParser setReadExecutor(Executor executor) {
+        this.readExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Enables snapshots for documents parsed from files.  The first parse of a file writes a binary snapshot of the
+     * parsed tree next to it, named after the file with a <code>.vdfsnap</code> extension.  Later parses of the
+     * unchanged file memory-map the snapshot instead of parsing the file.  Changed files are detected by a hash of
+     * their contents, and parsed again.
+     * <p>
+     * With snapshots enabled, {@link #parse(Path)} returns read-only trees backed by the mapped snapshot (see
+     * {@link VDFFlatTree}).  Snapshots keep neither typed values nor string tables, and cannot tell what a custom
+     * preprocessor did, so parsers with a schema, a string table path or a preprocessor subclass parse files without
+     * them.
+     * @param enabled if snapshots should be used
+     * @return this parser
+     */
+    public VDFParser setSnapshotCache(boolean enabled) {
+        this.snapshotCache = enabled;
+        return this;
+    }
+
+    /**
+     * Returns whether files are loaded from snapshots: if they are enabled, and no option is set that a snapshot
+     * cannot hold.
+     */
+    boolean isSnapshotCache() {
+        return snapshotCache && schema == null && stringTablePath == null
+                && preprocessor.getClass() == VDFPreprocessor.class;
+    }
+
+    /**
+     * Parses a VDF file.  The encoding of the file is detected as described in {@link #parse(ByteBuffer)}.
+     * @param file the file to parse
+     * @return a VDFNode which represents the root of the VDF document
+     * @throws IOException if the file cannot be read
+     */
+    public VDFNode parse(Path file) throws IOException {
+        if(isSnapshotCache())
+            return VDFSnapshotCache.load(this, file);
+        return parse(Files.readAllBytes(file));
+    }
+
+    /**
+     * Parses an encoded VDF document.  The encoding is detected as described in {@link #parse(ByteBuffer)}.
+     * @param vdf the encoded VDF document
+     * @return a VDFNode which represents the root of the VDF document
+     */
+    public VDFNode parse(byte[] vdf) {
+        return parse(ByteBuffer.wrap(vdf));
+    }
+
+    /**
+     * Reads an encoded VDF document until the end of the stream and parses it.  The stream is not closed.  The
+     * encoding is detected as described in {@link #parse(ByteBuffer)}, and compressed streams are detected as
+     * described in {@link #parse(InputStream, VDFProjection)}.
+     * @param in the stream to read the VDF document from
+     * @return a VDFNode which represents the root of the VDF document
+     * @throws IOException if the stream cannot be read
+     */
+    public VDFNode parse(InputStream in) throws IOException {
+        return parse(in, null);
+    }
+
+    /**
+     * Reads an encoded VDF document until the end of the stream and parses the parts of it selected by a projection.
+     * The stream is not closed.  The encoding is detected as described in {@link #parse(ByteBuffer)}.
+     * <p>
+     * Streams that start with the magic bytes of gzip, or with one of the standard zlib headers (0x78 followed by
+     * 0x01, 0x5E, 0x9C or 0xDA), are decompressed.  UTF-8 documents are parsed while they are read, a line at a time,
+     * on a separate thread if a read executor is set (see {@link #setReadExecutor(Executor)}).
+     * @param in the stream to read the VDF document from
+     * @param projection the parts of the document to build, or null to build all of it
+     * @return a VDFNode which represents the root of the projected VDF document
+     * @throws IOException if the stream cannot be read
+     */
+    public VDFNode parse(InputStream in, VDFProjection projection) throws IOException {
+        VDFTokenizer tokenizer = tokenizer(in, readExecutor);
+        try {
+            return parse(tokenizer, projection);
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    /**
+     * Creates a tokenizer for a stream, which is decompressed if it starts like a gzip or zlib stream.
+     * @param in the stream to read the document from, which is not closed
+     * @param executor the executor to read the stream on, or null to read it on the calling thread
+     * @return a tokenizer for the document, which must be closed
+     * @throws IOException if the start of the stream cannot be read
+     */
+    static VDFTokenizer tokenizer(InputStream in, Executor executor) throws IOException {
+        InputStream source = in.markSupported() ? in : new BufferedInputStream(in, 1 << 16);
+        source.mark(2);
+        int b0 = source.read();
+        int b1 = b0 < 0 ? -1 : source.read();
+        source.reset();
+
+        InputStream decompressed = isCompressed(b0, b1) ? decompress(source, b0) : null;
+        return VDFTokenizer.of(decompressed != null ? decompressed : source, decompressed, executor);
+    }
+
+    /**
+     * Parses an encoded VDF document, from the position to the limit of the buffer.  The position of the buffer is
+     * left unchanged.
+     * <p>
+     * A byte order mark selects UTF-8, UTF-16LE or UTF-16BE.  Documents without one are read as UTF-16 if their first
+     * or second byte is zero, which is how the localization files of Source games start, and as UTF-8 otherwise.
+     * <p>
+     * The document is tokenized in its own encoding, in a single pass, and only the characters of keys and values are
+     * decoded.  In UTF-8 documents, runs of characters that need no handling are found eight bytes at a time and
+     * appended to their token in one go.  Parsers with a custom preprocessor decode the whole document and parse it
+     * as a String instead.  Value slices (see {@link #setValueSlices(boolean)}) need a decoded document, so values of
+     * encoded documents are always stored as strings.
+     * <p>
+     * Documents compressed with gzip or zlib are detected and decompressed as described in
+     * {@link #parse(InputStream, VDFProjection)}.  Corrupt compressed documents throw a VDFParseException.
+     * @param vdf the encoded VDF document
+     * @return a VDFNode which represents the root of the VDF document
+     */
+    public VDFNode parse(ByteBuffer vdf) {
+        return parse(vdf, null);
+    }
+
+    /**
+     * Parses only the parts of a VDF file selected by a projection.  The encoding of the file is detected as described
+     * in {@link #parse(ByteBuffer)}.  Snapshots are not used for projected parses.
+     * @param file the file to parse
+     * @param projection the parts of the document to build, or null to build all of it
+     * @return a VDFNode which represents the root of the projected VDF document
+     * @throws IOException if the file cannot be read
+     */
+    public VDFNode parse(Path file, VDFProjection projection) throws IOException {
+        return parse(ByteBuffer.wrap(Files.readAllBytes(file)), projection);
+    }
+
+    /**
+     * Parses only the parts of an encoded VDF document selected by a projection.  The encoding is detected as described
+     * in {@link #parse(ByteBuffer)}.
+     * @param vdf the encoded VDF document
+     * @param projection the parts of the document to build, or null to build all of it
+     * @return a VDFNode which represents the root of the projected VDF document
+     */
+    public VDFNode parse(byte[] vdf, VDFProjection projection) {
+        return parse(ByteBuffer.wrap(vdf), projection);
+    }
+
+    /**
+     * Parses only the parts of an encoded VDF document selected by a projection.  Values that are not selected are
+     * skipped without decoding them.  The encoding is detected as described in {@link #parse(ByteBuffer)}.
+     * @param vdf the encoded VDF document
+     * @param projection the parts of the document to build, or null to build all of it
+     * @return a VDFNode which represents the root of the projected VDF document
+     */
+    public VDFNode parse(ByteBuffer vdf, VDFProjection projection) {
+        int position = vdf.position();
+        if(vdf.remaining() > 1 && isCompressed(vdf.get(position) & 0xFF, vdf.get(position + 1) & 0xFF)) {
+            try {
+                return parse(vdf.hasArray()
+                        ? new ByteArrayInputStream(vdf.array(), vdf.arrayOffset() + position, vdf.remaining())
+                        : new ByteBufferInputStream(vdf.duplicate()), projection);
+            } catch(IOException e) {
+                throw new VDFParseException("The compressed document is corrupt: " + e.getMessage(), e);
+            }
+        }
+        return parse(VDFTokenizer.of(vdf), projection);
+    }
+
+    private VDFNode parse(VDFTokenizer tokenizer, VDFProjection projection) {
+        if(hasCustomPreprocessor())
+            return parse(tokenizer.decode().split("\\n"), projection);
+
+        VDFRecording recording = VDFRecording.begin(VDFMetrics.Phase.PARSE, metricsListener);
+        VDFParserState state = newState(recording);
+        state.setProjection(projection);
+
+        long lines = tokenizer.tokenize(state);
+        return finish(state, recording, tokenizer.length(), lines);
+    }
+
     /**
      * Parses a VDF document.
      * @param vdf the VDF document to parse
@@ -48,17 +364,43 @@ public class VDFParser {
         return parse(vdf.split("\\n"));
     }
 
+    /**
+     * Parses only the parts of a VDF document selected by a projection, e.g. <code>items/&#42;/name</code> out of an
+     * item schema.  Values that are not selected are skipped without building nodes or strings for them.
+     * @param vdf the VDF document to parse
+     * @param projection the parts of the document to build, or null to build all of it
+     * @return a VDFNode which represents the root of the projected VDF document
+     */
+    public VDFNode parse(String vdf, VDFProjection projection) {
+        return parse(vdf.split("\\n"), projection);
+    }
+
     /**
      * Parses a VDF document
      * @param vdf an array of lines representing a VDF document to parse
      * @return a VDFNode which represents the node of the VDF document
      */
     public VDFNode parse(String[] vdf) {
-        String processed = preprocessor.process(vdf);
-        VDFParserState state = new VDFParserState();
+        return parse(vdf, null);
+    }
+
+    private VDFNode parse(String[] vdf, VDFProjection projection) {
+        String processed = preprocessor.process(vdf, metricsListener);
+
+        VDFRecording recording = VDFRecording.begin(VDFMetrics.Phase.PARSE, metricsListener);
+        VDFParserState state = newState(recording);
+        state.setProjection(projection);
 
         char[] arr = processed.toCharArray();
-        for(char c : arr) {
+        if(valueSlices)
+            state.setSource(arr);
+        VDFTokenizer skipper = projection != null ? VDFTokenizer.of(arr) : null;
+
+        for(int i = 0; i < arr.length; i++) {
+            char c = arr[i];
+            if(valueSlices)
+                state.position(i);
+
             switch (c) {
                 case '"':
                     state.quote();
@@ -75,15 +417,143 @@ public class VDFParser {
                 case '}':
                     state.endSubNode();
                     break;
+                case '[':
+                    state.beginCondition();
+                    break;
+                case ']':
+                    state.endCondition();
+                    break;
                 default:
                     state.character(c);
                     break;
             }
+
+            if(skipper != null && state.skipPending()) {
+                // The value after this key is not selected; a conditional that ended the key is skipped with it
+                i = skipper.skipValue(c == '[' ? i : i + 1) - 1;
+                state.skipped();
+            }
         }
-        state.endParse();
+        return finish(state, recording, processed.length(), vdf.length);
+    }
+
+    /**
+     * Returns whether a document starts with the magic bytes of gzip or a standard zlib header.  Neither can start a
+     * VDF document in practice: 0x1F is a control character, and the bytes after an 'x' would make it an unquoted key
+     * starting with "x^" or an invalid or unusual UTF-8 sequence.
+     */
+    private static boolean isCompressed(int b0, int b1) {
+        return b0 == 0x1F && b1 == 0x8B || b0 == 0x78 && (b1 == 0x01 || b1 == 0x5E || b1 == 0x9C || b1 == 0xDA);
+    }
+
+    /**
+     * Wraps a stream in a decompressing stream that can be closed to free its inflater without closing the stream.
+     */
+    private static InputStream decompress(InputStream in, int magic) throws IOException {
+        InputStream shield = new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+        };
+        if(magic == 0x1F)
+            return new GZIPInputStream(shield, 1 << 16);
+
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(shield, inflater, 1 << 16) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * Reads a buffer that has no backing array, such as a mapped file.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(!buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+    }
+
+    /**
+     * Creates a session for parsing many small documents with this parser, one after another.  A session keeps its
+     * parser state and buffers between documents, so that a parse only allocates the tree it returns.  Sessions are
+     * not thread-safe; keep one per thread, e.g. in a <code>ThreadLocal.withInitial(parser::newSession)</code>.
+     * Changing the options of this parser also changes the options of its sessions.
+     * @return a new session
+     */
+    public VDFParserSession newSession() {
+        return new VDFParserSession(this);
+    }
+
+    VDFMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
 
-        return state.root();
+    /**
+     * Returns whether documents have to go through a preprocessor other than {@link VDFPreprocessor}, in which case
+     * they cannot be tokenized in a single pass.
+     */
+    boolean hasCustomPreprocessor() {
+        return preprocessor.getClass() != VDFPreprocessor.class;
+    }
+
+    /**
+     * Creates the state of a parse, configured with the options of this parser.
+     */
+    private VDFParserState newState(VDFRecording recording) {
+        return configure(new VDFParserState(newRoot()), recording);
+    }
+
+    /**
+     * Resets an existing state for another parse, configured with the options of this parser.
+     */
+    VDFParserState reset(VDFParserState state, VDFRecording recording) {
+        state.reset(newRoot());
+        return configure(state, recording);
     }
 
+    private VDFParserState configure(VDFParserState state, VDFRecording recording) {
+        state.setRecording(recording);
+        state.setStringTable(stringTablePath, stringTableIgnoreCase);
+        state.setSchema(schema);
+        return state;
+    }
+
+    private VDFNode newRoot() {
+        return ignoreCase ? new VDFNode(String.CASE_INSENSITIVE_ORDER) : new VDFNode();
+    }
+
+    /**
+     * Ends a parse and returns its tree, deduplicated if an interner is set.
+     */
+    VDFNode finish(VDFParserState state, VDFRecording recording, long characters, long lines) {
+        state.endParse();
+
+        if(recording != null)
+            recording.end(characters, lines);
+
+        return interner != null ? interner.intern(state.root()) : state.root();
+    }
 
 }
@@ -0,0 +1,75 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+/**
+ * Parses many small documents with the options of one {@link VDFParser}, such as game server events or manifest
+ * fragments.  A session reuses its parser state, token buffers and node stack for every document, and tokenizes each
+ * document in a single pass straight from the CharSequence it is given, so that the document is neither copied, split
+ * into lines nor preprocessed into a new String.  Once the buffers have grown to fit the documents, a parse only
+ * allocates the nodes, keys and values of the tree it returns.
+ * <p>
+ * Sessions are created with {@link VDFParser#newSession()} and are not thread-safe.  Values are always stored as
+ * strings, since value slices need a character array of the document.  Parsers with a custom preprocessor parse
+ * through {@link VDFParser#parse(String)} instead.
+ * @author Brendan Heinonen
+ */
+public final class VDFParserSession {
+
+    private final VDFParser parser;
+
+    private final VDFParserState state = new VDFParserState();
+
+    private final VDFTokenizer.Text tokenizer = new VDFTokenizer.Text();
+
+    VDFParserSession(VDFParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Parses a VDF document.
+     * @param vdf the VDF document to parse
+     * @return a VDFNode which represents the root of the VDF document
+     */
+    public VDFNode parse(CharSequence vdf) {
+        return parse(vdf, null);
+    }
+
+    /**
+     * Parses only the parts of a VDF document selected by a projection.
+     * @param vdf the VDF document to parse
+     * @param projection the parts of the document to build, or null to build all of it
+     * @return a VDFNode which represents the root of the projected VDF document
+     */
+    public VDFNode parse(CharSequence vdf, VDFProjection projection) {
+        if(parser.hasCustomPreprocessor())
+            return parser.parse(vdf.toString(), projection);
+
+        VDFRecording recording = VDFRecording.begin(VDFMetrics.Phase.PARSE, parser.getMetricsListener());
+        parser.reset(state, recording).setProjection(projection);
+        tokenizer.reset(vdf);
+        try {
+            long lines = tokenizer.tokenize(state);
+            return parser.finish(state, recording, vdf.length(), lines);
+        } finally {
+            // Neither the document nor its tree outlive the parse, even if the session is kept around
+            tokenizer.reset(null);
+            state.release();
+        }
+    }
+
+}
@@ -16,26 +16,57 @@ limitations under the License.
 
 package net.platinumdigitalgroup.jvdf;
 
-import java.util.Stack;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
 
 /**
- * Holds the internal state of the VDF parser.
+ * Holds the internal state of the VDF parser.  A state can be {@link #reset(VDFNode) reset} and used for another
+ * document, which reuses its buffers and stacks.
  * @author Brendan Heinonen
  */
 public class VDFParserState {
 
+    /**
+     * Receives the key/value pairs of a document as they are parsed, instead of a tree.  Conditionals are not passed
+     * on.
+     */
+    interface Sink {
+
+        /**
+         * Receives a value that is not a subnode.
+         * @param key the key of the value
+         * @param value the value, a String or a number typed by the schema
+         */
+        void value(String key, Object value);
+
+        /**
+         * Receives the start of a subnode.  Its key/value pairs follow, up to the matching {@link #endNode()}.
+         * @param key the key of the subnode
+         */
+        void beginNode(String key);
+
+        /**
+         * Receives the end of the last subnode that was begun.
+         */
+        void endNode();
+
+    }
+
     /**
      * The root node is the base of the VDF document.  All subnodes are children of the root node.
      */
-    private final VDFNode rootNode;
+    private VDFNode rootNode;
 
     /**
      * Since a VDF document can have a virtually unlimited amount of subnodes, we use a stack datastructure to represent
      * the level of subnodes the parser state is currently at. When we enter a subnode, a new VDFNode is pushed to the
      * top of the stack.  As we leave subnodes, the stack is popped.  The bottom of the stack should always point to
-     * the root node.
+     * the root node.  The stack is a plain array indexed like keyStack, which avoids the synchronization of
+     * java.util.Stack and survives a reset.
      */
-    private final Stack<VDFNode> childStack = new Stack<>();
+    private VDFNode[] childStack = new VDFNode[16];
+    private int childDepth = 0;
 
     /**
      * This flag represents if the parser is currently iterating over a character preceded with an open quote. Since
@@ -69,13 +100,121 @@ public class VDFParserState {
      */
     private final StringBuilder currentString = new StringBuilder();
 
+    /**
+     * This flag represents if the parser is currently inside of a conditional, e.g. [$WIN32].
+     */
+    private boolean conditionState = false;
+
+    /**
+     * Buffer for the expression of the conditional the parser is currently inside of.
+     */
+    private final StringBuilder conditionString = new StringBuilder();
+
+    /**
+     * A conditional that appeared between a key and its value, e.g. "key" [$WIN32] { ... }. It is attached to the
+     * next value.
+     */
+    private VDFCondition pendingCondition;
+
+    /**
+     * The node, key and index of the last value that was stored. A conditional that follows a value is attached to it.
+     */
+    private VDFNode lastNode;
+    private String lastKey;
+    private int lastIndex;
+
+    /**
+     * The keys and indices of the subnodes on the child stack, so that a conditional following a closing brace can be
+     * attached to the subnode it closed.
+     */
+    private String[] keyStack = new String[16];
+    private int[] indexStack = new int[16];
+
+    /**
+     * The characters of the document when values are stored as slices, or null if values are stored as strings.
+     */
+    private char[] source;
+
+    /**
+     * The index of the source character currently being handled.
+     */
+    private int position;
+
+    /**
+     * The index of the first character of the current token, and whether every character of the token so far has
+     * been copied unchanged from consecutive source characters.  Only tracked when values are stored as slices.
+     */
+    private int tokenStart;
+    private boolean contiguous;
+
+    /**
+     * Counts the subnodes and multimapped keys of the document, or null if nobody is listening.
+     */
+    private VDFRecording recording;
+
+    /**
+     * The keys leading to the subnodes that are stored as string tables, or null if there are none.
+     */
+    private String[] stringTablePath;
+    private boolean stringTableIgnoreCase;
+
+    /**
+     * The parts of the document to build, or null to build all of it.
+     */
+    private VDFProjection projection;
+
+    /**
+     * Whether each subnode on the child stack is selected as a whole by the projection, indexed like keyStack.
+     */
+    private boolean[] selectedStack = new boolean[16];
+
+    /**
+     * What the projection decided about the value of the current key.
+     */
+    private int keyMatch = VDFProjection.SELECT;
+
+    /**
+     * This flag represents if the value of the current key is not selected and must be skipped by the parser.
+     */
+    private boolean skipPending = false;
+
+    /**
+     * The types of the values, or null if values are stored as they are.
+     */
+    private VDFSchema schema;
+
+    /**
+     * The schema level of each subnode on the child stack, indexed like keyStack, or null where the schema does not
+     * describe the subnode.
+     */
+    private VDFSchema.Level[] schemaStack = new VDFSchema.Level[16];
+
+    /**
+     * Where key/value pairs go instead of the nodes on the child stack, or null to build a tree.
+     */
+    private final Sink sink;
+
     /**
      * Initializes the parser state with a starting root node.
      * @param root an existing root node
      */
     public VDFParserState(VDFNode root) {
+        this(root, null);
+    }
+
+    /**
+     * Initializes a parser state that passes the key/value pairs of a document to a sink rather than building a tree.
+     * Subnodes are not created, so the child stack holds nulls above the root, which stays empty.
+     * @param sink the sink to pass key/value pairs to
+     */
+    VDFParserState(Sink sink) {
+        this(new VDFNode(), sink);
+    }
+
+    private VDFParserState(VDFNode root, Sink sink) {
         this.rootNode = root;
-        this.childStack.push(root);
+        this.childStack[childDepth++] = root;
+        this.sink = sink;
     }
 
     /**
@@ -86,6 +225,125 @@ public class VDFParserState {
     }
 
 
+    /**
+     * Resets the parser state so that it starts over with another root node, as if it had just been created.  The
+     * string buffers and stacks are kept, so a state that is reset for every document only allocates the nodes and
+     * strings of the tree it builds.
+     * @param root an existing root node
+     */
+    public void reset(VDFNode root) {
+        release();
+        rootNode = root;
+        childStack[childDepth++] = root;
+    }
+
+    /**
+     * Clears the parser state and drops every reference to the last document, so that a state kept for later use does
+     * not keep a tree alive.  The state must be {@link #reset(VDFNode) reset} before it is used again.
+     */
+    void release() {
+        Arrays.fill(childStack, 0, childDepth, null);
+        Arrays.fill(keyStack, null);
+        Arrays.fill(schemaStack, null);
+        childDepth = 0;
+        rootNode = null;
+
+        quoteState = false;
+        escapePending = false;
+        conditionState = false;
+        conditionString.setLength(0);
+        pendingCondition = null;
+        keyName = "";
+        lastNode = null;
+        lastKey = null;
+        lastIndex = 0;
+        resetKV();
+
+        source = null;
+        position = 0;
+        tokenStart = 0;
+        contiguous = false;
+        recording = null;
+        stringTablePath = null;
+        stringTableIgnoreCase = false;
+        projection = null;
+        keyMatch = VDFProjection.SELECT;
+        skipPending = false;
+        schema = null;
+    }
+
+    /**
+     * Stores values as slices of the document rather than strings.  Tokens that contain escape sequences are still
+     * stored as strings.  The parser must report the index of every character with {@link #position(int)}.
+     * @param source the characters of the document, which must not be modified afterwards
+     */
+    void setSource(char[] source) {
+        this.source = source;
+    }
+
+    /**
+     * Sets the index of the source character that is handled next.
+     * @param position an index into the source
+     */
+    void position(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Sets the recording that subnodes and multimapped keys are counted in.
+     * @param recording the recording of the parse, or null
+     */
+    void setRecording(VDFRecording recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Stores the subnodes at a path as {@link VDFStringTableNode}s.  Keys of the path are matched regardless of case.
+     * @param path the keys leading to the subnodes, or null
+     * @param ignoreCase if the keys of the tables are case-insensitive
+     */
+    void setStringTable(String[] path, boolean ignoreCase) {
+        this.stringTablePath = path;
+        this.stringTableIgnoreCase = ignoreCase;
+    }
+
+    /**
+     * Only builds the parts of the document selected by a projection.  After every handled character the parser must
+     * check {@link #skipPending()}, and skip the value that follows if it is set.
+     * @param projection the projection, or null to build the whole document
+     */
+    void setProjection(VDFProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Converts the values at the paths typed by a schema.
+     * @param schema the schema, or null to store values as they are
+     */
+    void setSchema(VDFSchema schema) {
+        this.schema = schema;
+        schemaStack[0] = schema != null ? schema.root() : null;
+    }
+
+    /**
+     * Returns whether the value that follows must be skipped because the projection does not select it.
+     * @return if the parser must skip the next value
+     */
+    boolean skipPending() {
+        return skipPending;
+    }
+
+    /**
+     * Tells the state that the parser skipped the value of the current key, along with the conditionals around it.
+     */
+    void skipped() {
+        skipPending = false;
+        conditionState = false;
+        pendingCondition = null;
+        lastNode = null;
+        resetKV();
+    }
+
     /**
      * Returns the root VDFNode for this parser state.
      * @return the VDFNode representing the root of the VDF document
@@ -99,14 +357,16 @@ public class VDFParserState {
      * @return the VDFNode that the parser is currently writing key/values to
      */
     public VDFNode current() {
-        return childStack.peek();
+        return childStack[childDepth - 1];
     }
 
     /**
      * Handle a quote character.
      */
     public void quote() {
-        if(escapePending) {
+        if(conditionState) {
+            conditionString.append('"');
+        } else if(escapePending) {
             // If there's an escape pending, this quote is escaped
             character('"');
         } else {
@@ -132,6 +392,10 @@ public class VDFParserState {
      * Handle a whitespace character.
      */
     public void space() {
+        // Spaces inside of a conditional are meaningless
+        if(conditionState)
+            return;
+
         // If we're inside a quoted string, append space to the current string
         if(quoteState) {
             character(' ');
@@ -145,12 +409,21 @@ public class VDFParserState {
             // If valuePending was toggled to true, the last string was the key name
             // If valuePending was toggled to false, the last
             if(valuePending) {
+                if(projection != null && select()) {
+                    // The value of this key is skipped, so its name is not needed
+                    skipPending = true;
+                    return;
+                }
+
                 // Store the key name
                 keyName = currentString.toString();
                 //System.out.println(keyName);
+            } else if(keyMatch == VDFProjection.DESCEND) {
+                // Only subnodes lead to the selected values below this key
+                lastNode = null;
             } else {
                 // Store the value into the current node
-                currentValue(keyName, currentString.toString());
+                currentValue(keyName, schema != null ? typedValue() : tokenValue());
             }
 
             resetString();
@@ -161,6 +434,11 @@ public class VDFParserState {
      * Handle an escape character.
      */
     public void escape() {
+        if(conditionState) {
+            conditionString.append('\\');
+            return;
+        }
+
         // This shouldn't just set escapePending to true because \\ is a valid escape sequence.
         escapePending = !escapePending;
 
@@ -175,12 +453,27 @@ public class VDFParserState {
      * @param c a non-control character
      */
     public void character(char c) {
+        if(conditionState) {
+            conditionString.append(c);
+            return;
+        }
+
         // Check specced escape sequence
         if(escapePending) {
             if(c == 'n')
                 c = '\n';
         }
 
+        if(source != null) {
+            // A token can be sliced if its characters are the source characters it was read from
+            if(currentString.length() == 0) {
+                tokenStart = position;
+                contiguous = !escapePending;
+            } else if(escapePending || position != tokenStart + currentString.length()) {
+                contiguous = false;
+            }
+        }
+
         // If the character is not a control character, append it to the current string
         currentString.append(c);
 
@@ -188,21 +481,80 @@ public class VDFParserState {
         escapePending = false;
     }
 
+    /**
+     * Handles a run of ASCII characters that are neither control characters nor whitespace, as if
+     * {@link #character(char)} was called for each of them.
+     * @param bytes the bytes of the document
+     * @param from the index of the first character
+     * @param to the index after the last character
+     */
+    void ascii(ByteBuffer bytes, int from, int to) {
+        // The first character settles escapes and slices; the rest are appended as they are
+        character((char) bytes.get(from));
+        if(source != null) {
+            for(int i = from + 1; i < to; i++)
+                character((char) bytes.get(i));
+            return;
+        }
+
+        StringBuilder target = conditionState ? conditionString : currentString;
+        if(bytes.hasArray()) {
+            byte[] array = bytes.array();
+            int offset = bytes.arrayOffset();
+            for(int i = from + 1; i < to; i++)
+                target.append((char) array[offset + i]);
+        } else {
+            for(int i = from + 1; i < to; i++)
+                target.append((char) bytes.get(i));
+        }
+    }
+
     /**
      * Start a subnode context.
      */
     public void beginSubNode() {
-        if(escapePending || quoteState) {
+        if(escapePending || quoteState || conditionState) {
             character('{');
         } else {
             // Create new subnode
-            VDFNode node = new VDFNode();
+            int depth = childDepth;
+            VDFSchema.Level level = schema != null ? schemaLevel(keyName) : null;
+            if(level != null && level.type != null && level.type != VDFSchema.Type.STRING && !level.hasChildren())
+                throw new VDFParseException("The value of " + valuePath(keyName) + " is a subnode, not " +
+                        describe(level.type) + ".");
+
+            VDFNode node = null;
+            if(sink != null) {
+                sink.beginNode(keyName);
+                lastKey = keyName;
+                lastIndex = 0;
+                pendingCondition = null;
+            } else {
+                node = isStringTable(depth) ? new VDFStringTableNode(stringTableIgnoreCase)
+                        : new VDFNode(rootNode.comparator());
+
+                // Set the current node's value
+                currentValue(keyName, node);
+            }
+
+            // Remember where the subnode lives in its parent
+            if(depth == keyStack.length) {
+                childStack = Arrays.copyOf(childStack, depth * 2);
+                keyStack = Arrays.copyOf(keyStack, depth * 2);
+                indexStack = Arrays.copyOf(indexStack, depth * 2);
+                selectedStack = Arrays.copyOf(selectedStack, depth * 2);
+                schemaStack = Arrays.copyOf(schemaStack, depth * 2);
+            }
+            keyStack[depth] = lastKey;
+            indexStack[depth] = lastIndex;
+            selectedStack[depth] = keyMatch == VDFProjection.SELECT;
+            schemaStack[depth] = level;
 
-            // Set the current node's value
-            currentValue(keyName, node);
+            if(recording != null)
+                recording.node(depth);
 
             // Push node onto child node stack
-            childStack.push(node);
+            childStack[childDepth++] = node;
 
             resetKV();
         }
@@ -212,16 +564,66 @@ public class VDFParserState {
      * End a subnode context.
      */
     public void endSubNode() {
-        if(escapePending || quoteState) {
+        if(escapePending || quoteState || conditionState) {
             character('}');
         } else {
             // At this point, we're done adding key/values, so reset the string buffer and KV state
             resetKV();
 
             // Popping the root node means there were more ended subnodes than subnodes that existed
-            if (rootNode == childStack.pop()) {
+            VDFNode closed = current();
+            if (childDepth == 1) {
                 throw new VDFParseException("The root node was popped. There was a subnode mismatch (misplaced '}'?).");
             }
+            childStack[--childDepth] = null;
+            if(closed instanceof VDFStringTableNode)
+                ((VDFStringTableNode) closed).trim();
+
+            if(sink != null)
+                sink.endNode();
+
+            // The subnode that was just closed is now the last value
+            int depth = childDepth;
+            lastNode = sink != null ? null : current();
+            lastKey = keyStack[depth];
+            lastIndex = indexStack[depth];
+        }
+    }
+
+    /**
+     * Handle the opening bracket of a conditional.
+     */
+    public void beginCondition() {
+        if(escapePending || quoteState || conditionState) {
+            character('[');
+        } else {
+            // A conditional terminates an unquoted token, e.g. key value[$WIN32]
+            if(currentString.length() > 0)
+                space();
+
+            conditionState = true;
+            conditionString.setLength(0);
+        }
+    }
+
+    /**
+     * Handle the closing bracket of a conditional.
+     */
+    public void endCondition() {
+        if(!conditionState) {
+            character(']');
+            return;
+        }
+
+        conditionState = false;
+        VDFCondition condition = VDFCondition.parse(conditionString.toString());
+
+        if(valuePending) {
+            // "key" [$WIN32] "value"
+            pendingCondition = condition;
+        } else if(lastNode != null) {
+            // "key" "value" [$WIN32]
+            setCondition(lastNode, lastKey, lastIndex, condition);
         }
     }
 
@@ -230,10 +632,14 @@ public class VDFParserState {
      * Finalizes the parser. Called at the end of parsing.
      */
     public void endParse() {
+        if(conditionState) {
+            throw new VDFParseException("A conditional was not terminated (missing ']'?).");
+        }
+
         // Call space to commit the current KV pair
         space();
 
-        if(childStack.peek() != rootNode) {
+        if(childDepth != 1) {
             throw new VDFParseException("The root node was not at the top of the stack at the end of parsing. " +
                     "There was a subnode mismatch (misplaced '{'?)");
         }
@@ -245,7 +651,119 @@ public class VDFParserState {
      * @param val the value
      */
     private void currentValue(String key, Object val) {
-        current().put(key, val);
+        if(sink != null) {
+            sink.value(key, val);
+            pendingCondition = null;
+            return;
+        }
+
+        VDFNode node = current();
+        lastNode = node;
+        lastKey = key;
+
+        if(node instanceof VDFStringTableNode) {
+            if(val instanceof VDFNode)
+                throw new VDFParseException("The string table " + String.join("/", stringTablePath) +
+                        " contains the subnode " + key + ".");
+            lastIndex = ((VDFStringTableNode) node).add(key, val.toString());
+        } else {
+            lastIndex = node.append(key, val);
+        }
+
+        if(lastIndex == 1 && recording != null)
+            recording.multimappedKey();
+
+        if(pendingCondition != null) {
+            setCondition(node, key, lastIndex, pendingCondition);
+            pendingCondition = null;
+        }
+    }
+
+    /**
+     * Asks the projection about the key that was just read.
+     * @return true if the value of the key must be skipped
+     */
+    private boolean select() {
+        int depth = childDepth;
+        if(depth > 1 && selectedStack[depth - 1]) {
+            keyMatch = VDFProjection.SELECT;
+            return false;
+        }
+
+        keyMatch = projection.match(keyStack, depth, currentString, rootNode.comparator() != null);
+        return keyMatch == VDFProjection.SKIP;
+    }
+
+    private static void setCondition(VDFNode node, String key, int index, VDFCondition condition) {
+        if(node instanceof VDFStringTableNode)
+            ((VDFStringTableNode) node).condition(key, index, condition);
+        else
+            node.setCondition(key, index, condition);
+    }
+
+    /**
+     * Returns whether the subnode about to be opened under the current key is at the string table path.
+     * @param depth the depth of the subnode, where children of the root are at depth 1
+     */
+    private boolean isStringTable(int depth) {
+        if(stringTablePath == null || stringTablePath.length != depth
+                || !stringTablePath[depth - 1].equalsIgnoreCase(keyName))
+            return false;
+        for(int i = 1; i < depth; i++) {
+            if(!stringTablePath[i - 1].equalsIgnoreCase(keyStack[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current token as a value.
+     * @return a slice of the source if possible, otherwise a string
+     */
+    private Object tokenValue() {
+        if(source != null && contiguous && currentString.length() > 0)
+            return new VDFSlice(source, tokenStart, currentString.length());
+        return currentString.toString();
+    }
+
+    /**
+     * Returns the current token as a value of the type the schema declares for the current key.
+     * @return a number, or the token itself if the key is not typed
+     */
+    private Object typedValue() {
+        VDFSchema.Level level = schemaLevel(keyName);
+        if(level == null || level.type == null || level.type == VDFSchema.Type.STRING)
+            return tokenValue();
+
+        Object value = VDFSchema.convert(level.type, currentString);
+        if(value == null)
+            throw new VDFParseException("The value \"" + currentString + "\" of " + valuePath(keyName) + " is not " +
+                    describe(level.type) + ".");
+        return value;
+    }
+
+    /**
+     * Returns the schema level of a key of the current node.
+     * @return the level of the key, or null if the schema does not describe it
+     */
+    private VDFSchema.Level schemaLevel(String key) {
+        VDFSchema.Level parent = schemaStack[childDepth - 1];
+        return parent != null ? parent.child(key, rootNode.comparator() != null) : null;
+    }
+
+    /**
+     * Returns the path of the value of a key of the current node that is about to be stored.
+     */
+    private VDFPath valuePath(String key) {
+        VDFPath path = VDFPath.ROOT;
+        for(int i = 1; i < childDepth; i++)
+            path = path.child(keyStack[i], indexStack[i]);
+        VDFNode node = current();
+        return path.child(key, node != null ? node.values(key) : 0);
+    }
+
+    private static String describe(VDFSchema.Type type) {
+        return type == VDFSchema.Type.INT ? "an int" : "a " + type.name().toLowerCase(Locale.ROOT);
     }
 
     /**
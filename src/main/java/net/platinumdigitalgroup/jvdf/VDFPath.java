@@ -0,0 +1,209 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+/**
+ * The location of a value in a VDF document: a chain of keys, each with the index of the value within the key's
+ * multimap.  Paths are linked to their parent path, so extending a path is a single small allocation and no strings
+ * are concatenated until {@link #toString()} is called.
+ * @author Brendan Heinonen
+ */
+public final class VDFPath {
+
+    /**
+     * The path of the root node.
+     */
+    public static final VDFPath ROOT = new VDFPath(null, null, 0);
+
+    private final VDFPath parent;
+
+    private final String key;
+
+    private final int index;
+
+    private final int depth;
+
+    /**
+     * The hash code, extended from the parent's so that deep paths hash in constant time.
+     */
+    private final int hash;
+
+    private VDFPath(VDFPath parent, String key, int index) {
+        this.parent = parent;
+        this.key = key;
+        this.index = index;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+        this.hash = parent == null ? 1 : 31 * (31 * parent.hash + key.hashCode()) + index;
+    }
+
+    /**
+     * Returns the path of a value below this path.
+     * @param key the key of the value
+     * @param index the index of the value within the key's values
+     * @return the child path
+     */
+    public VDFPath child(String key, int index) {
+        return new VDFPath(this, key, index);
+    }
+
+    /**
+     * Parses a path in the format of {@link #toString()}, e.g. <code>root_node/sub_node[1]/key</code>.  Keys that
+     * contain '/' or end with a number in brackets cannot be written this way; such paths are built with
+     * {@link #child(String, int)}.
+     * @param path keys separated by '/', each optionally followed by an index in brackets
+     * @return the parsed path, or the root path for an empty string
+     */
+    public static VDFPath parse(String path) {
+        VDFPath result = ROOT;
+        if(path.isEmpty())
+            return result;
+
+        for(String segment : path.split("/", -1)) {
+            String key = segment;
+            int index = 0;
+            int open = segment.lastIndexOf('[');
+            if(open >= 0 && segment.endsWith("]")) {
+                try {
+                    index = Integer.parseInt(segment.substring(open + 1, segment.length() - 1));
+                    key = segment.substring(0, open);
+                } catch(NumberFormatException e) {
+                    // Not an index, so the brackets are part of the key
+                }
+                if(index < 0)
+                    throw new IllegalArgumentException("Negative index in path " + path);
+            }
+            result = result.child(key, index);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the path this path was extended from.
+     * @return the parent path, or null for the root path
+     */
+    public VDFPath getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the last key of this path.
+     * @return the key, or null for the root path
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the index of the value within the values of the last key of this path.
+     * @return the multimap index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of keys in this path.
+     * @return the depth of the path, or 0 for the root path
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns the keys of this path from the root down.
+     * @return the keys of this path
+     */
+    public String[] keys() {
+        VDFPath[] chain = chain();
+        String[] keys = new String[depth];
+        for(int i = 0; i < depth; i++)
+            keys[i] = chain[i].key;
+        return keys;
+    }
+
+    /**
+     * Resolves this path against a node.
+     * @param root the node this path is relative to
+     * @return the value at this path, or null if it does not exist
+     */
+    public Object resolve(VDFNode root) {
+        VDFPath[] chain = chain();
+        Object value = root;
+        for(VDFPath p : chain) {
+            if(!(value instanceof VDFNode))
+                return null;
+
+            Object[] values = ((VDFNode) value).lookup(p.key);
+            if(values == null || p.index >= values.length)
+                return null;
+            value = values[p.index];
+        }
+        return value;
+    }
+
+    /**
+     * Returns the non-root paths leading to this path, from the root down.
+     */
+    private VDFPath[] chain() {
+        VDFPath[] chain = new VDFPath[depth];
+        for(VDFPath p = this; p.parent != null; p = p.parent)
+            chain[p.depth - 1] = p;
+        return chain;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(!(o instanceof VDFPath))
+            return false;
+
+        VDFPath a = this;
+        VDFPath b = (VDFPath) o;
+        if(a.depth != b.depth || a.hash != b.hash)
+            return false;
+        for(; a.parent != null; a = a.parent, b = b.parent) {
+            if(a.index != b.index || !a.key.equals(b.key))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Formats the path as keys separated by '/'.  Indices other than 0 are appended in brackets, e.g.
+     * <code>root_node/sub_node[1]/key</code>.
+     * @return the formatted path
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for(VDFPath p : chain()) {
+            if(p.depth > 1)
+                builder.append('/');
+            builder.append(p.key);
+            if(p.index != 0)
+                builder.append('[').append(p.index).append(']');
+        }
+        return builder.toString();
+    }
+
+}
@@ -26,6 +26,18 @@ import java.util.stream.IntStream;
  */
 public class VDFPreprocessor {
 
+    private VDFMetricsListener metricsListener;
+
+    /**
+     * Reports the metrics of every processed document to a listener.
+     * @param listener the listener to report to, or null to stop reporting
+     * @return this preprocessor
+     */
+    public VDFPreprocessor setMetricsListener(VDFMetricsListener listener) {
+        this.metricsListener = listener;
+        return this;
+    }
+
     /**
      * Preprocesses a VDF document into a minified, less-than-humanly readable, but still valid VDF document with
      * comments and unnecessary whitepsaces removed..
@@ -43,6 +55,26 @@ public class VDFPreprocessor {
      * @return a VDF document transformed from the input document
      */
     public String process(String[] lines) {
+        return process(lines, null);
+    }
+
+    /**
+     * Preprocesses a VDF document on behalf of a parser.
+     * @param lines an array of lines of a VDF document to process
+     * @param listener the listener of the parser, which takes precedence over the listener of this preprocessor
+     * @return a VDF document transformed from the input document
+     */
+    String process(String[] lines, VDFMetricsListener listener) {
+        VDFRecording recording = VDFRecording.begin(VDFMetrics.Phase.PREPROCESS,
+                listener != null ? listener : metricsListener);
+
+        // The lines are processed in place, so they are measured up front
+        long characters = 0;
+        if(recording != null) {
+            for(String line : lines)
+                characters += line.length() + 1;
+        }
+
         // Execute line processors on each line
         processLines(lines);
 
@@ -57,6 +89,9 @@ public class VDFPreprocessor {
                     builder.append(" ");
             }
         }
+
+        if(recording != null)
+            recording.end(characters, lines.length);
         return builder.toString();
     }
 
@@ -127,10 +162,6 @@ public class VDFPreprocessor {
                 }
             }
 
-            // Strip conditional statement
-            if(!openQuotes && c == '[')
-                return sb.toString();
-
             // Strip whitespace
             if(isWhitespace(c)) {
 
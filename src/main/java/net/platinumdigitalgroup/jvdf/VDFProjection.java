@@ -0,0 +1,130 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.Arrays;
+
+/**
+ * Selects the parts of a VDF document to parse.  A projection is a set of path patterns such as
+ * <code>items/&#42;/name</code> or <code>prefabs</code>: keys separated by '/', where <code>*</code> matches any key.
+ * A pattern selects the values at its path, including the whole subtree of a selected subnode.
+ * <p>
+ * When a document is parsed with a projection (see {@link VDFParser#parse(String, VDFProjection)}), the parser only
+ * builds the selected values and the subnodes leading to them.  Every other value is skipped by a scan that matches
+ * quotes, escapes and braces without creating nodes or strings.  Subnodes leading to a pattern are kept even if none
+ * of their values turn out to be selected.
+ * @author Brendan Heinonen
+ */
+public final class VDFProjection {
+
+    static final int SKIP = 0;
+    static final int DESCEND = 1;
+    static final int SELECT = 2;
+
+    private static final String WILDCARD = "*";
+
+    private final String[][] patterns;
+
+    private VDFProjection(String[][] patterns) {
+        this.patterns = patterns;
+    }
+
+    /**
+     * Creates a projection from path patterns.
+     * @param patterns keys separated by '/', where <code>*</code> matches any key
+     * @return a projection that selects the values matching any of the patterns
+     */
+    public static VDFProjection of(String... patterns) {
+        if(patterns.length == 0)
+            throw new IllegalArgumentException("A projection needs at least one pattern");
+
+        String[][] compiled = new String[patterns.length][];
+        for(int i = 0; i < patterns.length; i++) {
+            String[] segments = patterns[i].split("/");
+            for(String segment : segments) {
+                if(segment.isEmpty())
+                    throw new IllegalArgumentException("The pattern " + patterns[i] + " has an empty key");
+            }
+            compiled[i] = segments;
+        }
+        return new VDFProjection(compiled);
+    }
+
+    /**
+     * Decides what to do with the value of a key whose parent is not selected as a whole.
+     * @param ancestors the keys of the subnodes leading to the key, at indices 1 to depth - 1
+     * @param depth the depth of the key, where keys of the root node are at depth 1
+     * @param key the key, which is compared without being copied into a String
+     * @param ignoreCase if keys are compared regardless of case
+     * @return SELECT if the value matches a pattern, DESCEND if a pattern continues below the value, otherwise SKIP
+     */
+    int match(String[] ancestors, int depth, CharSequence key, boolean ignoreCase) {
+        int result = SKIP;
+        for(String[] pattern : patterns) {
+            if(pattern.length < depth || !matches(pattern[depth - 1], key, ignoreCase))
+                continue;
+
+            boolean matched = true;
+            for(int i = 1; i < depth && matched; i++)
+                matched = matches(pattern[i - 1], ancestors[i], ignoreCase);
+            if(!matched)
+                continue;
+
+            if(pattern.length == depth)
+                return SELECT;
+            result = DESCEND;
+        }
+        return result;
+    }
+
+    private static boolean matches(String segment, CharSequence key, boolean ignoreCase) {
+        if(segment.equals(WILDCARD))
+            return true;
+        if(segment.length() != key.length())
+            return false;
+        for(int i = 0; i < segment.length(); i++) {
+            char a = segment.charAt(i);
+            char b = key.charAt(i);
+            if(a != b && (!ignoreCase || Character.toUpperCase(a) != Character.toUpperCase(b)
+                    && Character.toLowerCase(a) != Character.toLowerCase(b)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for(String[] pattern : patterns) {
+            if(builder.length() > 0)
+                builder.append(", ");
+            builder.append(String.join("/", pattern));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VDFProjection && Arrays.deepEquals(patterns, ((VDFProjection) o).patterns);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.deepHashCode(patterns);
+    }
+
+}
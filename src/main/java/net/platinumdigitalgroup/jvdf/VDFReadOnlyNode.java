@@ -0,0 +1,401 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Base class for VDF nodes that do not keep their key/value pairs in the backing TreeMap, such as views and snapshots.
+ * Subclasses answer lookups, the entry count and sorted iteration, and every other read operation is built on top of
+ * those.  Every mutating operation throws an UnsupportedOperationException.
+ * <p>
+ * Value arrays handed out through the Map interface are copies, so callers cannot modify the node through them.
+ * @author Brendan Heinonen
+ */
+abstract class VDFReadOnlyNode extends VDFNode {
+
+    /**
+     * Returns the values of a key without copying them.
+     * @param key the key name
+     * @return the values of the key, or null if the key does not exist in this node
+     */
+    @Override
+    abstract Object[] lookup(String key);
+
+    /**
+     * Iterates the key/value pairs of this node in key order, without copying the value arrays.
+     * @return an iterator over the entries of this node
+     */
+    @Override
+    abstract Iterator<Map.Entry<String, Object[]>> rawEntries();
+
+    @Override
+    public abstract int size();
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && lookup((String) key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for(Iterator<Map.Entry<String, Object[]>> it = rawEntries(); it.hasNext(); ) {
+            if(it.next().getValue() == value)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Object[] get(Object key) {
+        if(!(key instanceof String))
+            return null;
+        Object[] values = lookup((String) key);
+        return values != null ? values.clone() : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object[]>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object[]>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object[]>> iterator() {
+                Iterator<Map.Entry<String, Object[]>> it = rawEntries();
+                return new Iterator<Map.Entry<String, Object[]>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object[]> next() {
+                        Map.Entry<String, Object[]> e = it.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue().clone());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return VDFReadOnlyNode.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<String> navigableKeySet() {
+        return snapshot().navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<String> descendingKeySet() {
+        return snapshot().descendingKeySet();
+    }
+
+    @Override
+    public Collection<Object[]> values() {
+        return new AbstractCollection<Object[]>() {
+            @Override
+            public Iterator<Object[]> iterator() {
+                Iterator<Map.Entry<String, Object[]>> it = entrySet().iterator();
+                return new Iterator<Object[]>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Object[] next() {
+                        return it.next().getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return VDFReadOnlyNode.this.size();
+            }
+        };
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object[]> action) {
+        for(Map.Entry<String, Object[]> e : entrySet())
+            action.accept(e.getKey(), e.getValue());
+    }
+
+    @Override
+    public String firstKey() {
+        return snapshot().firstKey();
+    }
+
+    @Override
+    public String lastKey() {
+        return snapshot().lastKey();
+    }
+
+    @Override
+    public Map.Entry<String, Object[]> firstEntry() {
+        return snapshot().firstEntry();
+    }
+
+    @Override
+    public Map.Entry<String, Object[]> lastEntry() {
+        return snapshot().lastEntry();
+    }
+
+    @Override
+    public Map.Entry<String, Object[]> lowerEntry(String key) {
+        return snapshot().lowerEntry(key);
+    }
+
+    @Override
+    public String lowerKey(String key) {
+        return snapshot().lowerKey(key);
+    }
+
+    @Override
+    public Map.Entry<String, Object[]> floorEntry(String key) {
+        return snapshot().floorEntry(key);
+    }
+
+    @Override
+    public String floorKey(String key) {
+        return snapshot().floorKey(key);
+    }
+
+    @Override
+    public Map.Entry<String, Object[]> ceilingEntry(String key) {
+        return snapshot().ceilingEntry(key);
+    }
+
+    @Override
+    public String ceilingKey(String key) {
+        return snapshot().ceilingKey(key);
+    }
+
+    @Override
+    public Map.Entry<String, Object[]> higherEntry(String key) {
+        return snapshot().higherEntry(key);
+    }
+
+    @Override
+    public String higherKey(String key) {
+        return snapshot().higherKey(key);
+    }
+
+    @Override
+    public NavigableMap<String, Object[]> descendingMap() {
+        return snapshot().descendingMap();
+    }
+
+    @Override
+    public NavigableMap<String, Object[]> subMap(String fromKey, boolean fromInclusive, String toKey, boolean toInclusive) {
+        return snapshot().subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public NavigableMap<String, Object[]> headMap(String toKey, boolean inclusive) {
+        return snapshot().headMap(toKey, inclusive);
+    }
+
+    @Override
+    public NavigableMap<String, Object[]> tailMap(String fromKey, boolean inclusive) {
+        return snapshot().tailMap(fromKey, inclusive);
+    }
+
+    @Override
+    public SortedMap<String, Object[]> subMap(String fromKey, String toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<String, Object[]> headMap(String toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<String, Object[]> tailMap(String fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * Copies this node into an unmodifiable TreeMap to answer the navigation methods.  Those are rarely used on VDF
+     * documents, so they are not worth implementing natively in every subclass.
+     * @return an unmodifiable copy of this node
+     */
+    private NavigableMap<String, Object[]> snapshot() {
+        TreeMap<String, Object[]> map = new TreeMap<>(comparator());
+        map.putAll(this);
+        return Collections.unmodifiableNavigableMap(map);
+    }
+
+    /**
+     * Returns a mutable copy of this node.  Subnodes are shared with this node.
+     * @return a mutable VDFNode with the same key/value pairs and conditionals
+     */
+    @Override
+    public Object clone() {
+        VDFNode copy = new VDFNode(comparator());
+        for(Iterator<Map.Entry<String, Object[]>> it = rawEntries(); it.hasNext(); ) {
+            Map.Entry<String, Object[]> e = it.next();
+            Object[] values = e.getValue();
+            for(int i = 0; i < values.length; i++)
+                copy.put(e.getKey(), values[i], getCondition(e.getKey(), i));
+        }
+        return copy;
+    }
+
+    /**
+     * Read-only nodes keep nothing in the backing TreeMap, so they serialize as a mutable copy.
+     * @return the object to serialize in place of this node
+     */
+    protected Object writeReplace() {
+        return clone();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("This VDF node is read-only");
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object put(String key, Object value, VDFCondition condition) {
+        throw readOnly();
+    }
+
+    @Override
+    int append(String key, Object value) {
+        throw readOnly();
+    }
+
+    @Override
+    int appendAll(String key, Object[] values) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object[] put(String key, Object[] value) {
+        throw readOnly();
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object[]> map) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object[] remove(Object key) {
+        throw readOnly();
+    }
+
+    @Override
+    public void clear() {
+        throw readOnly();
+    }
+
+    @Override
+    public Map.Entry<String, Object[]> pollFirstEntry() {
+        throw readOnly();
+    }
+
+    @Override
+    public Map.Entry<String, Object[]> pollLastEntry() {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean replace(String key, Object[] oldValue, Object[] newValue) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object[] replace(String key, Object[] value) {
+        throw readOnly();
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object[], ? extends Object[]> function) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object[] putIfAbsent(String key, Object[] value) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object[] computeIfAbsent(String key, Function<? super String, ? extends Object[]> mappingFunction) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object[] computeIfPresent(String key,
+                                     BiFunction<? super String, ? super Object[], ? extends Object[]> remappingFunction) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object[] compute(String key,
+                            BiFunction<? super String, ? super Object[], ? extends Object[]> remappingFunction) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object[] merge(String key, Object[] value,
+                          BiFunction<? super Object[], ? super Object[], ? extends Object[]> remappingFunction) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setCondition(String key, int index, VDFCondition condition) {
+        throw readOnly();
+    }
+
+    @Override
+    public VDFNode reduce(boolean recursive) {
+        throw readOnly();
+    }
+
+}
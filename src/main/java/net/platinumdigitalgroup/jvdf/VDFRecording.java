@@ -0,0 +1,122 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+/**
+ * Collects the counters of a single phase and publishes them to a {@link VDFMetricsListener} and to JDK Flight
+ * Recorder.  Components only create a recording when someone is listening, and every counter update is guarded by a
+ * null check, so instrumentation costs next to nothing when it is disabled.
+ * @author Brendan Heinonen
+ */
+final class VDFRecording {
+
+    private static final boolean FLIGHT_RECORDER = isFlightRecorderAvailable();
+
+    private final VDFMetrics.Phase phase;
+    private final VDFMetricsListener listener;
+
+    /**
+     * The Flight Recorder event of this recording, or null.  Typed as Object so that this class loads on JVMs without
+     * Flight Recorder.
+     */
+    private final Object event;
+
+    private final long start;
+
+    private long nodes = 0;
+    private int maxDepth = 0;
+    private long multimappedKeys = 0;
+
+    private VDFRecording(VDFMetrics.Phase phase, VDFMetricsListener listener, Object event) {
+        this.phase = phase;
+        this.listener = listener;
+        this.event = event;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Starts recording a phase.
+     * @param phase the phase to record
+     * @param listener the listener of the component, or null
+     * @return a recording, or null if neither the listener nor Flight Recorder are interested in the phase
+     */
+    static VDFRecording begin(VDFMetrics.Phase phase, VDFMetricsListener listener) {
+        Object event = FLIGHT_RECORDER ? VDFFlightRecorder.begin() : null;
+        if(event == null && listener == null)
+            return null;
+        return new VDFRecording(phase, listener, event);
+    }
+
+    /**
+     * Counts a subnode.  Binding counts from several threads, so updates are synchronized.
+     * @param depth the depth of the subnode, where children of the root node are at depth 1
+     */
+    synchronized void node(int depth) {
+        nodes++;
+        if(depth > maxDepth)
+            maxDepth = depth;
+    }
+
+    /**
+     * Counts a key that just received its second value.
+     */
+    synchronized void multimappedKey() {
+        multimappedKeys++;
+    }
+
+    /**
+     * Completes the recording and publishes it.
+     * @param characters the size of the document
+     * @param lines the number of lines of the document
+     */
+    void end(long characters, long lines) {
+        VDFMetrics metrics;
+        synchronized(this) {
+            metrics = new VDFMetrics(phase, characters, lines, nodes, maxDepth, multimappedKeys,
+                    System.nanoTime() - start, Thread.currentThread().getName());
+        }
+
+        if(event != null)
+            VDFFlightRecorder.commit(event, metrics);
+        if(listener != null)
+            listener.phaseCompleted(metrics);
+    }
+
+    /**
+     * Counts the lines of a string.
+     */
+    static long lines(CharSequence s) {
+        if(s.length() == 0)
+            return 0;
+        long lines = 1;
+        for(int i = 0, length = s.length(); i < length; i++) {
+            if(s.charAt(i) == '\n')
+                lines++;
+        }
+        return lines;
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch(ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reduces multimapped subnodes into single subnodes.
+ * <p>
+ * Every node is reduced by exactly one task, and a node's entries are only replaced in place (never inserted or
+ * removed) while it is being reduced, so the backing TreeMaps are never structurally modified during iteration.  Small
+ * subnodes are reduced iteratively by the task that found them; only subnodes with at least
+ * {@link #FORK_THRESHOLD} entries are forked to the common fork/join pool, since forking costs more than it saves on
+ * the small nodes that make up most documents.  The result does not depend on scheduling: values are always merged in
+ * index order.
+ * @author Brendan Heinonen
+ */
+final class VDFReducer extends RecursiveAction {
+
+    /**
+     * The minimum number of entries a subnode needs to be reduced by a forked task.
+     */
+    static final int FORK_THRESHOLD = 256;
+
+    private final VDFNode node;
+
+    private final boolean recursive;
+
+    private VDFReducer(VDFNode node, boolean recursive) {
+        this.node = node;
+        this.recursive = recursive;
+    }
+
+    /**
+     * Reduces multimapped subnodes of a node into single subnodes.
+     * @param node the node to reduce
+     * @param recursive if subnodes should be reduced as well
+     */
+    static void reduce(VDFNode node, boolean recursive) {
+        new VDFReducer(node, recursive).invoke();
+    }
+
+    @Override
+    protected void compute() {
+        ArrayDeque<VDFNode> work = new ArrayDeque<>();
+        List<VDFReducer> forked = new ArrayList<>();
+        List<VDFNode> children = new ArrayList<>();
+
+        work.push(node);
+        while(!work.isEmpty()) {
+            reduceLevel(work.pop(), children);
+
+            for(VDFNode child : children) {
+                if(child.size() >= FORK_THRESHOLD) {
+                    VDFReducer task = new VDFReducer(child, true);
+                    task.fork();
+                    forked.add(task);
+                } else {
+                    work.push(child);
+                }
+            }
+            children.clear();
+        }
+
+        for(VDFReducer task : forked)
+            task.join();
+    }
+
+    /**
+     * Reduces the multimapped subnodes of a single node.
+     * @param node the node to reduce
+     * @param children receives the subnodes of the node that still need to be reduced, if recursion is enabled
+     */
+    private void reduceLevel(VDFNode node, List<VDFNode> children) {
+        for(Map.Entry<String, Object[]> e : node.entrySet()) {
+            Object[] values = e.getValue();
+
+            int nodes = 0;
+            for(Object value : values) {
+                if(value instanceof VDFNode)
+                    nodes++;
+            }
+            if(nodes == 0)
+                continue;
+
+            if(nodes > 1)
+                values = mergeValues(node, e, nodes);
+
+            if(!recursive)
+                continue;
+
+            for(int i = 0; i < values.length; i++) {
+                if(values[i] instanceof VDFReadOnlyNode) {
+                    // Read-only subnodes are replaced with a mutable copy of themselves so they can be reduced
+                    if(values == e.getValue())
+                        values = replaceValues(node, e, values.clone());
+                    values[i] = ((VDFNode) values[i]).clone();
+                }
+                if(values[i] instanceof VDFNode)
+                    children.add((VDFNode) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the value array of an entry.  Conditionals are bound to the array they were set on, so the conditionals
+     * of the entry are set again on the new array.
+     * @return the new values of the entry
+     */
+    private static Object[] replaceValues(VDFNode owner, Map.Entry<String, Object[]> entry, Object[] values) {
+        String key = entry.getKey();
+        VDFCondition[] guards = null;
+        if(owner.hasConditions()) {
+            guards = new VDFCondition[values.length];
+            for(int i = 0; i < values.length; i++)
+                guards[i] = owner.getCondition(key, i);
+        }
+
+        entry.setValue(values);
+
+        if(guards != null) {
+            owner.removeConditions(key);
+            for(int i = 0; i < guards.length; i++) {
+                if(guards[i] != null)
+                    owner.setCondition(key, i, guards[i]);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Merges the subnodes of an entry that share a conditional into a single subnode, which takes the place of the
+     * first of them and keeps their conditional.  Subnodes under different conditionals are not merged with each
+     * other, and values that are not subnodes keep their relative order and their conditionals.
+     * @return the new values of the entry
+     */
+    private static Object[] mergeValues(VDFNode owner, Map.Entry<String, Object[]> entry, int nodes) {
+        String key = entry.getKey();
+        Object[] values = entry.getValue();
+        Object[] reduced = new Object[values.length];
+        VDFCondition[] guards = new VDFCondition[values.length];
+
+        // The distinct conditionals of the subnodes, with the subnodes under each and the index they are merged into
+        List<VDFCondition> conditions = new ArrayList<>();
+        List<List<VDFNode>> sources = new ArrayList<>();
+        int[] mergedIndex = new int[nodes];
+
+        int r = 0;
+        for(int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            VDFCondition condition = owner.getCondition(key, i);
+            if(value instanceof VDFNode) {
+                int group = conditions.indexOf(condition);
+                if(group < 0) {
+                    group = conditions.size();
+                    conditions.add(condition);
+                    sources.add(new ArrayList<VDFNode>());
+                    mergedIndex[group] = r;
+                    guards[r++] = condition;
+                }
+                sources.get(group).add((VDFNode) value);
+            } else {
+                guards[r] = condition;
+                reduced[r++] = value;
+            }
+        }
+        for(int group = 0; group < sources.size(); group++) {
+            List<VDFNode> merged = sources.get(group);
+            reduced[mergedIndex[group]] = merged.size() == 1 ? merged.get(0)
+                    : merge(merged.toArray(new VDFNode[merged.size()]));
+        }
+        if(r < reduced.length)
+            reduced = Arrays.copyOf(reduced, r);
+
+        entry.setValue(reduced);
+
+        if(owner.hasConditions()) {
+            owner.removeConditions(key);
+            for(int i = 0; i < r; i++) {
+                if(guards[i] != null)
+                    owner.setCondition(key, i, guards[i]);
+            }
+        }
+
+        return reduced;
+    }
+
+    /**
+     * Builds a single node out of the key/value pairs of several nodes.  Values of each key are collected in order
+     * and copied into their final array once, and the merged node is built from the sorted result in one pass.
+     * @param sources the nodes to merge, in order
+     * @return a new node containing every key/value pair of the sources
+     */
+    static VDFNode merge(VDFNode... sources) {
+        Comparator<? super String> comparator = sources[0].comparator();
+        TreeMap<String, Object> collected = new TreeMap<>(comparator);
+        boolean conditional = false;
+
+        for(VDFNode source : sources) {
+            conditional |= source.hasConditions();
+            for(Iterator<Map.Entry<String, Object[]>> it = source.rawEntries(); it.hasNext(); ) {
+                Map.Entry<String, Object[]> e = it.next();
+                Object existing = collected.get(e.getKey());
+                if(existing == null) {
+                    collected.put(e.getKey(), e.getValue());
+                } else {
+                    // Keys that occur in several sources are collected into a list
+                    List<Object> list;
+                    if(existing instanceof Object[]) {
+                        list = new ArrayList<>(Arrays.asList((Object[]) existing));
+                        collected.put(e.getKey(), list);
+                    } else {
+                        @SuppressWarnings("unchecked")
+                        List<Object> l = (List<Object>) existing;
+                        list = l;
+                    }
+                    list.addAll(Arrays.asList(e.getValue()));
+                }
+            }
+        }
+
+        TreeMap<String, Object[]> built = new TreeMap<>(comparator);
+        for(Map.Entry<String, Object> e : collected.entrySet()) {
+            Object value = e.getValue();
+            built.put(e.getKey(), value instanceof Object[] ? ((Object[]) value).clone() : ((List<?>) value).toArray());
+        }
+
+        VDFNode merged = new VDFNode(comparator);
+        // TreeMap builds itself in linear time from another sorted map
+        merged.putAll(built);
+
+        if(conditional) {
+            for(Map.Entry<String, Object[]> e : built.entrySet()) {
+                int index = 0;
+                for(VDFNode source : sources) {
+                    int count = source.values(e.getKey());
+                    for(int i = 0; i < count; i++, index++) {
+                        VDFCondition condition = source.getCondition(e.getKey(), i);
+                        if(condition != null)
+                            merged.setCondition(e.getKey(), index, condition);
+                    }
+                }
+            }
+        }
+
+        return merged;
+    }
+
+}
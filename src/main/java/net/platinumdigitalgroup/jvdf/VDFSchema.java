@@ -0,0 +1,360 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Declares the types of the values of a VDF document.  A schema maps path patterns such as
+ * <code>items_game/items/&#42;/item_quality</code>, written like those of a {@link VDFProjection}, to a {@link Type}.
+ * When a document is parsed with a schema (see {@link VDFParser#setSchema(VDFSchema)}), values at typed paths are
+ * converted while they are tokenized and stored as Integers, Longs or Floats instead of strings, and a value that does
+ * not fit its type fails the parse with a VDFParseException naming its path.
+ * <p>
+ * Where a key matches both a pattern with that key and a pattern with <code>*</code>, the key wins.  Types apply to
+ * leaf values; subnodes below a typed path are only accepted if the schema continues below it.
+ * <p>
+ * Schemas are immutable and may be shared between parsers and threads.
+ * @author Brendan Heinonen
+ */
+public final class VDFSchema {
+
+    private static final String WILDCARD = "*";
+
+    /**
+     * The type of the values at a path.
+     */
+    public enum Type {
+
+        /**
+         * Values are kept as they are.  This overrides a numeric type declared for <code>*</code>.
+         */
+        STRING,
+
+        /**
+         * Values are decimal 32-bit integers, stored as Integers.
+         */
+        INT,
+
+        /**
+         * Values are decimal 64-bit integers, such as Steam IDs, stored as Longs.
+         */
+        LONG,
+
+        /**
+         * Values are floating point numbers, stored as Floats.
+         */
+        FLOAT
+
+    }
+
+    /**
+     * A compiled level of the schema: the type of the values of one key, and the levels of the keys below it.  Levels
+     * are resolved once per key as the parser descends, so typing a value costs a single map lookup.
+     */
+    static final class Level {
+
+        final Type type;
+
+        private final Map<String, Level> children;
+
+        private final TreeMap<String, Level> foldedChildren;
+
+        private final Level any;
+
+        private Level(Type type, Map<String, Level> children, Level any) {
+            this.type = type;
+            this.children = children;
+            this.any = any;
+
+            if(children.isEmpty()) {
+                this.foldedChildren = null;
+            } else {
+                this.foldedChildren = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                this.foldedChildren.putAll(children);
+            }
+        }
+
+        /**
+         * Returns the level of a key below this level.
+         * @param key the key
+         * @param ignoreCase if keys are compared regardless of case
+         * @return the level of the key, or null if the schema does not describe it
+         */
+        Level child(String key, boolean ignoreCase) {
+            Level child = null;
+            if(foldedChildren != null)
+                child = ignoreCase ? foldedChildren.get(key) : children.get(key);
+            return child != null ? child : any;
+        }
+
+        /**
+         * Returns whether the schema describes keys below this level.
+         */
+        boolean hasChildren() {
+            return foldedChildren != null || any != null;
+        }
+
+    }
+
+    /**
+     * A level of the schema as it was declared, before patterns with <code>*</code> are merged into the keys they
+     * also match.
+     */
+    private static final class Declaration {
+
+        private Type type;
+
+        private final Map<String, Declaration> children = new HashMap<>();
+
+        private Declaration any;
+
+        Declaration child(String key) {
+            if(key.equals(WILDCARD)) {
+                if(any == null)
+                    any = new Declaration();
+                return any;
+            }
+            return children.computeIfAbsent(key, k -> new Declaration());
+        }
+
+    }
+
+    private final Level root;
+
+    private VDFSchema(Level root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns a builder for a schema declared in code.
+     * @return an empty builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a schema from a VDF tree that mirrors the documents it describes: subnodes are levels, the key
+     * <code>*</code> matches any key, and every leaf value names the type of its key, e.g.
+     * <code>"items_game" { "items" { "*" { "item_quality" "int" } } }</code>.  Type names are matched regardless of
+     * case.
+     * @param definition the tree that declares the schema
+     * @return the schema
+     */
+    public static VDFSchema of(VDFNode definition) {
+        Builder builder = new Builder();
+        declare(builder, definition, new ArrayList<>());
+        return builder.build();
+    }
+
+    private static void declare(Builder builder, VDFNode node, List<String> keys) {
+        for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); ) {
+            Map.Entry<String, Object[]> e = it.next();
+            keys.add(e.getKey());
+            for(Object value : e.getValue()) {
+                if(value instanceof VDFNode) {
+                    declare(builder, (VDFNode) value, keys);
+                    continue;
+                }
+
+                Type type;
+                try {
+                    type = Type.valueOf(value.toString().toUpperCase(Locale.ROOT));
+                } catch(IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("Unknown type " + value + " of " + String.join("/", keys));
+                }
+                builder.declare(keys.toArray(new String[0]), type);
+            }
+            keys.remove(keys.size() - 1);
+        }
+    }
+
+    /**
+     * Returns the level of the root node.
+     */
+    Level root() {
+        return root;
+    }
+
+    /**
+     * Returns the type the schema declares for the values at a path.
+     * @param path the path of a value
+     * @return the declared type, or null if the values at the path are not typed
+     */
+    public Type typeOf(VDFPath path) {
+        Level level = root;
+        for(String key : path.keys()) {
+            level = level.child(key, false);
+            if(level == null)
+                return null;
+        }
+        return level.type;
+    }
+
+    /**
+     * Converts a token to a value of a numeric type without copying it into a String, unless it is too long for the
+     * fast path.
+     * @param type INT, LONG or FLOAT
+     * @param token the characters of the value
+     * @return an Integer, Long or Float, or null if the token does not fit the type
+     */
+    static Object convert(Type type, CharSequence token) {
+        switch(type) {
+            case INT: {
+                long value = parseDigits(token, 10);
+                if(value == Long.MIN_VALUE) {
+                    try {
+                        return Integer.parseInt(token.toString());
+                    } catch(NumberFormatException e) {
+                        return null;
+                    }
+                }
+                return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? Integer.valueOf((int) value) : null;
+            }
+            case LONG: {
+                long value = parseDigits(token, 18);
+                if(value == Long.MIN_VALUE) {
+                    try {
+                        return Long.parseLong(token.toString());
+                    } catch(NumberFormatException e) {
+                        return null;
+                    }
+                }
+                return value;
+            }
+            case FLOAT:
+                try {
+                    return Float.parseFloat(token.toString());
+                } catch(NumberFormatException e) {
+                    return null;
+                }
+            default:
+                throw new IllegalArgumentException("Type " + type + " is not numeric");
+        }
+    }
+
+    /**
+     * Parses an optional minus sign followed by up to a number of digits.
+     * @return the value, or Long.MIN_VALUE if the token is not a plain number of at most that many digits
+     */
+    private static long parseDigits(CharSequence token, int maxDigits) {
+        int length = token.length();
+        int i = length > 0 && token.charAt(0) == '-' ? 1 : 0;
+        if(i == length || length - i > maxDigits)
+            return Long.MIN_VALUE;
+
+        long value = 0;
+        for(; i < length; i++) {
+            int digit = token.charAt(i) - '0';
+            if(digit < 0 || digit > 9)
+                return Long.MIN_VALUE;
+            value = value * 10 + digit;
+        }
+        return token.charAt(0) == '-' ? -value : value;
+    }
+
+    /**
+     * Builds schemas in code.
+     */
+    public static final class Builder {
+
+        private final Declaration root = new Declaration();
+
+        private Builder() {
+        }
+
+        /**
+         * Declares the type of the values at a path.
+         * @param pattern keys separated by '/', where <code>*</code> matches any key
+         * @param type the type of the values
+         * @return this
+         */
+        public Builder type(String pattern, Type type) {
+            String[] keys = pattern.split("/");
+            for(String key : keys) {
+                if(key.isEmpty())
+                    throw new IllegalArgumentException("The pattern " + pattern + " has an empty key");
+            }
+            return declare(keys, type);
+        }
+
+        private Builder declare(String[] keys, Type type) {
+            if(type == null)
+                throw new IllegalArgumentException("The type of " + String.join("/", keys) + " is null");
+
+            Declaration declaration = root;
+            for(String key : keys)
+                declaration = declaration.child(key);
+            if(declaration.type != null && declaration.type != type)
+                throw new IllegalArgumentException(String.join("/", keys) + " is declared as both " +
+                        declaration.type + " and " + type);
+            declaration.type = type;
+            return this;
+        }
+
+        /**
+         * Builds the schema.
+         * @return an immutable schema
+         */
+        public VDFSchema build() {
+            return new VDFSchema(compile(Collections.singletonList(root)));
+        }
+
+        /**
+         * Compiles the declarations that match the same keys into one level.  The declarations are ordered by
+         * precedence, so the first one with a type decides the type of the level.
+         */
+        private static Level compile(List<Declaration> declarations) {
+            Type type = null;
+            Set<String> keys = new LinkedHashSet<>();
+            List<Declaration> wildcards = new ArrayList<>();
+            for(Declaration declaration : declarations) {
+                if(type == null)
+                    type = declaration.type;
+                keys.addAll(declaration.children.keySet());
+                if(declaration.any != null)
+                    wildcards.add(declaration.any);
+            }
+
+            Map<String, Level> children = keys.isEmpty() ? Collections.<String, Level>emptyMap() : new HashMap<>();
+            for(String key : keys) {
+                List<Declaration> matching = new ArrayList<>();
+                for(Declaration declaration : declarations) {
+                    Declaration child = declaration.children.get(key);
+                    if(child != null)
+                        matching.add(child);
+                }
+                matching.addAll(wildcards);
+                children.put(key, compile(matching));
+            }
+
+            return new Level(type, children, wildcards.isEmpty() ? null : compile(wildcards));
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+/**
+ * A value that refers to a range of the parsed document instead of owning a copy of its characters.  Parsers create
+ * slices when {@link VDFParser#setValueSlices(boolean)} is enabled, which avoids allocating a String for every value.
+ * The String is only created once it is asked for, and the numeric getters of VDFNode parse slices in place.
+ * <p>
+ * A slice keeps the whole parsed document alive, so slices should not be kept after the tree they belong to is
+ * discarded.  {@link VDFInterner} replaces slices with strings.
+ * @author Brendan Heinonen
+ */
+public final class VDFSlice implements CharSequence, Comparable<CharSequence> {
+
+    private final char[] source;
+
+    private final int offset;
+
+    private final int length;
+
+    /**
+     * The materialized string, or null until it is asked for.  Racing threads may both create it, which is harmless.
+     */
+    private String string;
+
+    VDFSlice(char[] source, int offset, int length) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns the characters of the document this slice refers to.
+     */
+    char[] source() {
+        return source;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length)
+            throw new StringIndexOutOfBoundsException(index);
+        return source[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if(start < 0 || end > length || start > end)
+            throw new StringIndexOutOfBoundsException("Range [" + start + ", " + end + ") is out of bounds");
+        return new VDFSlice(source, offset + start, end - start);
+    }
+
+    /**
+     * Parses the slice as a decimal int without creating a String.  Anything that is not a plain number that fits
+     * into an int is handed to Integer.parseInt, so the results and exceptions are the same.
+     * @return the int value of the slice
+     */
+    public int parseInt() {
+        if(length > 0 && length <= 10) {
+            long value = parseDigits();
+            if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+                return (int) value;
+        }
+        return Integer.parseInt(toString());
+    }
+
+    /**
+     * Parses the slice as a decimal long without creating a String.
+     * @return the long value of the slice
+     */
+    public long parseLong() {
+        if(length > 0 && length <= 18) {
+            long value = parseDigits();
+            if(value != Long.MIN_VALUE)
+                return value;
+        }
+        return Long.parseLong(toString());
+    }
+
+    /**
+     * Parses an optional minus sign followed by up to 17 digits.
+     * @return the value, or Long.MIN_VALUE if the slice is not a plain number
+     */
+    private long parseDigits() {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = source[i] == '-';
+        if(negative && ++i == end)
+            return Long.MIN_VALUE;
+
+        long value = 0;
+        for(; i < end; i++) {
+            int digit = source[i] - '0';
+            if(digit < 0 || digit > 9)
+                return Long.MIN_VALUE;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    @Override
+    public int compareTo(CharSequence other) {
+        for(int i = 0, n = Math.min(length, other.length()); i < n; i++) {
+            char c = source[offset + i];
+            char o = other.charAt(i);
+            if(c != o)
+                return c - o;
+        }
+        return length - other.length();
+    }
+
+    /**
+     * Slices are equal to slices with the same characters.  Like String, a slice is never equal to other kinds of
+     * character sequences; use {@link #contentEquals(CharSequence)} to compare with those.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(!(o instanceof VDFSlice))
+            return false;
+        VDFSlice other = (VDFSlice) o;
+        return length == other.length && contentEquals(other);
+    }
+
+    /**
+     * Compares the characters of this slice with any character sequence.
+     * @param other the characters to compare with
+     * @return if the characters are the same
+     */
+    public boolean contentEquals(CharSequence other) {
+        if(length != other.length())
+            return false;
+        for(int i = 0; i < length; i++) {
+            if(source[offset + i] != other.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes like String, so a slice and its string have the same hash code.
+     */
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for(int i = 0; i < length; i++)
+            h = 31 * h + source[offset + i];
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        String s = string;
+        if(s == null) {
+            s = new String(source, offset, length);
+            string = s;
+        }
+        return s;
+    }
+
+}
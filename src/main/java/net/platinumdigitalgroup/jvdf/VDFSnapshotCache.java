@@ -0,0 +1,181 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps parsed documents as {@link VDFFlatTree} snapshots next to their source files.  A snapshot is a small header
+ * followed by the flat tree:
+ * <ul>
+ *     <li>the magic number and the snapshot format version,</li>
+ *     <li>the 64-bit hash and the length of the source file the snapshot was parsed from.</li>
+ * </ul>
+ * A snapshot is only used if the hash and length of the source file still match, so edited files are parsed again.
+ * Snapshots are written to a temporary file that is moved into place, so concurrent readers never see a partial
+ * snapshot.
+ * @author Brendan Heinonen
+ */
+final class VDFSnapshotCache {
+
+    static final String EXTENSION = ".vdfsnap";
+
+    private static final int MAGIC = 0x5344564A;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+
+    private VDFSnapshotCache() {
+    }
+
+    /**
+     * Returns the path of the snapshot of a source file.
+     * @param source the source file
+     * @return the path of the snapshot
+     */
+    static Path snapshotOf(Path source) {
+        return source.resolveSibling(source.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Loads a document from its snapshot, or parses it and writes a snapshot if the snapshot is missing or stale.
+     * @param parser the parser to parse the document with
+     * @param source the source file
+     * @return the root of the document's flat tree
+     * @throws IOException if the source file cannot be read
+     */
+    static VDFNode load(VDFParser parser, Path source) throws IOException {
+        ByteBuffer text;
+        try(FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            text = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        long hash = hash(text);
+        long length = text.limit();
+
+        Path snapshot = snapshotOf(source);
+        VDFNode cached = read(snapshot, hash, length, parser.isIgnoreCase());
+        if(cached != null)
+            return cached;
+
+        VDFNode root = parser.parse(text);
+        try {
+            write(snapshot, root, hash, length);
+        } catch(IOException ex) {
+            // Snapshots only speed up later loads; a read-only directory must not break parsing
+            return root.freeze();
+        }
+
+        VDFNode written = read(snapshot, hash, length, parser.isIgnoreCase());
+        return written != null ? written : root.freeze();
+    }
+
+    /**
+     * Maps a snapshot.
+     * @return the root of the snapshot, or null if the snapshot does not exist, is corrupt or is stale, or if its keys
+     * are not case-insensitive exactly when the parser's are
+     */
+    private static VDFNode read(Path snapshot, long hash, long length, boolean ignoreCase) {
+        if(!Files.isRegularFile(snapshot))
+            return null;
+
+        try(FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+                return null;
+
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if(mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                    || mapped.getLong(8) != hash || mapped.getLong(16) != length)
+                return null;
+
+            ((Buffer) mapped).position(HEADER_SIZE);
+            VDFFlatTree tree = VDFFlatTree.wrap(mapped.slice());
+            return tree.isIgnoreCase() == ignoreCase ? tree.root() : null;
+        } catch(IOException | VDFParseException ex) {
+            return null;
+        }
+    }
+
+    private static void write(Path snapshot, VDFNode root, long hash, long length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(hash).putLong(length);
+        ((Buffer) header).flip();
+        ByteBuffer tree = VDFFlatTree.encodeToHeap(root);
+
+        Path temp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while(header.hasRemaining())
+                    channel.write(header);
+                while(tree.hasRemaining())
+                    channel.write(tree);
+            }
+
+            try {
+                Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException ex) {
+                Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Hashes the contents of a file eight bytes at a time.
+     */
+    static long hash(ByteBuffer bytes) {
+        ByteBuffer in = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = in.limit();
+        long h = 0x9e3779b97f4a7c15L ^ length;
+
+        int i = 0;
+        for(; i + 8 <= length; i += 8)
+            h = mix(h, in.getLong(i));
+
+        long tail = 0;
+        for(int shift = 0; i < length; i++, shift += 8)
+            tail |= (in.get(i) & 0xFFL) << shift;
+        h = mix(h, tail);
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long mix(long h, long k) {
+        k *= 0x87c37b91114253d5L;
+        k = Long.rotateLeft(k, 31);
+        k *= 0x4cf5ad432745937fL;
+        h ^= k;
+        return Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+    }
+
+}
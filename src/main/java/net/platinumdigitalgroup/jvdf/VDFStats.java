@@ -0,0 +1,327 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The shape of a VDF tree and an estimate of the heap memory it retains, as measured by {@link VDFNode#footprint()}.
+ * <p>
+ * Sizes are estimated for a 64-bit JVM with compressed oops, including the TreeMap entries and value arrays of every
+ * node.  Objects that several parts of the tree share, such as the subtrees and strings deduplicated by a
+ * {@link VDFInterner} or the document behind value slices, are counted once, in the first subtree that reaches them in
+ * document order.  Flat trees and views decode or filter their values on access, so their shape is measured but they
+ * retain nothing on the heap.
+ * @author Brendan Heinonen
+ */
+public final class VDFStats {
+
+    /**
+     * A subnode waiting to be measured.
+     */
+    private static final class Frame {
+
+        private final VDFPath path;
+        private final VDFNode node;
+        private final int parent;
+        private final boolean heap;
+
+        Frame(VDFPath path, VDFNode node, int parent, boolean heap) {
+            this.path = path;
+            this.node = node;
+            this.parent = parent;
+            this.heap = heap;
+        }
+
+    }
+
+    private final long nodes;
+    private final long values;
+    private final long keys;
+    private final long multimappedKeys;
+    private final long multimappedValues;
+    private final long[] depths;
+    private final long strings;
+    private final long distinctStrings;
+    private final long duplicateStringBytes;
+    private final Map<VDFPath, Long> subtreeBytes;
+
+    private VDFStats(long nodes, long values, long keys, long multimappedKeys, long multimappedValues, long[] depths,
+                     long strings, long distinctStrings, long duplicateStringBytes, Map<VDFPath, Long> subtreeBytes) {
+        this.nodes = nodes;
+        this.values = values;
+        this.keys = keys;
+        this.multimappedKeys = multimappedKeys;
+        this.multimappedValues = multimappedValues;
+        this.depths = depths;
+        this.strings = strings;
+        this.distinctStrings = distinctStrings;
+        this.duplicateStringBytes = duplicateStringBytes;
+        this.subtreeBytes = subtreeBytes;
+    }
+
+    /**
+     * Measures a tree in a single pass.  Subnodes are kept on an explicit stack, so trees of any depth can be measured,
+     * and the bytes of each subtree are summed from the bottom up once every subnode has been visited.
+     * @param root the node to measure
+     * @return the statistics of the tree
+     */
+    static VDFStats of(VDFNode root) {
+        long values = 0;
+        long keys = 0;
+        long multimappedKeys = 0;
+        long multimappedValues = 0;
+        long[] depths = new long[1];
+        long strings = 0;
+        long duplicateStringBytes = 0;
+
+        Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<String> contents = new HashSet<>();
+
+        // Subnodes in document order, with the index of their parent and the bytes of their own level
+        List<VDFPath> paths = new ArrayList<>();
+        int[] parents = new int[16];
+        long[] bytes = new long[16];
+
+        ArrayDeque<Frame> pending = new ArrayDeque<>();
+        pending.push(new Frame(VDFPath.ROOT, root, -1, true));
+        List<Frame> children = new ArrayList<>();
+        while(!pending.isEmpty()) {
+            Frame frame = pending.pop();
+            VDFNode node = frame.node;
+            boolean heap = frame.heap && !(node instanceof VDFFlatNode) && !(node instanceof VDFNodeView);
+
+            int index = paths.size();
+            paths.add(frame.path);
+            if(index == parents.length) {
+                parents = Arrays.copyOf(parents, index * 2);
+                bytes = Arrays.copyOf(bytes, index * 2);
+            }
+            parents[index] = frame.parent;
+
+            int depth = frame.path.depth();
+            if(depth == depths.length)
+                depths = Arrays.copyOf(depths, depth * 2);
+            depths[depth]++;
+
+            long own = 0;
+            if(heap && counted.add(node)) {
+                if(node instanceof VDFImmutableNode)
+                    own += VDFMemoryLayout.levelBytes((VDFImmutableNode) node);
+                else if(node instanceof VDFStringTableNode)
+                    own += ((VDFStringTableNode) node).levelBytes();
+                else
+                    own += VDFMemoryLayout.levelBytes(node);
+            }
+
+            children.clear();
+            for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); ) {
+                Map.Entry<String, Object[]> e = it.next();
+                String key = e.getKey();
+                Object[] array = e.getValue();
+                keys++;
+                if(array.length > 1) {
+                    multimappedKeys++;
+                    multimappedValues += array.length;
+                }
+
+                strings++;
+                boolean repeated = !contents.add(key);
+                if(heap && counted.add(key)) {
+                    long size = VDFMemoryLayout.stringBytes(key);
+                    own += size;
+                    if(repeated)
+                        duplicateStringBytes += size;
+                }
+
+                for(int i = 0; i < array.length; i++) {
+                    Object value = array[i];
+                    if(value instanceof VDFNode) {
+                        children.add(new Frame(frame.path.child(key, i), (VDFNode) value, index, heap));
+                        continue;
+                    }
+
+                    values++;
+                    if(value instanceof CharSequence) {
+                        strings++;
+                        // Slices are copied rather than turned into strings, which they would keep
+                        repeated = !contents.add(value instanceof String ? (String) value
+                                : new StringBuilder((CharSequence) value).toString());
+                    } else {
+                        repeated = false;
+                    }
+                    if(!heap || !counted.add(value))
+                        continue;
+
+                    long size;
+                    if(value instanceof String) {
+                        size = VDFMemoryLayout.stringBytes((String) value);
+                    } else {
+                        size = VDFMemoryLayout.valueBytes(value);
+                        if(value instanceof VDFSlice && counted.add(((VDFSlice) value).source()))
+                            own += VDFMemoryLayout.arrayBytes(((VDFSlice) value).source().length, 2);
+                    }
+                    own += size;
+                    if(repeated)
+                        duplicateStringBytes += size;
+                }
+            }
+            bytes[index] = own;
+
+            for(int i = children.size() - 1; i >= 0; i--)
+                pending.push(children.get(i));
+        }
+
+        // Children come after their parents, so walking backwards adds every subtree to its parent once it is complete
+        for(int i = paths.size() - 1; i > 0; i--)
+            bytes[parents[i]] += bytes[i];
+
+        Map<VDFPath, Long> subtreeBytes = new LinkedHashMap<>();
+        for(int i = 0; i < paths.size(); i++)
+            subtreeBytes.put(paths.get(i), bytes[i]);
+
+        int maxDepth = depths.length - 1;
+        while(depths[maxDepth] == 0)
+            maxDepth--;
+        return new VDFStats(paths.size() - 1, values, keys, multimappedKeys, multimappedValues,
+                Arrays.copyOf(depths, maxDepth + 1), strings, contents.size(), duplicateStringBytes,
+                Collections.unmodifiableMap(subtreeBytes));
+    }
+
+    /**
+     * Returns the number of subnodes in the tree, not counting the root node.
+     * @return the number of subnodes
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of values in the tree that are not subnodes.
+     * @return the number of leaf values
+     */
+    public long getValues() {
+        return values;
+    }
+
+    /**
+     * Returns the number of keys in the tree, counting each key once per node no matter how many values it has.
+     * @return the number of keys
+     */
+    public long getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns the number of keys that have more than one value.
+     * @return the number of multimapped keys
+     */
+    public long getMultimappedKeys() {
+        return multimappedKeys;
+    }
+
+    /**
+     * Returns the number of values, subnodes included, that belong to a multimapped key.
+     * @return the number of multimapped values
+     */
+    public long getMultimappedValues() {
+        return multimappedValues;
+    }
+
+    /**
+     * Returns the deepest nesting level of the subnodes.
+     * @return the maximum depth, or 0 if the root node has no subnodes
+     */
+    public int getMaxDepth() {
+        return depths.length - 1;
+    }
+
+    /**
+     * Returns the number of nodes at each depth.
+     * @return the node counts, indexed by depth; the first element counts the root node
+     */
+    public long[] getDepthHistogram() {
+        return depths.clone();
+    }
+
+    /**
+     * Returns the number of keys and string values in the tree.
+     * @return the number of strings
+     */
+    public long getStrings() {
+        return strings;
+    }
+
+    /**
+     * Returns the number of different keys and string values in the tree.
+     * @return the number of distinct strings
+     */
+    public long getDistinctStrings() {
+        return distinctStrings;
+    }
+
+    /**
+     * Returns the share of keys and string values that repeat an earlier one.
+     * @return the ratio of repeated strings, from 0 to 1
+     */
+    public double getDuplicateStringRatio() {
+        return strings == 0 ? 0 : (double) (strings - distinctStrings) / strings;
+    }
+
+    /**
+     * Returns an estimate of the heap memory taken by strings whose characters another string of the tree already
+     * has, which is what {@link VDFInterner} would save on strings.
+     * @return the estimated number of bytes
+     */
+    public long getDuplicateStringBytes() {
+        return duplicateStringBytes;
+    }
+
+    /**
+     * Returns an estimate of the heap memory retained by the whole tree.
+     * @return the estimated number of bytes
+     */
+    public long getRetainedBytes() {
+        return subtreeBytes.get(VDFPath.ROOT);
+    }
+
+    /**
+     * Returns an estimate of the heap memory retained by every subtree, the root included as {@link VDFPath#ROOT}.
+     * @return the estimated number of bytes of each subtree, by path in document order
+     */
+    public Map<VDFPath, Long> getSubtreeBytes() {
+        return subtreeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return nodes + " nodes, " + values + " values, depth " + getMaxDepth() + ", " + multimappedKeys
+                + " multimapped keys, " + distinctStrings + " of " + strings + " strings distinct, about "
+                + getRetainedBytes() + " bytes";
+    }
+
+}
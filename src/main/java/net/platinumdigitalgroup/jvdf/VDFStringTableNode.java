@@ -0,0 +1,425 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A read-only node of string values kept in an open-addressing hash table, for huge flat blocks such as the
+ * <code>lang/Tokens</code> block of a localization file.  Entries are stored in parallel arrays rather than as a
+ * TreeMap entry and a value array each, and keys are found by their hash rather than by a tree search.  The parser
+ * builds these nodes for a designated path (see {@link VDFParser#setStringTable(String, boolean)}).
+ * <p>
+ * Keys may be matched case-insensitively, like the engine does.  Keys are iterated in sorted order, and
+ * {@link #withPrefix(String)} iterates every key that starts with a prefix.
+ * @author Brendan Heinonen
+ */
+public final class VDFStringTableNode extends VDFReadOnlyNode {
+
+    private static final int NONE = -1;
+
+    private final boolean ignoreCase;
+
+    /**
+     * The key and value of every entry, in document order.  A multimapped key has one entry per value.
+     */
+    private String[] keys;
+    private String[] strings;
+
+    /**
+     * The next entry of the same key, or NONE.
+     */
+    private int[] next;
+
+    /**
+     * Conditionals indexed like entries, or null if no value is conditional.
+     */
+    private VDFCondition[] conditions;
+
+    private int count = 0;
+
+    /**
+     * Slots of the hash table, holding the first entry of a key plus one, or 0 if the slot is free.
+     */
+    private int[] table;
+
+    /**
+     * The hash of the key in each slot, compared before the keys themselves.
+     */
+    private int[] hashes;
+
+    /**
+     * The last entry of the key in each slot, so that values are appended without walking the chain.
+     */
+    private int[] tails;
+
+    private int distinct = 0;
+
+    /**
+     * The first entry of every key in key order, or null if it has not been sorted yet.
+     */
+    private volatile int[] order;
+
+    VDFStringTableNode(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.keys = new String[16];
+        this.strings = new String[16];
+        this.next = new int[16];
+        this.table = new int[32];
+        this.hashes = new int[32];
+        this.tails = new int[32];
+    }
+
+    /**
+     * Returns whether keys are matched regardless of case.
+     * @return if keys are case-insensitive
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Appends a value to a key while the table is being parsed.
+     * @return the index of the value within the key's values
+     */
+    int add(String key, String value) {
+        if(count == keys.length) {
+            int capacity = count * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+            next = Arrays.copyOf(next, capacity);
+            if(conditions != null)
+                conditions = Arrays.copyOf(conditions, capacity);
+        }
+
+        int entry = count++;
+        keys[entry] = key;
+        strings[entry] = value;
+        next[entry] = NONE;
+        order = null;
+
+        int hash = hash(key);
+        int slot = slot(key, hash);
+        if(table[slot] != 0) {
+            int index = 1;
+            for(int e = table[slot] - 1; e != tails[slot]; e = next[e])
+                index++;
+            next[tails[slot]] = entry;
+            tails[slot] = entry;
+            return index;
+        }
+
+        table[slot] = entry + 1;
+        hashes[slot] = hash;
+        tails[slot] = entry;
+        if(++distinct * 2 > table.length)
+            rehash(table.length * 2);
+        return 0;
+    }
+
+    /**
+     * Guards a value with a conditional while the table is being parsed.
+     */
+    void condition(String key, int index, VDFCondition condition) {
+        int entry = entry(key, index);
+        if(entry == NONE)
+            return;
+        if(conditions == null)
+            conditions = new VDFCondition[keys.length];
+        conditions[entry] = condition;
+    }
+
+    /**
+     * Releases the unused capacity once the table has been parsed.
+     */
+    void trim() {
+        keys = Arrays.copyOf(keys, count);
+        strings = Arrays.copyOf(strings, count);
+        next = Arrays.copyOf(next, count);
+        if(conditions != null)
+            conditions = Arrays.copyOf(conditions, count);
+        tails = null;
+    }
+
+    /**
+     * Estimates the size of this node and its arrays, but neither the keys nor the values.
+     * @return the estimated number of bytes
+     */
+    long levelBytes() {
+        // Node: header, the fields of VDFNode and its own eight references, two counts and the case flag
+        long bytes = VDFMemoryLayout.align(VDFMemoryLayout.HEADER + 16 * VDFMemoryLayout.REFERENCE + 4 * 4 + 1);
+        bytes += 2 * VDFMemoryLayout.arrayBytes(keys.length, VDFMemoryLayout.REFERENCE);
+        bytes += VDFMemoryLayout.arrayBytes(next.length, 4);
+        bytes += 2 * VDFMemoryLayout.arrayBytes(table.length, 4);
+        if(conditions != null)
+            bytes += VDFMemoryLayout.arrayBytes(conditions.length, VDFMemoryLayout.REFERENCE);
+        if(tails != null)
+            bytes += VDFMemoryLayout.arrayBytes(tails.length, 4);
+        int[] sorted = order;
+        if(sorted != null)
+            bytes += VDFMemoryLayout.arrayBytes(sorted.length, 4);
+        return bytes;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldTable = table;
+        int[] oldHashes = hashes;
+        int[] oldTails = tails;
+        table = new int[capacity];
+        hashes = new int[capacity];
+        tails = new int[capacity];
+        for(int i = 0; i < oldTable.length; i++) {
+            if(oldTable[i] == 0)
+                continue;
+            int slot = oldHashes[i] & capacity - 1;
+            while(table[slot] != 0)
+                slot = slot + 1 & capacity - 1;
+            table[slot] = oldTable[i];
+            hashes[slot] = oldHashes[i];
+            tails[slot] = oldTails[i];
+        }
+    }
+
+    /**
+     * Finds the slot of a key: the slot holding it, or the free slot where it belongs.
+     */
+    private int slot(String key, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for(int entry; (entry = table[slot]) != 0; slot = slot + 1 & mask) {
+            if(hashes[slot] == hash && sameKey(keys[entry - 1], key))
+                return slot;
+        }
+        return slot;
+    }
+
+    private int first(String key) {
+        int entry = table[slot(key, hash(key))];
+        return entry != 0 ? entry - 1 : NONE;
+    }
+
+    private int entry(String key, int index) {
+        int entry = first(key);
+        for(int i = 0; i < index && entry != NONE; i++)
+            entry = next[entry];
+        return entry;
+    }
+
+    private int hash(String key) {
+        int h;
+        if(ignoreCase) {
+            h = 0;
+            for(int i = 0, length = key.length(); i < length; i++) {
+                char c = key.charAt(i);
+                if(c < 0x80)
+                    h = 31 * h + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+                else
+                    h = 31 * h + Character.toLowerCase(Character.toUpperCase(c));
+            }
+        } else {
+            h = key.hashCode();
+        }
+        h *= 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    private boolean sameKey(String a, String b) {
+        return ignoreCase ? a.equalsIgnoreCase(b) : a.equals(b);
+    }
+
+    private Object[] valuesFrom(int entry) {
+        int length = 0;
+        for(int e = entry; e != NONE; e = next[e])
+            length++;
+
+        Object[] values = new Object[length];
+        for(int i = 0, e = entry; e != NONE; e = next[e])
+            values[i++] = strings[e];
+        return values;
+    }
+
+    @Override
+    Object[] lookup(String key) {
+        int entry = first(key);
+        return entry != NONE ? valuesFrom(entry) : null;
+    }
+
+    /**
+     * Values are collected into a new array on every lookup, so they can be handed out without copying them.
+     */
+    @Override
+    public Object[] get(Object key) {
+        return key instanceof String ? lookup((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && first((String) key) != NONE;
+    }
+
+    @Override
+    public int values(String key) {
+        int length = 0;
+        for(int e = first(key); e != NONE; e = next[e])
+            length++;
+        return length;
+    }
+
+    @Override
+    public String getString(String key, int index) {
+        int first = first(key);
+        if(first == NONE)
+            return null;
+        int entry = entry(key, index);
+        if(entry == NONE)
+            throw new ArrayIndexOutOfBoundsException(index);
+        return strings[entry];
+    }
+
+    @Override
+    public VDFNode getSubNode(String key, int index) {
+        if(first(key) == NONE)
+            throw new NullPointerException("Key " + key + " does not exist in this node");
+        throw new ClassCastException("Value " + index + " of key " + key + " is not a subnode");
+    }
+
+    @Override
+    public int size() {
+        return distinct;
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return ignoreCase ? String.CASE_INSENSITIVE_ORDER : null;
+    }
+
+    @Override
+    boolean hasConditions() {
+        return conditions != null;
+    }
+
+    @Override
+    public VDFCondition getCondition(String key, int index) {
+        if(conditions == null)
+            return null;
+        int entry = entry(key, index);
+        return entry != NONE ? conditions[entry] : null;
+    }
+
+    /**
+     * Returns the first entry of every key, sorted by key.
+     */
+    private int[] order() {
+        int[] sorted = order;
+        if(sorted != null)
+            return sorted;
+
+        Integer[] firsts = new Integer[distinct];
+        for(int i = 0, j = 0; i < table.length; i++) {
+            if(table[i] != 0)
+                firsts[j++] = table[i] - 1;
+        }
+        Comparator<String> byKey = ignoreCase ? String.CASE_INSENSITIVE_ORDER : Comparator.naturalOrder();
+        Arrays.sort(firsts, (a, b) -> byKey.compare(keys[a], keys[b]));
+
+        sorted = new int[distinct];
+        for(int i = 0; i < distinct; i++)
+            sorted[i] = firsts[i];
+        order = sorted;
+        return sorted;
+    }
+
+    @Override
+    Iterator<Map.Entry<String, Object[]>> rawEntries() {
+        int[] sorted = order();
+        return new Iterator<Map.Entry<String, Object[]>>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < sorted.length;
+            }
+
+            @Override
+            public Map.Entry<String, Object[]> next() {
+                if(index >= sorted.length)
+                    throw new NoSuchElementException();
+                int entry = sorted[index++];
+                return new AbstractMap.SimpleImmutableEntry<>(keys[entry], valuesFrom(entry));
+            }
+        };
+    }
+
+    /**
+     * Iterates the keys that start with a prefix, in key order, e.g. every <code>"DOTA_Tooltip_"</code> token.  Each
+     * value of a multimapped key is a separate entry.  With case-insensitive keys, the prefix is matched regardless of
+     * case as well.
+     * @param prefix the prefix of the keys
+     * @return a stream of the keys and values whose key starts with the prefix
+     */
+    public Stream<Map.Entry<String, String>> withPrefix(String prefix) {
+        int[] sorted = order();
+        Comparator<String> byKey = ignoreCase ? String.CASE_INSENSITIVE_ORDER : Comparator.naturalOrder();
+
+        // Every key that starts with the prefix sorts at or after it, so the matches start at the insertion point
+        int low = 0;
+        int high = sorted.length;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(byKey.compare(keys[sorted[middle]], prefix) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        int start = low;
+
+        Spliterator<Map.Entry<String, String>> spliterator =
+                new Spliterators.AbstractSpliterator<Map.Entry<String, String>>(Long.MAX_VALUE,
+                        Spliterator.ORDERED | Spliterator.NONNULL) {
+            private int index = start;
+            private int entry = NONE;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Map.Entry<String, String>> action) {
+                if(entry == NONE) {
+                    if(index >= sorted.length)
+                        return false;
+                    String key = keys[sorted[index]];
+                    if(!key.regionMatches(ignoreCase, 0, prefix, 0, prefix.length()))
+                        return false;
+                    entry = sorted[index++];
+                }
+
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(keys[entry], strings[entry]));
+                entry = next[entry];
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false);
+    }
+
+}
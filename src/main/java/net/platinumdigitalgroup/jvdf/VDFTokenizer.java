@@ -0,0 +1,970 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tokenizes an encoded VDF document in a single pass, straight into a {@link VDFParserState}.  The tokenizer applies
+ * the rules of {@link VDFPreprocessor} as it goes (comments, whitespace runs and line breaks), so documents do not
+ * have to be decoded into a String, split into lines and preprocessed first.  Structural characters of VDF are all
+ * ASCII, so the document is scanned in its own encoding, and only the characters of keys and values are decoded.
+ * @author Brendan Heinonen
+ */
+abstract class VDFTokenizer {
+
+    private static final int NEWLINE = '\n';
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * The number of lines seen by the current call to {@link #tokenize(VDFParserState)}.
+     */
+    private long lines;
+
+    /**
+     * Returns the number of code units in the document, or of the part of it that is available so far.
+     */
+    abstract int length();
+
+    /**
+     * Waits until more of the document is available.  Documents that are read from a stream are made available a line
+     * at a time, so everything up to the end of the line of an available code unit is available too.
+     * @return the new length, which is the old length at the end of the document
+     * @throws UncheckedIOException if the stream the document is read from fails
+     */
+    int more() {
+        return length();
+    }
+
+    /**
+     * Stops reading the document, if it is read from a stream.
+     */
+    void close() {
+    }
+
+    /**
+     * Returns the code unit at an index: a byte from 0 to 255 for UTF-8, or a char for UTF-16.
+     */
+    abstract int unit(int index);
+
+    /**
+     * Decodes the character starting at an index and hands it to the parser state.
+     * @return the number of code units consumed
+     */
+    int character(int index, VDFParserState state) {
+        state.character((char) unit(index));
+        return 1;
+    }
+
+    /**
+     * Decodes the whole document, without its byte order mark.
+     */
+    abstract String decode();
+
+    /**
+     * Creates a tokenizer for an encoded document.  A byte order mark selects UTF-8, UTF-16LE or UTF-16BE and is
+     * skipped.  Without a byte order mark, a document whose first or second byte is zero is taken to be UTF-16, and
+     * anything else UTF-8.
+     * @param bytes the document, from its position to its limit
+     * @return a tokenizer for the document
+     */
+    static VDFTokenizer of(ByteBuffer bytes) {
+        ByteBuffer in = bytes.slice();
+        switch(encoding(in, in.limit())) {
+            case UTF8_BOM:
+                return new Utf8(in, 3);
+            case UTF16LE_BOM:
+                return new Utf16(in, 2, ByteOrder.LITTLE_ENDIAN);
+            case UTF16BE_BOM:
+                return new Utf16(in, 2, ByteOrder.BIG_ENDIAN);
+            case UTF16LE:
+                return new Utf16(in, 0, ByteOrder.LITTLE_ENDIAN);
+            case UTF16BE:
+                return new Utf16(in, 0, ByteOrder.BIG_ENDIAN);
+            default:
+                return new Utf8(in, 0);
+        }
+    }
+
+    private static final int UTF8 = 0;
+    private static final int UTF8_BOM = 1;
+    private static final int UTF16LE_BOM = 2;
+    private static final int UTF16BE_BOM = 3;
+    private static final int UTF16LE = 4;
+    private static final int UTF16BE = 5;
+
+    /**
+     * Detects the encoding of a document from its first bytes.
+     */
+    private static int encoding(ByteBuffer in, int length) {
+        int b0 = length > 0 ? in.get(0) & 0xFF : -1;
+        int b1 = length > 1 ? in.get(1) & 0xFF : -1;
+
+        if(b0 == 0xEF && b1 == 0xBB && length > 2 && (in.get(2) & 0xFF) == 0xBF)
+            return UTF8_BOM;
+        if(b0 == 0xFF && b1 == 0xFE)
+            return UTF16LE_BOM;
+        if(b0 == 0xFE && b1 == 0xFF)
+            return UTF16BE_BOM;
+        if(b0 > 0 && b1 == 0)
+            return UTF16LE;
+        if(b0 == 0 && b1 > 0)
+            return UTF16BE;
+        return UTF8;
+    }
+
+    /**
+     * Creates a tokenizer for a document that is read from a stream while it is tokenized.  The encoding is detected
+     * as in {@link #of(ByteBuffer)}.  UTF-8 documents are tokenized as they arrive; UTF-16 documents are read to the
+     * end first.
+     * @param in the stream to read the document from
+     * @param closeable closed once the stream has been read, or null
+     * @param executor the executor to read the stream on while the calling thread tokenizes, or null to read it on
+     *                 the calling thread whenever the tokenizer runs out of data
+     * @return a tokenizer for the document, which must be {@link #close() closed}
+     * @throws IOException if the start of the stream cannot be read
+     */
+    static VDFTokenizer of(InputStream in, Closeable closeable, Executor executor) throws IOException {
+        Pump pump;
+        try {
+            pump = new Pump(in, closeable);
+        } catch(IOException | RuntimeException e) {
+            if(closeable != null)
+                closeable.close();
+            throw e;
+        }
+
+        try {
+            // The encoding is detected from the first bytes, before anything runs in the background
+            while(pump.filled < 3 && pump.read())
+                ;
+            if(pump.error != null)
+                throw pump.error;
+
+            int encoding = encoding(ByteBuffer.wrap(pump.data, 0, pump.filled), pump.filled);
+            if(encoding != UTF8 && encoding != UTF8_BOM) {
+                while(pump.read())
+                    ;
+                if(pump.error != null)
+                    throw pump.error;
+                pump.close();
+                return of(ByteBuffer.wrap(pump.data, 0, pump.filled));
+            }
+
+            // Taken before the pump starts, which may replace the array; the tokenizer picks up the new one
+            byte[] array = pump.data;
+            boolean background = false;
+            if(executor != null && !pump.done) {
+                try {
+                    executor.execute(pump);
+                    background = true;
+                } catch(RejectedExecutionException e) {
+                    // Read on the calling thread instead
+                }
+            }
+            return new Streamed(pump, array, encoding == UTF8_BOM ? 3 : 0, background);
+        } catch(IOException | RuntimeException e) {
+            pump.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tokenizes the whole document.  Values that the state asks to skip (see {@link VDFParserState#skipPending()})
+     * are skipped with {@link #skipValue(int)}.
+     * @param state the state to feed the tokens to
+     * @return the number of lines in the document
+     */
+    long tokenize(VDFParserState state) {
+        int length = length();
+        lines = 1;
+
+        // Per-line state, as kept by the preprocessor
+        boolean hitWord = false;
+        boolean openQuotes = false;
+        boolean pendingSpace = false;
+        int previous = -1;
+
+        int i = 0;
+        while(i < length || i < (length = more())) {
+            int c = unit(i);
+            int skipFrom = -1;
+
+            if(c == NEWLINE) {
+                lines++;
+                i++;
+
+                // Lines are joined by a space; whitespace at the end of a line is dropped
+                if(hitWord) {
+                    state.space();
+                    if(state.skipPending())
+                        skipFrom = i;
+                }
+                if(skipFrom < 0) {
+                    hitWord = false;
+                    openQuotes = false;
+                    pendingSpace = false;
+                    previous = -1;
+                    continue;
+                }
+            } else if(c == '\r') {
+                previous = c;
+                i++;
+                continue;
+            } else {
+                if(c == '"' && previous != '\\')
+                    openQuotes = !openQuotes;
+
+                // Comments take up the rest of the line
+                if(!openQuotes && isComment(i)) {
+                    while(i < length && unit(i) != NEWLINE)
+                        i++;
+                    continue;
+                }
+
+                // Runs of whitespace become a single space, and whitespace at the start of a line is dropped
+                if(isWhitespace(c)) {
+                    if(hitWord)
+                        pendingSpace = true;
+                    previous = c;
+                    i++;
+                    continue;
+                }
+
+                if(pendingSpace) {
+                    state.space();
+                    pendingSpace = false;
+                    if(state.skipPending())
+                        skipFrom = i;
+                }
+            }
+
+            if(skipFrom < 0) {
+                hitWord = true;
+                previous = c;
+
+                switch(c) {
+                    case '"':
+                        state.quote();
+                        break;
+                    case '\\':
+                        state.escape();
+                        break;
+                    case '{':
+                        state.beginSubNode();
+                        break;
+                    case '}':
+                        state.endSubNode();
+                        break;
+                    case '[':
+                        state.beginCondition();
+                        break;
+                    case ']':
+                        state.endCondition();
+                        break;
+                    default:
+                        i += character(i, state);
+                        continue;
+                }
+                i++;
+
+                // A conditional can end a key, in which case the conditional is skipped along with the value
+                if(state.skipPending())
+                    skipFrom = c == '[' ? i - 1 : i;
+            }
+
+            if(skipFrom >= 0) {
+                i = skipValue(skipFrom);
+                state.skipped();
+                hitWord = true;
+                openQuotes = false;
+                pendingSpace = false;
+                previous = -1;
+                length = length();
+            }
+        }
+
+        if(length == 0)
+            lines = 0;
+        return lines;
+    }
+
+    /**
+     * Skips the value of a key: the whitespace, comments and conditionals before it, and then a quoted string, an
+     * unquoted token or a whole subnode.  Braces are matched while quotes, escapes, comments and conditionals are
+     * respected, and nothing is decoded.
+     * @param i the index after the key
+     * @return the index after the value
+     */
+    int skipValue(int i) {
+        int length = length();
+
+        while(i < length || i < (length = more())) {
+            int c = unit(i);
+            if(c == NEWLINE) {
+                lines++;
+                i++;
+            } else if(c == '\r' || isWhitespace(c)) {
+                i++;
+            } else if(isComment(i)) {
+                i = endOfLine(i);
+            } else if(c == '[') {
+                i = endOfCondition(i);
+            } else {
+                break;
+            }
+        }
+        if(i >= length)
+            return i;
+
+        int c = unit(i);
+        if(c == '"') {
+            // A quoted string ends at the next quote that is not escaped
+            for(i++; i < length || i < (length = more()); i++) {
+                c = unit(i);
+                if(c == '\\')
+                    i++;
+                else if(c == '"')
+                    return i + 1;
+                else if(c == NEWLINE)
+                    lines++;
+            }
+            return length;
+        }
+
+        if(c == '{') {
+            int depth = 0;
+            boolean quoted = false;
+            while(i < length || i < (length = more())) {
+                c = unit(i);
+                if(c == '\\') {
+                    i += 2;
+                    continue;
+                }
+                if(c == NEWLINE)
+                    lines++;
+
+                if(quoted) {
+                    if(c == '"')
+                        quoted = false;
+                } else if(c == '"') {
+                    quoted = true;
+                } else if(c == '{') {
+                    depth++;
+                } else if(c == '}') {
+                    if(--depth == 0)
+                        return i + 1;
+                } else if(c == '[') {
+                    i = endOfCondition(i);
+                    continue;
+                } else if(isComment(i)) {
+                    i = endOfLine(i);
+                    continue;
+                }
+                i++;
+            }
+            return length;
+        }
+
+        // An unquoted token ends at whitespace or the next control character, which belongs to what follows
+        while(i < length || i < (length = more())) {
+            c = unit(i);
+            if(c == '\\') {
+                i += 2;
+                continue;
+            }
+            if(c == NEWLINE || c == '\r' || isWhitespace(c) || c == '"' || c == '{' || c == '}' || c == '['
+                    || c == ']' || isComment(i))
+                break;
+            i++;
+        }
+        return Math.min(i, length);
+    }
+
+    private boolean isComment(int i) {
+        if(unit(i) != '/' || i + 1 >= length())
+            return false;
+        int n = unit(i + 1);
+        return n == '/' || n == '*';
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == 0x0B;
+    }
+
+    private int endOfLine(int i) {
+        int length = length();
+        while((i < length || i < (length = more())) && unit(i) != NEWLINE)
+            i++;
+        return i;
+    }
+
+    /**
+     * Returns the index after the conditional starting at an index.  Conditionals do not nest.
+     */
+    private int endOfCondition(int i) {
+        int length = length();
+        while((i < length || i < (length = more())) && unit(i) != ']')
+            i++;
+        return Math.min(i + 1, length);
+    }
+
+    /**
+     * Returns whether a code unit has to go through the tokenizer loop: control characters of VDF, whitespace, line
+     * breaks, the start of a comment, and anything that is not ASCII.  Every other character is appended to the
+     * current token as it is.
+     */
+    private static boolean isSpecial(int c) {
+        return c <= ' ' || c == '"' || c == '/' || c == '[' || c == '\\' || c == ']' || c == '{' || c == '}'
+                || c >= 0x80;
+    }
+
+    /**
+     * Finds the special bytes (see {@link #isSpecial(int)}) among eight bytes of UTF-8 at once.  The high bit of a
+     * byte of the result is set for the first special byte; bytes after it may be marked falsely, because a match
+     * borrows from the next byte, so only the lowest marked byte can be relied upon.
+     * @param word eight bytes in little-endian order
+     * @return a mask whose lowest set bit marks the first special byte, or 0 if there is none
+     */
+    static long special(long word) {
+        return (below(word, ' ' + 1)
+                | zero(word ^ ONES * '"')
+                | zero(word ^ ONES * '/')
+                | zero(word ^ ONES * '[')
+                | zero(word ^ ONES * '\\')
+                | zero(word ^ ONES * ']')
+                | zero(word ^ ONES * '{')
+                | zero(word ^ ONES * '}')
+                | word) & HIGH_BITS;
+    }
+
+    /**
+     * Marks the bytes that are zero, along with false positives above the lowest one.
+     */
+    private static long zero(long word) {
+        return (word - ONES) & ~word;
+    }
+
+    /**
+     * Marks the bytes that are below a bound of at most 0x80, along with false positives above the lowest one.
+     */
+    private static long below(long word, int bound) {
+        return (word - ONES * bound) & ~word;
+    }
+
+    private static String decode(ByteBuffer bytes, int start, Charset charset) {
+        ByteBuffer in = bytes.duplicate();
+        ((Buffer) in).position(start);
+        return charset.decode(in).toString();
+    }
+
+    /**
+     * Creates a tokenizer for a decoded document.
+     * @param chars the characters of the document
+     * @return a tokenizer for the document
+     */
+    static VDFTokenizer of(char[] chars) {
+        return new Chars(chars);
+    }
+
+    /**
+     * Documents that have already been decoded.
+     */
+    private static final class Chars extends VDFTokenizer {
+
+        private final char[] chars;
+
+        Chars(char[] chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        int length() {
+            return chars.length;
+        }
+
+        @Override
+        int unit(int index) {
+            return chars[index];
+        }
+
+        @Override
+        String decode() {
+            return new String(chars);
+        }
+
+    }
+
+    /**
+     * Decoded documents of any kind, read through charAt so that they are not copied.  The tokenizer can be pointed at
+     * another document, so that one instance serves every parse of a {@link VDFParserSession}.
+     */
+    static final class Text extends VDFTokenizer {
+
+        private CharSequence text = "";
+
+        /**
+         * Points this tokenizer at another document.
+         * @param text the document, or null to drop the last one
+         */
+        void reset(CharSequence text) {
+            this.text = text != null ? text : "";
+        }
+
+        @Override
+        int length() {
+            return text.length();
+        }
+
+        @Override
+        int unit(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        String decode() {
+            return text.toString();
+        }
+
+    }
+
+    /**
+     * UTF-8 documents.  Multi-byte sequences only occur inside keys and values, where they are decoded one character
+     * at a time.  Malformed sequences decode to U+FFFD.
+     */
+    private static class Utf8 extends VDFTokenizer {
+
+        ByteBuffer bytes;
+
+        /**
+         * The same bytes, read eight at a time in little-endian order so that the first byte is the lowest.
+         */
+        ByteBuffer words;
+
+        /**
+         * The index of the first byte of the document, which is negative once a stream has discarded the bytes it
+         * started with.
+         */
+        int start;
+
+        /**
+         * The index after the last byte of the document that is available.
+         */
+        int limit;
+
+        Utf8(ByteBuffer bytes, int start) {
+            this.bytes = bytes;
+            this.words = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.start = start;
+            this.limit = bytes.limit();
+        }
+
+        @Override
+        int length() {
+            return limit - start;
+        }
+
+        @Override
+        int unit(int index) {
+            return bytes.get(start + index) & 0xFF;
+        }
+
+        @Override
+        int character(int index, VDFParserState state) {
+            int b = unit(index);
+            if(b < 0x80) {
+                // Characters that need no handling usually come in runs, which are found eight bytes at a time
+                int end = ordinaryEnd(index + 1);
+                state.ascii(bytes, start + index, start + end);
+                return end - index;
+            }
+
+            int count;
+            int codePoint;
+            if(b >= 0xC2 && b <= 0xDF) {
+                count = 2;
+                codePoint = b & 0x1F;
+            } else if(b >= 0xE0 && b <= 0xEF) {
+                count = 3;
+                codePoint = b & 0x0F;
+            } else if(b >= 0xF0 && b <= 0xF4) {
+                count = 4;
+                codePoint = b & 0x07;
+            } else {
+                state.character('\uFFFD');
+                return 1;
+            }
+
+            if(index + count > length()) {
+                state.character('\uFFFD');
+                return 1;
+            }
+            for(int i = 1; i < count; i++) {
+                int continuation = unit(index + i);
+                if((continuation & 0xC0) != 0x80) {
+                    state.character('\uFFFD');
+                    return 1;
+                }
+                codePoint = codePoint << 6 | continuation & 0x3F;
+            }
+
+            if(codePoint < (count == 3 ? 0x800 : 0x10000) && count > 2
+                    || codePoint > Character.MAX_CODE_POINT
+                    || codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+                state.character('\uFFFD');
+                return 1;
+            }
+
+            if(Character.isBmpCodePoint(codePoint)) {
+                state.character((char) codePoint);
+            } else {
+                state.character(Character.highSurrogate(codePoint));
+                state.character(Character.lowSurrogate(codePoint));
+            }
+            return count;
+        }
+
+        /**
+         * Returns the index of the first special byte (see {@link #isSpecial(int)}) at or after an index.
+         */
+        private int ordinaryEnd(int i) {
+            int length = length();
+            while(i + 8 <= length) {
+                long mask = special(words.getLong(start + i));
+                if(mask != 0)
+                    return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+                i += 8;
+            }
+            while(i < length && !isSpecial(unit(i)))
+                i++;
+            return i;
+        }
+
+        @Override
+        String decode() {
+            return VDFTokenizer.decode(bytes, start, StandardCharsets.UTF_8);
+        }
+
+    }
+
+    /**
+     * UTF-8 documents that are tokenized while they are read from a stream.  The tokenizer is only given whole lines,
+     * so that looking ahead within a line never runs out of data.  It only asks for more once it has consumed every
+     * line it was given, so the pump may then discard them; indices keep counting from the start of the document,
+     * and {@link #start} moves back by the number of discarded bytes.
+     */
+    private static final class Streamed extends Utf8 {
+
+        private final Pump pump;
+
+        private final boolean background;
+
+        private byte[] array;
+
+        /**
+         * The number of discarded bytes already accounted for in start and limit.
+         */
+        private long discarded;
+
+        Streamed(Pump pump, byte[] array, int start, boolean background) {
+            super(ByteBuffer.wrap(array), start);
+            this.pump = pump;
+            this.background = background;
+            this.array = array;
+            this.limit = start;
+        }
+
+        @Override
+        int more() {
+            synchronized(pump) {
+                // Everything before the limit has been consumed; the pump counts it in its current array, which
+                // it may replace while it is waited for
+                while(pump.consumed(limit - (int) (pump.discarded - discarded)) && !pump.done) {
+                    if(background)
+                        pump.await();
+                    else
+                        pump.read();
+                }
+                if(pump.error != null)
+                    throw new UncheckedIOException(pump.error);
+
+                if(pump.data != array) {
+                    int shift = (int) (pump.discarded - discarded);
+                    discarded = pump.discarded;
+                    start -= shift;
+                    limit -= shift;
+                    array = pump.data;
+                    bytes = ByteBuffer.wrap(array);
+                    words = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                }
+                limit = Math.max(limit, pump.published);
+            }
+            return length();
+        }
+
+        @Override
+        void close() {
+            synchronized(pump) {
+                pump.cancelled = true;
+                pump.notifyAll();
+            }
+            if(!background)
+                pump.close();
+        }
+
+        @Override
+        String decode() {
+            synchronized(pump) {
+                // Nothing is consumed while the whole document is read, so the pump must neither wait nor compact
+                pump.whole = true;
+                pump.notifyAll();
+                while(!pump.done) {
+                    if(background)
+                        pump.await();
+                    else
+                        pump.read();
+                }
+                if(pump.error != null)
+                    throw new UncheckedIOException(pump.error);
+                return new String(pump.data, start, pump.filled - start, StandardCharsets.UTF_8);
+            }
+        }
+
+    }
+
+    /**
+     * Reads a stream into an array, on a thread of its own or whenever the tokenizer asks for more.  The array is only
+     * written past the published bytes, so the tokenizer can read published bytes without holding the lock.  When the
+     * array is full, the bytes the tokenizer has consumed are dropped by copying the rest into a new array, which the
+     * tokenizer picks up the next time it asks for more; the array only grows for lines longer than half of it.  A
+     * pump on its own thread stays at most half an array ahead of the tokenizer, so a document of any size is read in
+     * a window of constant size.
+     */
+    private static final class Pump implements Runnable {
+
+        private static final int CHUNK = 1 << 16;
+
+        private static final int WINDOW = 1 << 21;
+
+        private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+        private final InputStream in;
+
+        private final Closeable closeable;
+
+        /**
+         * The bytes read so far, how many of them there are, and how many of them end with a whole line, guarded by
+         * this pump.
+         */
+        private byte[] data;
+        private int filled;
+        private int published;
+
+        /**
+         * The index before which the tokenizer no longer reads, and the number of bytes dropped from the front of the
+         * array so far, guarded by this pump.
+         */
+        private int consumed;
+        private long discarded;
+
+        private boolean done;
+
+        /**
+         * Whether the whole document is needed at once, which keeps the pump from waiting for the tokenizer and from
+         * dropping bytes, guarded by this pump.
+         */
+        private boolean whole;
+
+        private IOException error;
+
+        private volatile boolean cancelled;
+
+        private boolean closed;
+
+        Pump(InputStream in, Closeable closeable) throws IOException {
+            this.in = in;
+            this.closeable = closeable;
+
+            // Small streams that know their size are read without growing or compacting the array
+            this.data = new byte[(int) Math.max(CHUNK, Math.min(in.available() + 1L, WINDOW))];
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(!cancelled && read()) {
+                    synchronized(this) {
+                        // Wait for the tokenizer while half of the array is waiting for it
+                        while(!cancelled && !whole && published > consumed && filled - consumed >= data.length / 2)
+                            await();
+                    }
+                }
+            } catch(UncheckedIOException e) {
+                // Interrupted, which cancelled the read
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Tells the pump that the tokenizer no longer reads before an index.  Must be called holding the lock of this
+         * pump.
+         * @return whether the tokenizer has consumed everything that is published
+         */
+        boolean consumed(int index) {
+            if(index > consumed) {
+                consumed = index;
+                notifyAll();
+            }
+            return published <= index;
+        }
+
+        /**
+         * Reads the next chunk of the stream and publishes the lines it completes.
+         * @return false at the end of the stream, or if reading failed
+         */
+        boolean read() {
+            try {
+                if(filled == data.length) {
+                    int drop;
+                    synchronized(this) {
+                        drop = whole ? 0 : consumed;
+                    }
+
+                    byte[] next;
+                    if(drop >= data.length / 2) {
+                        next = new byte[data.length];
+                        System.arraycopy(data, drop, next, 0, filled - drop);
+                    } else if(data.length == MAX_LENGTH) {
+                        throw new IOException("A line of the document is larger than 2GB.");
+                    } else {
+                        drop = 0;
+                        next = Arrays.copyOf(data, (int) Math.min((long) data.length * 2, MAX_LENGTH));
+                    }
+
+                    synchronized(this) {
+                        data = next;
+                        filled -= drop;
+                        published -= drop;
+                        consumed -= drop;
+                        discarded += drop;
+                    }
+                }
+
+                int read = in.read(data, filled, Math.min(CHUNK, data.length - filled));
+                synchronized(this) {
+                    if(read < 0) {
+                        published = filled;
+                        done = true;
+                    } else {
+                        filled += read;
+                        for(int i = filled - 1; i >= published; i--) {
+                            if(data[i] == NEWLINE) {
+                                published = i + 1;
+                                break;
+                            }
+                        }
+                    }
+                    notifyAll();
+                }
+                return read >= 0;
+            } catch(IOException | RuntimeException e) {
+                synchronized(this) {
+                    error = e instanceof IOException ? (IOException) e : new IOException(e);
+                    done = true;
+                    notifyAll();
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Waits for the background read to publish more.  Must be called holding the lock of this pump.
+         */
+        void await() {
+            try {
+                wait();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted while reading the document"));
+            }
+        }
+
+        synchronized void close() {
+            if(closed || closeable == null)
+                return;
+            closed = true;
+            try {
+                closeable.close();
+            } catch(IOException e) {
+                // Nothing was read from it after this
+            }
+        }
+
+    }
+
+    /**
+     * UTF-16 documents, read as chars straight from the buffer.  Surrogate pairs are passed through as they are.
+     */
+    private static final class Utf16 extends VDFTokenizer {
+
+        private final ByteBuffer bytes;
+
+        private final int start;
+
+        private final int length;
+
+        Utf16(ByteBuffer bytes, int start, ByteOrder order) {
+            this.bytes = bytes.duplicate().order(order);
+            this.start = start;
+            this.length = (bytes.limit() - start) / 2;
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        int unit(int index) {
+            return bytes.getChar(start + 2 * index);
+        }
+
+        @Override
+        String decode() {
+            return VDFTokenizer.decode(bytes, start,
+                    bytes.order() == ByteOrder.LITTLE_ENDIAN ? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE);
+        }
+
+    }
+
+}
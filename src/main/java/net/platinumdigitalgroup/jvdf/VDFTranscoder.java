@@ -0,0 +1,614 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Converts VDF documents to JSON and back without building a tree.  Tokens are passed straight from one format to the
+ * other, so the memory used by a conversion depends on the depth of the document and the length of its longest token,
+ * not on its size.  Documents read from a stream are read in a window of constant size.
+ * <p>
+ * VDF documents become a JSON object whose members are the keys of the root node.  Values are JSON strings, unless a
+ * schema types them (see {@link #setSchema(VDFSchema)}), in which case they become JSON numbers.  Conditionals are not
+ * carried over; to convert the values of one platform, parse the document and write a {@link VDFNode#view view}.
+ * <p>
+ * JSON documents must be an object.  Nested objects become subnodes, and the values of an array become values of a
+ * multimapped key.  Numbers keep their spelling, <code>true</code> and <code>false</code> become <code>1</code> and
+ * <code>0</code> as in the engine, and <code>null</code> becomes an empty string.  The VDF is formatted like the
+ * output of {@link VDFWriter}.
+ * @author Brendan Heinonen
+ */
+public final class VDFTranscoder {
+
+    /**
+     * How the values of a multimapped key are written to JSON.
+     */
+    public enum Multimap {
+
+        /**
+         * Every value is a member of its own, so a multimapped key is repeated within its object.  JSON allows this,
+         * but many JSON readers only keep the last member with a name.
+         */
+        REPEATED_KEYS,
+
+        /**
+         * Every key maps to an array of its values, even if it only has one.  Consecutive values of a key share one
+         * array; a key that comes back after another key starts another array, since the transcoder does not look
+         * ahead.
+         */
+        ARRAYS
+
+    }
+
+    private Multimap multimap = Multimap.REPEATED_KEYS;
+
+    private VDFSchema schema;
+
+    /**
+     * Sets how the values of multimapped keys are written to JSON.  The default is
+     * {@link Multimap#REPEATED_KEYS}.
+     * @param multimap the mapping of multimapped keys
+     * @return this transcoder
+     */
+    public VDFTranscoder setMultimap(Multimap multimap) {
+        if(multimap == null)
+            throw new IllegalArgumentException("The multimap mapping is null");
+        this.multimap = multimap;
+        return this;
+    }
+
+    /**
+     * Writes the values at the paths typed by a schema as JSON numbers.  Values that do not fit their type fail the
+     * conversion as they would fail a parse (see {@link VDFParser#setSchema(VDFSchema)}).
+     * @param schema the schema, or null to write every value as a string
+     * @return this transcoder
+     */
+    public VDFTranscoder setSchema(VDFSchema schema) {
+        this.schema = schema;
+        return this;
+    }
+
+    /**
+     * Converts a VDF document to JSON.
+     * @param vdf the VDF document
+     * @return the JSON document
+     */
+    public String toJson(String vdf) {
+        StringBuilder json = new StringBuilder(vdf.length());
+        try {
+            toJson(vdf, json);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Converts a VDF document to JSON.
+     * @param vdf the VDF document
+     * @param json where the JSON document is written
+     * @throws IOException if the JSON cannot be written
+     */
+    public void toJson(CharSequence vdf, Appendable json) throws IOException {
+        VDFTokenizer.Text tokenizer = new VDFTokenizer.Text();
+        tokenizer.reset(vdf);
+        toJson(tokenizer, json);
+    }
+
+    /**
+     * Converts an encoded VDF document to JSON while it is read from a stream.  The encoding and compression are
+     * detected as described in {@link VDFParser#parse(InputStream, VDFProjection)}.  The stream is not closed.
+     * @param vdf the stream to read the VDF document from
+     * @param json where the JSON document is written
+     * @throws IOException if the stream cannot be read or the JSON cannot be written
+     */
+    public void toJson(InputStream vdf, Appendable json) throws IOException {
+        VDFTokenizer tokenizer = VDFParser.tokenizer(vdf, null);
+        try {
+            toJson(tokenizer, json);
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    private void toJson(VDFTokenizer tokenizer, Appendable json) throws IOException {
+        JsonWriter writer = new JsonWriter(json, multimap == Multimap.ARRAYS);
+        VDFParserState state = new VDFParserState(writer);
+        state.setSchema(schema);
+        try {
+            writer.begin();
+            tokenizer.tokenize(state);
+            state.endParse();
+            writer.end();
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Converts a JSON document to VDF.
+     * @param json the JSON document
+     * @return the VDF document
+     */
+    public String toVdf(String json) {
+        StringBuilder vdf = new StringBuilder(json.length());
+        try {
+            toVdf(new StringReader(json), vdf);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return vdf.toString();
+    }
+
+    /**
+     * Converts a JSON document to VDF while it is read.  The reader is not closed.
+     * @param json the reader to read the JSON document from
+     * @param vdf where the VDF document is written
+     * @throws IOException if the JSON cannot be read or the VDF cannot be written
+     */
+    public void toVdf(Reader json, Appendable vdf) throws IOException {
+        new JsonReader(json, vdf).transcode();
+    }
+
+    /**
+     * Writes the key/value pairs of a VDF document as JSON as they are parsed.
+     */
+    private static final class JsonWriter implements VDFParserState.Sink {
+
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private final Appendable out;
+
+        private final boolean arrays;
+
+        /**
+         * Whether each open object has members yet, and the key whose array is still open in it, indexed by depth.
+         */
+        private boolean[] members = new boolean[16];
+        private String[] openArrays = new String[16];
+        private int depth = 0;
+
+        JsonWriter(Appendable out, boolean arrays) {
+            this.out = out;
+            this.arrays = arrays;
+        }
+
+        void begin() throws IOException {
+            out.append('{');
+        }
+
+        void end() throws IOException {
+            closeArray();
+            out.append('}');
+        }
+
+        @Override
+        public void value(String key, Object value) {
+            try {
+                member(key);
+                // JSON has no numbers for infinity and NaN
+                if(value instanceof Number && !(value instanceof Float && !Float.isFinite((Float) value)))
+                    out.append(value.toString());
+                else
+                    string(value.toString());
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void beginNode(String key) {
+            try {
+                member(key);
+                out.append('{');
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if(++depth == members.length) {
+                members = Arrays.copyOf(members, depth * 2);
+                openArrays = Arrays.copyOf(openArrays, depth * 2);
+            }
+            members[depth] = false;
+            openArrays[depth] = null;
+        }
+
+        @Override
+        public void endNode() {
+            try {
+                closeArray();
+                out.append('}');
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            depth--;
+        }
+
+        /**
+         * Starts the member of a key in the current object, or continues the open array of the key.
+         */
+        private void member(String key) throws IOException {
+            if(arrays) {
+                if(key.equals(openArrays[depth])) {
+                    out.append(',');
+                    return;
+                }
+                closeArray();
+            }
+
+            if(members[depth])
+                out.append(',');
+            members[depth] = true;
+            string(key);
+            out.append(':');
+
+            if(arrays) {
+                out.append('[');
+                openArrays[depth] = key;
+            }
+        }
+
+        private void closeArray() throws IOException {
+            if(openArrays[depth] != null) {
+                out.append(']');
+                openArrays[depth] = null;
+            }
+        }
+
+        /**
+         * Writes a JSON string.  Runs of characters that need no escaping are appended in one go.
+         */
+        private void string(String s) throws IOException {
+            out.append('"');
+            int run = 0;
+            for(int i = 0, length = s.length(); i < length; i++) {
+                char c = s.charAt(i);
+                if(c >= 0x20 && c != '"' && c != '\\')
+                    continue;
+
+                out.append(s, run, i);
+                run = i + 1;
+                switch(c) {
+                    case '"':
+                        out.append("\\\"");
+                        break;
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    case '\r':
+                        out.append("\\r");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    default:
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                }
+            }
+            out.append(s, run, s.length());
+            out.append('"');
+        }
+
+    }
+
+    /**
+     * Reads a JSON document and writes it as VDF as it goes.  Nesting is kept on explicit stacks, so deep documents
+     * do not recurse.
+     */
+    private static final class JsonReader {
+
+        private final Reader in;
+
+        private final Appendable out;
+
+        private final char[] buffer = new char[8192];
+        private int position = 0;
+        private int limit = 0;
+        private long line = 1;
+
+        /**
+         * The open objects and arrays.  Arrays repeat the key they are the value of, and objects other than the root
+         * remember whether anything has been written into them yet, since empty subnodes are written as {}.
+         */
+        private boolean[] isArray = new boolean[16];
+        private String[] keys = new String[16];
+        private boolean[] empty = new boolean[16];
+        private boolean[] first = new boolean[16];
+        private int depth = 0;
+
+        /**
+         * The indentation of the VDF subnode that values are currently written into.
+         */
+        private final StringBuilder indent = new StringBuilder();
+
+        private final StringBuilder token = new StringBuilder();
+
+        private final StringBuilder quoted = new StringBuilder();
+
+        JsonReader(Reader in, Appendable out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        void transcode() throws IOException {
+            if(peek() != '{')
+                throw error("A JSON document for VDF must be an object");
+            position++;
+            push(false, null);
+
+            while(depth > 0) {
+                int top = depth - 1;
+                int c = peek();
+
+                if(c == (isArray[top] ? ']' : '}')) {
+                    position++;
+                    depth--;
+                    if(!isArray[top] && depth > 0)
+                        closeObject(top);
+                    continue;
+                }
+
+                if(!first[top]) {
+                    if(c != ',')
+                        throw error("Expected ',' or '" + (isArray[top] ? ']' : '}') + "'");
+                    position++;
+                    c = peek();
+                }
+                first[top] = false;
+
+                String key;
+                if(isArray[top]) {
+                    key = keys[top];
+                } else {
+                    if(c != '"')
+                        throw error("Expected the name of a member");
+                    position++;
+                    key = string();
+                    if(peek() != ':')
+                        throw error("Expected ':'");
+                    position++;
+                    c = peek();
+                }
+
+                if(c == '{') {
+                    position++;
+                    openObject(key);
+                } else if(c == '[') {
+                    position++;
+                    push(true, key);
+                } else {
+                    leaf(key, c);
+                }
+            }
+
+            if(peek() != -1)
+                throw error("Unexpected content after the document");
+        }
+
+        private void push(boolean array, String key) {
+            if(depth == isArray.length) {
+                isArray = Arrays.copyOf(isArray, depth * 2);
+                keys = Arrays.copyOf(keys, depth * 2);
+                empty = Arrays.copyOf(empty, depth * 2);
+                first = Arrays.copyOf(first, depth * 2);
+            }
+            isArray[depth] = array;
+            keys[depth] = key;
+            empty[depth] = true;
+            first[depth] = true;
+            depth++;
+        }
+
+        /**
+         * Starts a line in the innermost object, which opens its braces onto a line of their own if it was empty.
+         */
+        private void line() throws IOException {
+            int object = depth - 1;
+            while(isArray[object])
+                object--;
+            if(object > 0 && empty[object])
+                out.append('\n');
+            empty[object] = false;
+            out.append(indent);
+        }
+
+        private void openObject(String key) throws IOException {
+            line();
+            out.append(quote(key)).append(" {");
+            push(false, key);
+            indent.append("    ");
+        }
+
+        private void closeObject(int object) throws IOException {
+            indent.setLength(indent.length() - 4);
+            if(!empty[object])
+                out.append(indent);
+            out.append("}\n");
+        }
+
+        private void leaf(String key, int c) throws IOException {
+            String value;
+            if(c == '"') {
+                position++;
+                value = string();
+            } else if(c == '-' || c >= '0' && c <= '9') {
+                value = number();
+            } else if(literal("true")) {
+                value = "1";
+            } else if(literal("false")) {
+                value = "0";
+            } else if(literal("null")) {
+                value = "";
+            } else {
+                throw error("Expected a value");
+            }
+
+            line();
+            out.append(quote(key)).append(' ').append(quote(value)).append('\n');
+        }
+
+        private CharSequence quote(String s) {
+            quoted.setLength(0);
+            VDFWriter.appendQuoted(quoted, s);
+            return quoted;
+        }
+
+        /**
+         * Reads the rest of a string whose opening quote has been consumed.
+         */
+        private String string() throws IOException {
+            token.setLength(0);
+            while(true) {
+                int c = read();
+                if(c == '"')
+                    return token.toString();
+                if(c < 0)
+                    throw error("A string was not terminated");
+                if(c < 0x20)
+                    throw error("A string contains a control character");
+                if(c != '\\') {
+                    token.append((char) c);
+                    continue;
+                }
+
+                c = read();
+                switch(c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        token.append((char) c);
+                        break;
+                    case 'b':
+                        token.append('\b');
+                        break;
+                    case 'f':
+                        token.append('\f');
+                        break;
+                    case 'n':
+                        token.append('\n');
+                        break;
+                    case 'r':
+                        token.append('\r');
+                        break;
+                    case 't':
+                        token.append('\t');
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for(int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if(digit < 0)
+                                throw error("Malformed \\u escape");
+                            code = code << 4 | digit;
+                        }
+                        token.append((char) code);
+                        break;
+                    default:
+                        throw error("Unknown escape sequence");
+                }
+            }
+        }
+
+        /**
+         * Reads a number, which keeps its spelling.
+         */
+        private String number() throws IOException {
+            token.setLength(0);
+            while(true) {
+                int c = peekRaw();
+                if(c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || c >= '0' && c <= '9') {
+                    token.append((char) c);
+                    position++;
+                } else {
+                    break;
+                }
+            }
+
+            String number = token.toString();
+            try {
+                Double.parseDouble(number);
+            } catch(NumberFormatException e) {
+                throw error("Malformed number " + number);
+            }
+            return number;
+        }
+
+        private boolean literal(String word) throws IOException {
+            for(int i = 0; i < word.length(); i++) {
+                if(peekRaw() != word.charAt(i)) {
+                    if(i > 0)
+                        throw error("Expected " + word);
+                    return false;
+                }
+                position++;
+            }
+            return true;
+        }
+
+        /**
+         * Skips whitespace and returns the next character without consuming it.
+         * @return the next character, or -1 at the end of the document
+         */
+        private int peek() throws IOException {
+            while(true) {
+                int c = peekRaw();
+                if(c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                    return c;
+                if(c == '\n')
+                    line++;
+                position++;
+            }
+        }
+
+        private int peekRaw() throws IOException {
+            if(position == limit && !fill())
+                return -1;
+            return buffer[position];
+        }
+
+        private int read() throws IOException {
+            int c = peekRaw();
+            if(c >= 0)
+                position++;
+            return c;
+        }
+
+        private boolean fill() throws IOException {
+            int read = in.read(buffer);
+            if(read <= 0)
+                return false;
+            position = 0;
+            limit = read;
+            return true;
+        }
+
+        private VDFParseException error(String message) {
+            return new VDFParseException(message + " on line " + line + " of the JSON document.");
+        }
+
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Traverses the values below a node in document order, for {@link VDFNode#walk()} and {@link VDFNode#leaves()}.
+ * <p>
+ * Pending values are kept on an explicit stack rather than the Java stack, so trees of any depth can be traversed.
+ * Splitting hands the first part of the pending values to a new spliterator, choosing the split point by the
+ * estimated size of each pending subtree, and expands the next subnode when only one value is pending.  Paths are
+ * {@link VDFPath}s, which share their parent paths, so no strings are built.
+ * @author Brendan Heinonen
+ */
+final class VDFWalker implements Spliterator<Map.Entry<VDFPath, Object>> {
+
+    /**
+     * A pending value.  Subnodes whose children have already been pushed separately are not expanded again.
+     */
+    private static final class Frame {
+
+        private final VDFPath path;
+        private final Object value;
+        private final boolean expand;
+
+        Frame(VDFPath path, Object value, boolean expand) {
+            this.path = path;
+            this.value = value;
+            this.expand = expand;
+        }
+
+        /**
+         * Estimates the number of values in the subtree of this frame from its first two levels.
+         */
+        long weight() {
+            if(!expand || !(value instanceof VDFNode))
+                return 1;
+
+            long weight = 1;
+            for(Iterator<Map.Entry<String, Object[]>> it = ((VDFNode) value).rawEntries(); it.hasNext(); ) {
+                for(Object child : it.next().getValue()) {
+                    weight++;
+                    if(child instanceof VDFNode)
+                        weight += ((VDFNode) child).size();
+                }
+            }
+            return weight;
+        }
+
+    }
+
+    /**
+     * The pending values; the first one is next in document order.
+     */
+    private final ArrayDeque<Frame> pending;
+
+    private final boolean leavesOnly;
+
+    /**
+     * The estimated number of values left, from the weights of the pending values when this spliterator was created or
+     * last split.
+     */
+    private long estimate;
+
+    private VDFWalker(ArrayDeque<Frame> pending, boolean leavesOnly, long estimate) {
+        this.pending = pending;
+        this.leavesOnly = leavesOnly;
+        this.estimate = estimate;
+    }
+
+    /**
+     * Creates a spliterator over the values below a node.
+     * @param root the node to traverse, which is not itself part of the traversal
+     * @param leavesOnly if subnodes should be traversed but not reported
+     */
+    VDFWalker(VDFNode root, boolean leavesOnly) {
+        this(new ArrayDeque<>(), leavesOnly, 0);
+        pushChildren(VDFPath.ROOT, root);
+        for(Frame frame : pending)
+            estimate += frame.weight();
+    }
+
+    /**
+     * Pushes the values of a node onto the front of the pending values, so that they come next in document order.
+     */
+    private void pushChildren(VDFPath path, VDFNode node) {
+        List<Frame> children = new ArrayList<>();
+        for(Iterator<Map.Entry<String, Object[]>> it = node.rawEntries(); it.hasNext(); ) {
+            Map.Entry<String, Object[]> e = it.next();
+            Object[] values = e.getValue();
+            for(int i = 0; i < values.length; i++)
+                children.add(new Frame(path.child(e.getKey(), i), values[i], true));
+        }
+        for(int i = children.size() - 1; i >= 0; i--)
+            pending.addFirst(children.get(i));
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<VDFPath, Object>> action) {
+        Frame frame;
+        while((frame = pending.pollFirst()) != null) {
+            boolean node = frame.value instanceof VDFNode;
+            if(node && frame.expand)
+                pushChildren(frame.path, (VDFNode) frame.value);
+
+            if(!node || !leavesOnly) {
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(frame.path, frame.value));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Map.Entry<VDFPath, Object>> action) {
+        while(tryAdvance(action)) {
+            // Every value is reported by tryAdvance
+        }
+    }
+
+    @Override
+    public Spliterator<Map.Entry<VDFPath, Object>> trySplit() {
+        // A single pending subnode is expanded so that its children can be split between the two halves
+        while(pending.size() == 1) {
+            Frame frame = pending.peekFirst();
+            if(!frame.expand || !(frame.value instanceof VDFNode))
+                return null;
+
+            pending.pollFirst();
+            pushChildren(frame.path, (VDFNode) frame.value);
+            if(!leavesOnly)
+                pending.addFirst(new Frame(frame.path, frame.value, false));
+        }
+        if(pending.size() < 2)
+            return null;
+
+        long total = 0;
+        long[] weights = new long[pending.size()];
+        int index = 0;
+        for(Frame frame : pending) {
+            weights[index] = frame.weight();
+            total += weights[index++];
+        }
+
+        // Hand the first half of the weight, and at least one frame, to the new spliterator
+        ArrayDeque<Frame> prefix = new ArrayDeque<>();
+        long taken = 0;
+        for(int i = 0; i < weights.length - 1 && (taken == 0 || taken + weights[i] <= total / 2); i++) {
+            prefix.addLast(pending.pollFirst());
+            taken += weights[i];
+        }
+        estimate = total - taken;
+        return new VDFWalker(prefix, leavesOnly, taken);
+    }
+
+    @Override
+    public long estimateSize() {
+        return pending.isEmpty() ? 0 : estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+}
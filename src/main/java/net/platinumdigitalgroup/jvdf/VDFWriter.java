@@ -9,35 +9,63 @@ import java.util.Set;
  */
 public class VDFWriter {
 
+    private VDFMetricsListener metricsListener;
+
     public VDFWriter() {
     }
 
+    /**
+     * Reports the metrics of every written document to a listener.
+     * @param listener the listener to report to, or null to stop reporting
+     * @return this writer
+     */
+    public VDFWriter setMetricsListener(VDFMetricsListener listener) {
+        this.metricsListener = listener;
+        return this;
+    }
+
     public String write(VDFNode root) {
         return write(root, false);
     }
 
     public String write(VDFNode root, boolean newLineOnNode) {
-        return write(root, new StringBuilder(), new StringBuilder(), newLineOnNode);
+        VDFRecording recording = VDFRecording.begin(VDFMetrics.Phase.WRITE, metricsListener);
+        StringBuilder builder = new StringBuilder();
+        write(root, new StringBuilder(), builder, newLineOnNode, recording, 0);
+        if(recording != null)
+            recording.end(builder.length(), VDFRecording.lines(builder));
+        return builder.toString();
     }
 
-    private String write(VDFNode root, StringBuilder whitespace, StringBuilder builder, boolean newLineOnNode) {
+    private void write(VDFNode root, StringBuilder whitespace, StringBuilder builder, boolean newLineOnNode,
+                       VDFRecording recording, int depth) {
         Set<Map.Entry<String, Object[]>> entries = root.entrySet();
         for (Map.Entry<String, Object[]> entry : entries) {
             String key = entry.getKey();
             Object[] value = entry.getValue();
+            if (recording != null && value.length > 1) {
+                recording.multimappedKey();
+            }
             for (int i = 0; i < value.length; i++) {
                 builder.append(whitespace);
-                builder.append("\"").append(key).append("\"");
+                appendQuoted(builder, key);
                 builder.append(" ");
                 Object obj = value[i];
+                VDFCondition condition = root.getCondition(key, i);
                 if (!(obj instanceof VDFNode)) {
-                    builder.append("\"").append(obj).append("\"");
+                    appendQuoted(builder, obj.toString());
+                    if (condition != null) {
+                        builder.append(" ").append(condition);
+                    }
                     if (i < value.length - 1) {
                         builder.append("\n");
                     }
                 }
                 else {
                     VDFNode node = (VDFNode) obj;
+                    if (recording != null) {
+                        recording.node(depth + 1);
+                    }
                     if (newLineOnNode) {
                         builder.append("\n");
                         builder.append(whitespace);
@@ -47,17 +75,37 @@ public class VDFWriter {
                         builder.append("\n");
                         whitespace.append("    ");
                     }
-                    write(node, whitespace, builder, newLineOnNode);
+                    write(node, whitespace, builder, newLineOnNode, recording, depth + 1);
                     if (!node.isEmpty()) {
                         whitespace.setLength(whitespace.length() - 4);
                         builder.append(whitespace);
                     }
                     builder.append("}");
+                    if (condition != null) {
+                        builder.append(" ").append(condition);
+                    }
                 }
             }
             builder.append("\n");
         }
-        return builder.toString();
     }
 
-}
\ No newline at end of file
+    /**
+     * Appends a quoted string, escaping the characters the parser treats as escape sequences.
+     */
+    static void appendQuoted(StringBuilder builder, String s) {
+        builder.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+Copyright 2017 Platinum Digital Group LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package net.platinumdigitalgroup.jvdf;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emits JDK Flight Recorder events.  This is the only class that refers to jdk.jfr, so it is compiled for Java 11
+ * into the versioned part of the multi-release jar, where it replaces the no-op class of the Java 8 sources.  It is
+ * only loaded once {@link VDFRecording} has made sure Flight Recorder exists.  Events are disabled unless a recording
+ * enables them, e.g. with <code>-XX:StartFlightRecording</code>.
+ * @author Brendan Heinonen
+ */
+final class VDFFlightRecorder {
+
+    private VDFFlightRecorder() {
+    }
+
+    @Name("net.platinumdigitalgroup.jvdf.Phase")
+    @Label("VDF Phase")
+    @Category("JVDF")
+    @Description("A VDF document was preprocessed, parsed, bound or written")
+    static final class PhaseEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Characters")
+        @Description("The size of the document in characters")
+        long characters;
+
+        @Label("Lines")
+        long lines;
+
+        @Label("Nodes")
+        long nodes;
+
+        @Label("Max Depth")
+        int maxDepth;
+
+        @Label("Multimapped Keys")
+        long multimappedKeys;
+
+    }
+
+    /**
+     * Starts an event.
+     * @return the event, or null if no recording is interested in it
+     */
+    static Object begin() {
+        PhaseEvent event = new PhaseEvent();
+        if(!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object event, VDFMetrics metrics) {
+        PhaseEvent e = (PhaseEvent) event;
+        e.end();
+        if(!e.shouldCommit())
+            return;
+
+        e.phase = metrics.getPhase().name();
+        e.characters = metrics.getCharacters();
+        e.lines = metrics.getLines();
+        e.nodes = metrics.getNodes();
+        e.maxDepth = metrics.getMaxDepth();
+        e.multimappedKeys = metrics.getMultimappedKeys();
+        e.commit();
+    }
+
+}
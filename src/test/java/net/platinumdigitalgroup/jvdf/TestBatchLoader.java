@@ -0,0 +1,98 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestBatchLoader {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private Path write(String name, String vdf) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, vdf.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private List<Path> manifests(int count) throws Exception {
+        List<Path> files = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+            files.add(write("appmanifest_" + i + ".acf", "AppState { appid " + i + " name \"App " + i + "\" }"));
+        return files;
+    }
+
+    @Test
+    public void testLoadAll() throws Exception {
+        List<Path> files = manifests(100);
+        files.add(50, write("broken.acf", "AppState { appid 1 "));
+        files.add(folder.getRoot().toPath().resolve("missing.acf"));
+
+        // A cap smaller than a single manifest still loads every file, one at a time
+        VDFBatchLoader loader = new VDFBatchLoader(new VDFParser(), executor).setMaxInFlightBytes(16);
+        List<VDFBatchLoader.Result> results = loader.loadAll(files.stream()).collect(Collectors.toList());
+
+        Assert.assertEquals(102, results.size());
+        for(int i = 0; i < 102; i++)
+            Assert.assertEquals(files.get(i), results.get(i).getFile());
+
+        Assert.assertTrue(results.get(50).getError() instanceof VDFParseException);
+        Assert.assertTrue(results.get(101).getError() instanceof NoSuchFileException);
+        Assert.assertEquals(100, results.stream().filter(VDFBatchLoader.Result::isSuccess).count());
+        Assert.assertEquals(99, results.get(100).getRoot().getSubNode("AppState").getInt("appid"));
+    }
+
+    @Test
+    public void testConsumer() throws Exception {
+        List<Path> files = manifests(200);
+        List<VDFNode> roots = new ArrayList<>();
+
+        new VDFBatchLoader(new VDFParser(), executor).loadAll(files.stream(), result -> roots.add(result.getRoot()))
+                .get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(200, roots.size());
+        Assert.assertEquals(IntStream.range(0, 200).sum(),
+                roots.stream().mapToInt(root -> root.getSubNode("AppState").getInt("appid")).sum());
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        VDFBatchLoader loader = new VDFBatchLoader(new VDFParser(), executor);
+        Assert.assertEquals("value", loader.load("root { key value }".getBytes(StandardCharsets.UTF_8))
+                .get().getSubNode("root").getString("key"));
+
+        try {
+            loader.load(write("broken.txt", "root { key value")).get();
+            Assert.fail();
+        } catch(ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof VDFParseException);
+        }
+    }
+
+}
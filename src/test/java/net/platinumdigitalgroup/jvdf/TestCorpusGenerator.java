@@ -0,0 +1,78 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestCorpusGenerator {
+
+    private final VDFParser parser = new VDFParser();
+
+    private VDFCorpusGenerator stress() {
+        return new VDFCorpusGenerator()
+                .setSeed(42)
+                .setSize(32 * 1024)
+                .setMaxDepth(6)
+                .setMultimapRatio(0.3)
+                .setCommentRatio(0.2)
+                .setEscapeRatio(0.2)
+                .setConditionalRatio(0.2)
+                .setLongValueRatio(0.05)
+                .setLongValueLength(300);
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        StringWriter out = new StringWriter();
+        stress().generate(out);
+
+        Assert.assertEquals(stress().generate(), out.toString());
+        Assert.assertNotEquals(stress().setSeed(43).generate(), out.toString());
+    }
+
+    @Test
+    public void testSize() {
+        String vdf = stress().generate();
+        Assert.assertTrue(vdf.length() >= 32 * 1024);
+        Assert.assertTrue(vdf.length() < 40 * 1024);
+    }
+
+    @Test
+    public void testParses() {
+        String vdf = stress().generate();
+        Assert.assertTrue(vdf.contains("\\\"quoted\\\""));
+        Assert.assertTrue(vdf.contains("//"));
+        Assert.assertTrue(vdf.contains("[$"));
+
+        VDFNode root = parser.parse(vdf);
+        Assert.assertTrue(maxDepth(root) <= 6);
+
+        // Writing and parsing the document again must not lose anything
+        VDFNode written = parser.parse(new VDFWriter().write(root, true));
+        Assert.assertEquals(0, new VDFDiff().changes(root, written).size());
+    }
+
+    private static int maxDepth(VDFNode root) {
+        int max = 0;
+        ArrayDeque<Object[]> stack = new ArrayDeque<>();
+        stack.push(new Object[] { root, 0 });
+        while(!stack.isEmpty()) {
+            Object[] frame = stack.pop();
+            int depth = (Integer) frame[1];
+            max = Math.max(max, depth);
+            for(Object[] values : ((VDFNode) frame[0]).values()) {
+                for(Object value : values) {
+                    if(value instanceof VDFNode)
+                        stack.push(new Object[] { value, depth + 1 });
+                }
+            }
+        }
+        return max;
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestDiff {
+
+    private final VDFParser parser = new VDFParser();
+    private final VDFDiff diff = new VDFDiff();
+
+    private static final String VDF_OLD = "root { same { k v } items { a 1 a 2 } changed old removed gone }";
+    private static final String VDF_NEW = "root { same { k v } items { a 1 a 3 a 4 } changed new added here }";
+
+    @Test
+    public void testIdentical() {
+        Assert.assertEquals(0, diff.changes(parser.parse(VDF_OLD), parser.parse(VDF_OLD)).size());
+        Assert.assertEquals(diff.contentHash(parser.parse(VDF_OLD)), diff.contentHash(parser.parse(VDF_OLD).freeze()));
+    }
+
+    @Test
+    public void testChanges() {
+        List<VDFDiff.Change> changes = diff.changes(parser.parse(VDF_OLD), parser.parse(VDF_NEW));
+
+        Assert.assertEquals(5, changes.size());
+        assertChange(changes.get(0), VDFDiff.Type.ADDED, "root/added", null, "here");
+        assertChange(changes.get(1), VDFDiff.Type.CHANGED, "root/changed", "old", "new");
+        assertChange(changes.get(2), VDFDiff.Type.CHANGED, "root/items/a[1]", "2", "3");
+        assertChange(changes.get(3), VDFDiff.Type.ADDED, "root/items/a[2]", null, "4");
+        assertChange(changes.get(4), VDFDiff.Type.REMOVED, "root/removed", "gone", null);
+    }
+
+    @Test
+    public void testSharedSnapshots() {
+        VDFImmutableNode before = parser.parse(VDF_OLD).freeze();
+        VDFImmutableNode.Builder builder = before.toBuilder();
+        builder.edit("root").edit("same").set("k", "w");
+        VDFImmutableNode after = builder.build();
+
+        List<VDFDiff.Change> changes = diff.changes(before, after);
+        Assert.assertEquals(1, changes.size());
+        assertChange(changes.get(0), VDFDiff.Type.CHANGED, "root/same/k", "v", "w");
+    }
+
+    private void assertChange(VDFDiff.Change change, VDFDiff.Type type, String path, Object oldValue, Object newValue) {
+        Assert.assertEquals(type, change.getType());
+        Assert.assertEquals(path, change.getPath().toString());
+        Assert.assertEquals(oldValue, change.getOldValue());
+        Assert.assertEquals(newValue, change.getNewValue());
+    }
+
+}
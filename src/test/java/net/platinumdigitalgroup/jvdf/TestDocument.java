@@ -0,0 +1,171 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestDocument {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String VDF_DOCUMENT = "// Item schema\n" +
+            "\"items_game\"\n" +
+            "{\n" +
+            "\t\"items\"\n" +
+            "\t{\n" +
+            "\t\t\"5021\"\n" +
+            "\t\t{\n" +
+            "\t\t\t\"name\"\t\t\"Mann Co. Supply Crate Key\"\t// keys open crates\n" +
+            "\t\t\t\"price\"\t\t249\n" +
+            "\t\t\t\"tag\"\t\t\"tool\"\n" +
+            "\t\t\t\"tag\"\t\t\"key\" [$WIN32]\n" +
+            "\t\t}\n" +
+            "\t\t\"5022\" { \"name\" \"Crate\" }\n" +
+            "\t}\n" +
+            "}\n";
+
+    private static VDFPath path(String path) {
+        return VDFPath.parse(path);
+    }
+
+    @Test
+    public void testUnchanged() {
+        VDFDocument document = VDFDocument.of(VDF_DOCUMENT);
+        Assert.assertEquals(VDF_DOCUMENT, document.toString());
+        Assert.assertFalse(document.isModified());
+        Assert.assertEquals(0, new VDFDiff().changes(new VDFParser().parse(VDF_DOCUMENT), document.root()).size());
+    }
+
+    @Test
+    public void testSet() {
+        VDFDocument document = VDFDocument.of(VDF_DOCUMENT)
+                .set(path("items_game/items/5021/name"), "Key")
+                .set(path("items_game/items/5021/price"), "199")
+                .set(path("items_game/items/5021/tag[1]"), "a \"key\"");
+
+        Assert.assertEquals(VDF_DOCUMENT
+                .replace("\"Mann Co. Supply Crate Key\"", "\"Key\"")
+                .replace("249", "199")
+                .replace("\"key\" [$WIN32]", "\"a \\\"key\\\"\" [$WIN32]"), document.toString());
+        Assert.assertEquals("a \"key\"", document.root().getSubNode("items_game").getSubNode("items")
+                .getSubNode("5021").getString("tag", 1));
+    }
+
+    @Test
+    public void testAdd() {
+        VDFNode attributes = new VDFParser().parse("\"attribute\" { \"value\" \"1\" }");
+        VDFDocument document = VDFDocument.of(VDF_DOCUMENT)
+                .add(path("items_game/items/5021"), "quality", "unique")
+                .add(path("items_game/items/5021"), "attributes", attributes)
+                .add(path("items_game/items/5022"), "quality", "normal")
+                .add(VDFPath.ROOT, "version", "2");
+
+        Assert.assertEquals(VDF_DOCUMENT
+                .replace("\t\t}\n", "\t\t\t\"quality\"\t\t\"unique\"\n" +
+                        "\t\t\t\"attributes\"\n\t\t\t{\n" +
+                        "\t\t\t\t\"attribute\"\n\t\t\t\t{\n\t\t\t\t\t\"value\"\t\t\"1\"\n\t\t\t\t}\n" +
+                        "\t\t\t}\n\t\t}\n")
+                .replace("\"Crate\" }", "\"Crate\" \"quality\" \"normal\" }")
+                + "\"version\" \"2\"\n", document.toString());
+
+        VDFNode item = document.root().getSubNode("items_game").getSubNode("items").getSubNode("5021");
+        Assert.assertEquals("1", item.getSubNode("attributes").getSubNode("attribute").getString("value"));
+    }
+
+    @Test
+    public void testRemove() {
+        VDFDocument document = VDFDocument.of(VDF_DOCUMENT)
+                .remove(path("items_game/items/5021/name"))
+                .remove(path("items_game/items/5021/tag"))
+                .remove(path("items_game/items/5022/name"));
+
+        // Removing the first tag makes the conditional tag the first one
+        Assert.assertEquals("key", document.root().getSubNode("items_game").getSubNode("items")
+                .getSubNode("5021").getString("tag"));
+        document.remove(path("items_game/items/5021/tag"));
+
+        Assert.assertEquals(VDF_DOCUMENT
+                .replace("\t\t\t\"name\"\t\t\"Mann Co. Supply Crate Key\"\t// keys open crates\n", "")
+                .replace("\t\t\t\"tag\"\t\t\"tool\"\n\t\t\t\"tag\"\t\t\"key\" [$WIN32]\n", "")
+                .replace("{ \"name\" \"Crate\" }", "{ }"), document.toString());
+    }
+
+    @Test
+    public void testRemoveSameLine() {
+        String vdf = "\"root\"\n{\n\t\"a\" \"1\" \"b\" \"2\" \"c\" \"3\"\n}\n";
+        Assert.assertEquals("\"root\"\n{\n}\n", VDFDocument.of(vdf)
+                .remove(path("root/a")).remove(path("root/b")).remove(path("root/c")).toString());
+        Assert.assertEquals("\"root\"\n{\n\t\"c\" \"3\"\n}\n", VDFDocument.of(vdf)
+                .remove(path("root/a")).remove(path("root/b")).toString());
+        Assert.assertEquals("\"root\"\n{\n\t\"a\" \"1\"\n}\n", VDFDocument.of(vdf)
+                .remove(path("root/b")).remove(path("root/c")).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissing() {
+        VDFDocument.of(VDF_DOCUMENT).set(path("items_game/items/5023/name"), "value");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetSubNode() {
+        VDFDocument.of(VDF_DOCUMENT).set(path("items_game/items"), "value");
+    }
+
+    @Test
+    public void testSave() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("items_game.txt");
+        Files.write(file, VDF_DOCUMENT.getBytes(StandardCharsets.UTF_8));
+
+        // An edit of the same length is patched in place, so the file is still the same file
+        Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        VDFDocument document = VDFDocument.load(file).set(path("items_game/items/5021/price"), "199");
+        document.save(file);
+        if(fileKey != null)
+            Assert.assertEquals(fileKey, Files.readAttributes(file, BasicFileAttributes.class).fileKey());
+        Assert.assertEquals(VDF_DOCUMENT.replace("249", "199"), new String(Files.readAllBytes(file),
+                StandardCharsets.UTF_8));
+        Assert.assertFalse(document.isModified());
+
+        // Other edits rewrite the file
+        document.set(path("items_game/items/5021/price"), "1999").add(VDFPath.ROOT, "version", "\u00e9t\u00e9");
+        document.save(file);
+        String expected = VDF_DOCUMENT.replace("249", "1999") + "\"version\" \"\u00e9t\u00e9\"\n";
+        Assert.assertEquals(expected, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+        // Byte offsets account for multi-byte characters before the patched region
+        VDFDocument.load(file).set(path("version"), "\u00e9t\u00e0").save(file);
+        Assert.assertEquals(expected.replace("\u00e9t\u00e9", "\u00e9t\u00e0"),
+                new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VDFDocument.load(file).write(out);
+        Assert.assertArrayEquals(Files.readAllBytes(file), out.toByteArray());
+    }
+
+    @Test
+    public void testParsePath() {
+        VDFPath path = VDFPath.parse("items_game/items[2]/5021/tag[1]");
+        Assert.assertEquals(VDFPath.ROOT.child("items_game", 0).child("items", 2).child("5021", 0).child("tag", 1),
+                path);
+        Assert.assertEquals("items_game/items[2]/5021/tag[1]", path.toString());
+        Assert.assertEquals("a[b]", VDFPath.parse("a[b]").getKey());
+        Assert.assertSame(VDFPath.ROOT, VDFPath.parse(""));
+    }
+
+    @Test(expected = VDFParseException.class)
+    public void testUnclosed() {
+        VDFDocument.of("root { key value");
+    }
+
+}
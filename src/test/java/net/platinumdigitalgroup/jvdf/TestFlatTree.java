@@ -0,0 +1,84 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestFlatTree {
+
+    private final VDFParser parser = new VDFParser();
+
+    private static final String VDF_SAMPLE = "root { name \"flat tree\" count 42 negative -7 " +
+            "unicode \"\u00e9t\u00e9 \u6771\u4eac\" items { a 1 a 2 a { nested yes } } " +
+            "platform value [$WIN32] empty { } }";
+
+    @Test
+    public void testRoundTrip() {
+        VDFNode tree = parser.parse(VDF_SAMPLE);
+        VDFFlatNode flat = VDFFlatTree.encode(tree).root();
+
+        Assert.assertEquals(0, new VDFDiff().changes(tree, flat).size());
+        Assert.assertEquals(new VDFDiff().contentHash(tree), new VDFDiff().contentHash(flat));
+    }
+
+    @Test
+    public void testAccessors() {
+        VDFNode root = VDFFlatTree.encode(parser.parse(VDF_SAMPLE)).root().getSubNode("root");
+
+        Assert.assertEquals("flat tree", root.getString("name"));
+        Assert.assertEquals(42, root.getInt("count"));
+        Assert.assertEquals(-7, root.getInt("negative"));
+        Assert.assertEquals(5, root.getInt("missing", 5));
+        Assert.assertEquals("\u00e9t\u00e9 \u6771\u4eac", root.getString("unicode"));
+        Assert.assertNull(root.getString("missing"));
+
+        VDFNode items = root.getSubNode("items");
+        Assert.assertEquals(3, items.values("a"));
+        Assert.assertEquals("2", items.getString("a", 1));
+        Assert.assertEquals("yes", items.getSubNode("a", 2).getString("nested"));
+        Assert.assertTrue(root.getSubNode("empty").isEmpty());
+
+        Assert.assertEquals("$WIN32", root.getCondition("platform", 0).expression());
+        Assert.assertNull(root.getCondition("name", 0));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() {
+        VDFFlatTree.encode(parser.parse(VDF_SAMPLE)).root().put("key", "value");
+    }
+
+    @Test
+    public void testMap() throws Exception {
+        Path file = Files.createTempFile("jvdf", ".flat");
+        try {
+            VDFNode tree = parser.parse(VDF_SAMPLE);
+            VDFFlatTree.write(tree, file);
+
+            VDFFlatTree mapped = VDFFlatTree.map(file);
+            Assert.assertEquals(Files.size(file), mapped.size());
+            Assert.assertEquals(0, new VDFDiff().changes(tree, mapped.root()).size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSharedSubtrees() {
+        String vdf = "a { x { k v } } b { x { k v } }";
+        int plain = VDFFlatTree.encode(parser.parse(vdf)).size();
+        int interned = VDFFlatTree.encode(new VDFParser().setInterner(new VDFInterner()).parse(vdf)).size();
+        Assert.assertTrue(interned < plain);
+    }
+
+    @Test(expected = VDFParseException.class)
+    public void testNotAFlatTree() {
+        VDFFlatTree.wrap(ByteBuffer.wrap("\"key\" \"value\" and some more text".getBytes()));
+    }
+
+}
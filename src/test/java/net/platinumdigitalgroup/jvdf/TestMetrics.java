@@ -0,0 +1,85 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestMetrics {
+
+    private static final String VDF_SAMPLE = "root\n{\n  // comment\n  child { key value key value2 }\n  other { }\n}";
+
+    private final List<VDFMetrics> metrics = new ArrayList<>();
+
+    @Test
+    public void testParse() {
+        new VDFParser().setMetricsListener(metrics::add).parse(VDF_SAMPLE);
+
+        Assert.assertEquals(2, metrics.size());
+        VDFMetrics preprocess = metrics.get(0);
+        Assert.assertEquals(VDFMetrics.Phase.PREPROCESS, preprocess.getPhase());
+        Assert.assertEquals(6, preprocess.getLines());
+        Assert.assertEquals(VDF_SAMPLE.length() + 1, preprocess.getCharacters());
+
+        VDFMetrics parse = metrics.get(1);
+        Assert.assertEquals(VDFMetrics.Phase.PARSE, parse.getPhase());
+        Assert.assertEquals(3, parse.getNodes());
+        Assert.assertEquals(2, parse.getMaxDepth());
+        Assert.assertEquals(1, parse.getMultimappedKeys());
+        Assert.assertEquals(Thread.currentThread().getName(), parse.getThread());
+        Assert.assertTrue(parse.getDurationNanos() >= 0);
+    }
+
+    @Test
+    public void testWrite() {
+        VDFNode root = new VDFParser().parse(VDF_SAMPLE);
+        String written = new VDFWriter().setMetricsListener(metrics::add).write(root);
+
+        Assert.assertEquals(1, metrics.size());
+        VDFMetrics write = metrics.get(0);
+        Assert.assertEquals(VDFMetrics.Phase.WRITE, write.getPhase());
+        Assert.assertEquals(written.length(), write.getCharacters());
+        Assert.assertEquals(3, write.getNodes());
+        Assert.assertEquals(2, write.getMaxDepth());
+        Assert.assertEquals(1, write.getMultimappedKeys());
+    }
+
+    public class Document {
+        public class Root {
+            public class Child {
+                @VDFBindField
+                String key;
+            }
+
+            @VDFBindField
+            Child child;
+        }
+
+        @VDFBindField
+        Root root;
+    }
+
+    @Test
+    public void testBind() {
+        Document document = new Document();
+        new VDFBinder(new VDFParser().parse(VDF_SAMPLE)).setMetricsListener(metrics::add).bindTo(document);
+
+        Assert.assertEquals(1, metrics.size());
+        VDFMetrics bind = metrics.get(0);
+        Assert.assertEquals(VDFMetrics.Phase.BIND, bind.getPhase());
+        Assert.assertEquals(2, bind.getNodes());
+        Assert.assertEquals(2, bind.getMaxDepth());
+    }
+
+    @Test
+    public void testDisabled() {
+        new VDFParser().parse(VDF_SAMPLE);
+        new VDFWriter().write(new VDFNode());
+        Assert.assertTrue(metrics.isEmpty());
+    }
+
+}
@@ -0,0 +1,242 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestNode {
+
+    private VDFParser parser = new VDFParser();
+
+    private static final String VDF_SAMPLE = "root { first { key value1 } second { key value2 } } other value3";
+
+    @Test
+    public void testFreeze() {
+        VDFNode node = parser.parse(VDF_SAMPLE);
+        VDFImmutableNode frozen = node.freeze();
+
+        Assert.assertEquals("value1", frozen.getSubNode("root").getSubNode("first").getString("key"));
+        Assert.assertEquals("value3", frozen.getString("other"));
+        Assert.assertEquals(VDFImmutableNode.class, frozen.getSubNode("root").getClass());
+        Assert.assertSame(frozen, frozen.freeze());
+
+        // The snapshot is detached from the node it was created from
+        node.put("other", "changed");
+        Assert.assertEquals(1, frozen.values("other"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFrozenIsReadOnly() {
+        parser.parse(VDF_SAMPLE).freeze().put("key", "value");
+    }
+
+    @Test
+    public void testBuilderSharesUnchangedSubtrees() {
+        VDFImmutableNode frozen = parser.parse(VDF_SAMPLE).freeze();
+
+        VDFImmutableNode.Builder builder = frozen.toBuilder();
+        builder.edit("root").edit("first").set("key", "changed");
+        VDFImmutableNode updated = builder.build();
+
+        Assert.assertEquals("changed", updated.getSubNode("root").getSubNode("first").getString("key"));
+        Assert.assertEquals("value1", frozen.getSubNode("root").getSubNode("first").getString("key"));
+        Assert.assertSame(frozen.getSubNode("root").getSubNode("second"),
+                updated.getSubNode("root").getSubNode("second"));
+        Assert.assertSame(frozen, frozen.toBuilder().build());
+    }
+
+    private static final String VDF_DEEP_MULTIMAP = "root { a { x { k 1 } } a { x { k 2 } } s str a { x { k 3 } } }";
+
+    @Test
+    public void testReduceDeepMultimap() {
+        VDFNode root = parser.parse(VDF_DEEP_MULTIMAP).reduce();
+
+        VDFNode x = root.getSubNode("root").getSubNode("a").getSubNode("x");
+        Assert.assertEquals(1, root.getSubNode("root").values("a"));
+        Assert.assertEquals(1, root.getSubNode("root").getSubNode("a").values("x"));
+        Assert.assertEquals("1", x.getString("k", 0));
+        Assert.assertEquals("3", x.getString("k", 2));
+    }
+
+    @Test
+    public void testReduceLargeNodes() {
+        StringBuilder vdf = new StringBuilder();
+        for(int i = 0; i < 4; i++) {
+            vdf.append("items {");
+            for(int j = 0; j < VDFReducer.FORK_THRESHOLD * 2; j++)
+                vdf.append(" item").append(j).append(" { value ").append(i).append(" }");
+            vdf.append(" }");
+        }
+
+        VDFNode items = parser.parse(vdf.toString()).reduce().getSubNode("items");
+        Assert.assertEquals(VDFReducer.FORK_THRESHOLD * 2, items.size());
+        for(int j = 0; j < VDFReducer.FORK_THRESHOLD * 2; j++) {
+            VDFNode item = items.getSubNode("item" + j);
+            Assert.assertEquals(1, items.values("item" + j));
+            Assert.assertEquals(4, item.values("value"));
+            Assert.assertEquals("3", item.getString("value", 3));
+        }
+    }
+
+    @Test
+    public void testReduceFrozenSubnodes() {
+        VDFNode root = new VDFNode();
+        root.put("node", parser.parse("a { k 1 } a { k 2 }").freeze());
+        root.reduce();
+        Assert.assertEquals("2", root.getSubNode("node").getSubNode("a").getString("k", 1));
+    }
+
+    @Test
+    public void testReduceFrozenConditionals() {
+        VDFNode root = new VDFNode();
+        root.put("node", parser.parse("k 1").freeze(), VDFCondition.parse("$WIN32"));
+        root.put("node", "x", VDFCondition.parse("$X360"));
+        root.reduce();
+
+        Assert.assertFalse(root.getSubNode("node") instanceof VDFReadOnlyNode);
+        Assert.assertEquals("$WIN32", root.getCondition("node", 0).expression());
+        Assert.assertEquals("$X360", root.getCondition("node", 1).expression());
+    }
+
+    @Test
+    public void testReduceKeepsConditionals() {
+        VDFNode root = parser.parse("a { k 1 } [$WIN32] a x a { k 2 } a { k 3 } [$WIN32] a { k 4 } [$X360]").reduce();
+
+        // Only subnodes under the same conditional are merged, in place of the first of them
+        Assert.assertEquals(4, root.values("a"));
+        Assert.assertEquals("3", root.getSubNode("a", 0).getString("k", 1));
+        Assert.assertEquals("$WIN32", root.getCondition("a", 0).expression());
+        Assert.assertEquals("x", root.getString("a", 1));
+        Assert.assertNull(root.getCondition("a", 1));
+        Assert.assertEquals("2", root.getSubNode("a", 2).getString("k"));
+        Assert.assertNull(root.getCondition("a", 2));
+        Assert.assertEquals("4", root.getSubNode("a", 3).getString("k"));
+        Assert.assertEquals("$X360", root.getCondition("a", 3).expression());
+    }
+
+    @Test
+    public void testRemovedConditionals() {
+        VDFNode node = parser.parse("a old [$WIN32] b old [$WIN32] c old [$WIN32] d old [$WIN32] d other");
+
+        // Values removed through any view of the map leave no conditionals behind for new values
+        node.pollFirstEntry();
+        node.put("a", "new");
+        node.headMap("c").clear();
+        node.put("b", "new");
+        for(Iterator<Map.Entry<String, Object[]>> it = node.entrySet().iterator(); it.hasNext(); ) {
+            if(it.next().getKey().equals("c"))
+                it.remove();
+        }
+        node.put("c", "new");
+        Assert.assertNull(node.getCondition("a", 0));
+        Assert.assertNull(node.getCondition("b", 0));
+        Assert.assertNull(node.getCondition("c", 0));
+
+        // Appending keeps the conditionals of the existing values
+        node.put("d", "new");
+        Assert.assertEquals("$WIN32", node.getCondition("d", 0).expression());
+        Assert.assertNull(node.getCondition("d", 2));
+        node.pollLastEntry();
+        node.put("d", "new", null);
+        Assert.assertNull(node.getCondition("d", 0));
+    }
+
+    @Test
+    public void testJoinKeepsConditionals() {
+        VDFNode source = parser.parse("key one [$WIN32] key two");
+        VDFNode target = parser.parse("key zero");
+        source.join(target);
+
+        Assert.assertEquals(3, target.values("key"));
+        Assert.assertEquals("$WIN32", target.getCondition("key", 1).expression());
+        Assert.assertNull(target.getCondition("key", 2));
+    }
+
+    private static final String VDF_REPETITIVE = "items { a { attributes { color red size 1 } } " +
+            "b { attributes { color red size 1 } } c { attributes { color blue size 1 } } }";
+
+    @Test
+    public void testInterner() {
+        VDFInterner interner = new VDFInterner();
+        VDFNode items = new VDFParser().setInterner(interner).parse(VDF_REPETITIVE).getSubNode("items");
+
+        Assert.assertSame(items.getSubNode("a").getSubNode("attributes"), items.getSubNode("b").getSubNode("attributes"));
+        Assert.assertSame(items.getSubNode("a"), items.getSubNode("b"));
+        Assert.assertNotSame(items.getSubNode("a"), items.getSubNode("c"));
+        Assert.assertEquals("blue", items.getSubNode("c").getSubNode("attributes").getString("color"));
+        Assert.assertEquals(2, interner.getDuplicateNodes());
+        Assert.assertTrue(interner.getBytesSaved() > 0);
+    }
+
+    @Test
+    public void testInternerClear() {
+        VDFInterner interner = new VDFInterner();
+        VDFParser parser = new VDFParser().setInterner(interner);
+        VDFNode first = parser.parse(VDF_REPETITIVE).getSubNode("items").getSubNode("a");
+        Assert.assertSame(first, parser.parse(VDF_REPETITIVE).getSubNode("items").getSubNode("a"));
+
+        // Trees interned after a clear no longer share instances with earlier ones, but stay equal to them
+        interner.clear();
+        VDFNode second = parser.parse(VDF_REPETITIVE).getSubNode("items").getSubNode("a");
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals("red", second.getSubNode("attributes").getString("color"));
+    }
+
+    @Test
+    public void testInternerCapacity() {
+        VDFInterner interner = new VDFInterner(1);
+        VDFNode items = new VDFParser().setInterner(interner).parse(VDF_REPETITIVE).getSubNode("items");
+
+        // The table is emptied whenever it is full, so a's subtrees are gone by the time b is interned
+        Assert.assertNotSame(items.getSubNode("a"), items.getSubNode("b"));
+        Assert.assertEquals("red", items.getSubNode("b").getSubNode("attributes").getString("color"));
+        Assert.assertEquals("blue", items.getSubNode("c").getSubNode("attributes").getString("color"));
+        Assert.assertEquals(0, interner.getDuplicateNodes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInternerNoCapacity() {
+        new VDFInterner(0);
+    }
+
+    @Test
+    public void testFootprint() {
+        VDFStats stats = new VDFParser().parse(VDF_REPETITIVE + " tag x tag y").footprint();
+        Assert.assertEquals(7, stats.getNodes());
+        Assert.assertEquals(8, stats.getValues());
+        Assert.assertEquals(14, stats.getKeys());
+        Assert.assertEquals(1, stats.getMultimappedKeys());
+        Assert.assertEquals(2, stats.getMultimappedValues());
+        Assert.assertEquals(3, stats.getMaxDepth());
+        Assert.assertArrayEquals(new long[]{ 1, 1, 3, 3 }, stats.getDepthHistogram());
+        Assert.assertEquals(22, stats.getStrings());
+        Assert.assertEquals(13, stats.getDistinctStrings());
+        Assert.assertTrue(stats.getDuplicateStringBytes() > 0);
+
+        long items = stats.getSubtreeBytes().get(VDFPath.parse("items"));
+        long a = stats.getSubtreeBytes().get(VDFPath.parse("items/a"));
+        Assert.assertTrue(a > 0 && items > 3 * a && stats.getRetainedBytes() > items);
+
+        // Interned subtrees and strings are only counted where they first appear
+        VDFStats interned = new VDFParser().setInterner(new VDFInterner()).parse(VDF_REPETITIVE).footprint();
+        Assert.assertEquals(7, interned.getNodes());
+        Assert.assertEquals(0L, (long) interned.getSubtreeBytes().get(VDFPath.parse("items/b")));
+        Assert.assertEquals(0, interned.getDuplicateStringBytes());
+        Assert.assertTrue(interned.getRetainedBytes() < stats.getRetainedBytes());
+
+        VDFNode deep = new VDFNode();
+        VDFNode node = deep;
+        for(int i = 0; i < 100000; i++) {
+            VDFNode child = new VDFNode();
+            node.put("a", child);
+            node = child;
+        }
+        Assert.assertEquals(100000, deep.footprint().getMaxDepth());
+    }
+
+}
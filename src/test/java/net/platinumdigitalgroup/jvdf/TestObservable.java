@@ -0,0 +1,100 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestObservable {
+
+    private final VDFParser parser = new VDFParser();
+
+    private static final String VDF_CONFIG = "server { name alpha port 27015 } maps { map a map b }";
+
+    @Test
+    public void testUpdates() {
+        List<VDFObservableTree.Batch> batches = new ArrayList<>();
+        VDFObservableTree tree = parser.parse(VDF_CONFIG).observe(Runnable::run).addListener(batches::add);
+
+        tree.update(builder -> builder.edit("server").set("port", "27016"));
+        tree.put("motd", "hello");
+        tree.set(parser.parse(VDF_CONFIG.replace("alpha", "beta")));
+
+        Assert.assertEquals(3, batches.size());
+        assertChange(batches.get(0), 1, VDFDiff.Type.CHANGED, "server/port", "27015", "27016");
+        assertChange(batches.get(1), 2, VDFDiff.Type.ADDED, "motd", null, "hello");
+        Assert.assertEquals(3, batches.get(2).getVersion());
+        Assert.assertEquals(3, batches.get(2).getChanges().size());
+        Assert.assertSame(tree.get(), batches.get(2).getNewTree());
+        Assert.assertEquals("beta", tree.get().getSubNode("server").getString("name"));
+
+        // Reloading the same document changes nothing
+        tree.set(parser.parse(VDF_CONFIG.replace("alpha", "beta")));
+        Assert.assertEquals(3, batches.size());
+    }
+
+    @Test
+    public void testJoinAndReduce() {
+        List<VDFObservableTree.Batch> batches = new ArrayList<>();
+        VDFObservableTree tree = parser.parse(VDF_CONFIG).observe(Runnable::run).addListener(batches::add);
+
+        tree.join(parser.parse("server { slots 24 }"));
+        assertChange(batches.get(0), 1, VDFDiff.Type.ADDED, "server[1]", null, tree.get().getSubNode("server", 1));
+
+        tree.reduce(true);
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(2, batches.get(1).getChanges().size());
+        Assert.assertEquals("24", tree.get().getSubNode("server").getString("slots"));
+        Assert.assertEquals(1, tree.get().values("server"));
+    }
+
+    @Test
+    public void testExecutor() throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r);
+            thread.setUncaughtExceptionHandler((t, e) -> failures.incrementAndGet());
+            return thread;
+        });
+        List<Long> versions = new ArrayList<>();
+        VDFObservableTree tree = new VDFNode().observe(executor).addListener(batch -> {
+            synchronized(versions) {
+                versions.add(batch.getVersion());
+            }
+        });
+        tree.addListener(batch -> {
+            throw new IllegalStateException("Listeners that fail do not stop delivery");
+        });
+
+        for(int i = 0; i < 1000; i++)
+            tree.put("key", Integer.toString(i));
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1000, versions.size());
+        for(int i = 0; i < versions.size(); i++)
+            Assert.assertEquals(i + 1, (long) versions.get(i));
+        Assert.assertEquals(1000, failures.get());
+        Assert.assertEquals(1000, tree.get().values("key"));
+    }
+
+    private void assertChange(VDFObservableTree.Batch batch, long version, VDFDiff.Type type, String path,
+                              Object oldValue, Object newValue) {
+        Assert.assertEquals(version, batch.getVersion());
+        Assert.assertEquals(1, batch.getChanges().size());
+        VDFDiff.Change change = batch.getChanges().get(0);
+        Assert.assertEquals(type, change.getType());
+        Assert.assertEquals(path, change.getPath().toString());
+        Assert.assertEquals(oldValue, change.getOldValue());
+        Assert.assertEquals(newValue, change.getNewValue());
+    }
+
+}
@@ -6,9 +6,23 @@ import org.junit.Test;
 import java.awt.Color;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author Brendan Heinonen
@@ -188,4 +202,278 @@ public class TestParser {
                 .getString("key", 3));
     }
 
+    private static final String VDF_CONDITIONAL_TEST = "\"key\" \"pc\" [$WIN32||$OSX]\n" +
+            "\"key\" \"console\" [!$WIN32 && !$OSX]\n" +
+            "\"always\" \"value\"\n" +
+            "\"node\" [$X360]\n" +
+            "{\n" +
+            "    \"child\" \"value\" [$X360]\n" +
+            "}\n" +
+            "\"quoted\" \"[$WIN32]\"";
+
+    @Test
+    public void testConditionals() {
+        VDFNode root = parser.parse(VDF_CONDITIONAL_TEST);
+
+        Assert.assertEquals(2, root.values("key"));
+        Assert.assertEquals("$WIN32||$OSX", root.getCondition("key", 0).expression());
+        Assert.assertNull(root.getCondition("always", 0));
+        Assert.assertEquals("[$WIN32]", root.getString("quoted"));
+
+        VDFNode pc = root.view(new HashSet<>(Arrays.asList("WIN32")));
+        Assert.assertEquals(1, pc.values("key"));
+        Assert.assertEquals("pc", pc.getString("key"));
+        Assert.assertEquals("value", pc.getString("always"));
+        Assert.assertFalse(pc.containsKey("node"));
+
+        VDFNode console = root.view(Collections.singleton("X360"));
+        Assert.assertEquals("console", console.getString("key"));
+        Assert.assertEquals("value", console.getSubNode("node").getString("child"));
+    }
+
+    @Test(expected = VDFParseException.class)
+    public void testMalformedConditional() {
+        parser.parse("key value [$WIN32 &&]");
+    }
+
+    private static final String VDF_SLICE_TEST = "root { count 42 big 12345678901 negative \"-7\" " +
+            "quoted \"two words\" escaped \"say \\\"hi\\\"\" first \"\\\\path\" empty \"\" }";
+
+    @Test
+    public void testValueSlices() {
+        VDFNode root = new VDFParser().setValueSlices(true).parse(VDF_SLICE_TEST).getSubNode("root");
+
+        Assert.assertTrue(root.get("count")[0] instanceof VDFSlice);
+        Assert.assertTrue(root.get("quoted")[0] instanceof VDFSlice);
+        Assert.assertTrue(root.get("escaped")[0] instanceof String);
+
+        Assert.assertEquals(42, root.getInt("count"));
+        Assert.assertEquals(12345678901L, root.getLong("big"));
+        Assert.assertEquals(-7, root.getInt("negative"));
+        Assert.assertEquals("two words", root.getString("quoted"));
+        Assert.assertEquals("say \"hi\"", root.getString("escaped"));
+        Assert.assertEquals("\\path", root.getString("first"));
+        Assert.assertEquals("", root.getString("empty"));
+
+        VDFNode strings = parser.parse(VDF_SLICE_TEST);
+        Assert.assertEquals(0, new VDFDiff().changes(strings, new VDFParser().setValueSlices(true).parse(VDF_SLICE_TEST)).size());
+    }
+
+    private static final String VDF_ENCODED_TEST = "\"lang\"\n{\n\t\"Language\"\t\"russian\" // comment\n" +
+            "\t\"Tokens\"\n\t{\n\t\t\"greeting\"\t\"\u041f\u0440\u0438\u0432\u0435\u0442,   \\\"\u043c\u0438\u0440\\\"\"\n" +
+            "\t\t\"emoji\"\t\"\ud83d\ude00\"\n\t}\n}\n";
+
+    @Test
+    public void testEncodings() throws IOException {
+        VDFNode expected = parser.parse(VDF_ENCODED_TEST);
+        Assert.assertEquals("\u041f\u0440\u0438\u0432\u0435\u0442, \"\u043c\u0438\u0440\"",
+                expected.getSubNode("lang").getSubNode("Tokens").getString("greeting"));
+
+        byte[] utf8 = VDF_ENCODED_TEST.getBytes(StandardCharsets.UTF_8);
+        byte[] utf8Bom = concat(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF }, utf8);
+        byte[] utf16le = concat(new byte[] { (byte) 0xFF, (byte) 0xFE }, VDF_ENCODED_TEST.getBytes(StandardCharsets.UTF_16LE));
+        byte[] utf16be = VDF_ENCODED_TEST.getBytes(StandardCharsets.UTF_16);
+
+        VDFDiff diff = new VDFDiff();
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(utf8)).size());
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(utf8Bom)).size());
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(new ByteArrayInputStream(utf16le))).size());
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(utf16be)).size());
+        Assert.assertEquals(0, diff.changes(expected,
+                parser.parse(VDF_ENCODED_TEST.getBytes(StandardCharsets.UTF_16LE))).size());
+    }
+
+    @Test
+    public void testEncodedCorpus() {
+        String corpus = new VDFCorpusGenerator().setSeed(37).setSize(1 << 18).setCommentRatio(0.2)
+                .setEscapeRatio(0.2).generate();
+        VDFNode expected = parser.parse(corpus);
+
+        VDFDiff diff = new VDFDiff();
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(corpus.getBytes(StandardCharsets.UTF_8))).size());
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(corpus.getBytes(StandardCharsets.UTF_16))).size());
+    }
+
+    private static final String VDF_MIXED_CASE = "Root { Name first NAME second Sub { Key value } } other value";
+
+    @Test
+    public void testIgnoreCase() {
+        VDFNode root = new VDFParser().setIgnoreCase(true).parse(VDF_MIXED_CASE);
+        VDFNode node = root.getSubNode("ROOT");
+
+        // Keys that differ only in case share one multimap, which keeps the first spelling
+        Assert.assertEquals(2, node.values("name"));
+        Assert.assertEquals("second", node.getString("nAmE", 1));
+        Assert.assertEquals(Arrays.asList("Name", "Sub"), new ArrayList<>(node.keySet()));
+        Assert.assertEquals("value", node.getSubNode("sub").getString("KEY"));
+        Assert.assertTrue(new VDFWriter().write(root, false).contains("Name"));
+
+        // Snapshots, flat trees and reduced trees look keys up the same way
+        Assert.assertEquals("value", root.freeze().getSubNode("root").getSubNode("SUB").getString("key"));
+        Assert.assertEquals("value", VDFFlatTree.encode(root).root().getSubNode("ROOT").getSubNode("sub")
+                .getString("kEY"));
+        Assert.assertEquals("value", root.reduce().getSubNode("root").getSubNode("SUB").getString("key"));
+        Assert.assertEquals("first", new VDFInterner().intern(root).getSubNode("ROOT").getString("name"));
+        Assert.assertTrue(VDFFlatTree.encode(root).isIgnoreCase());
+
+        // The default mode is unaffected
+        VDFNode exact = parser.parse(VDF_MIXED_CASE);
+        Assert.assertNull(exact.getString("OTHER"));
+        Assert.assertFalse(VDFFlatTree.encode(exact).isIgnoreCase());
+    }
+
+    @Test
+    public void testSession() {
+        String corpus = new VDFCorpusGenerator().setSeed(43).setSize(1 << 16).setCommentRatio(0.2)
+                .setEscapeRatio(0.2).generate();
+        VDFParserSession session = parser.newSession();
+
+        VDFDiff diff = new VDFDiff();
+        for(int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, diff.changes(parser.parse(corpus), session.parse(corpus)).size());
+            Assert.assertEquals(VDF_CHILD_TEST_RESULT, session.parse(VDF_CHILD_TEST).getSubNode("root")
+                    .getSubNode("child").getString("key"));
+        }
+
+        // A failed parse does not leave anything behind for the next one
+        try {
+            session.parse(VDF_UNDERFLOW_TEST);
+            Assert.fail();
+        } catch(VDFParseException e) {
+            Assert.assertEquals("value", session.parse("key value").getString("key"));
+        }
+
+        Assert.assertEquals(0, diff.changes(parser.parse(corpus, VDFProjection.of("*/*/name")),
+                session.parse(corpus, VDFProjection.of("*/*/name"))).size());
+        Assert.assertEquals("value", new VDFParser().setIgnoreCase(true).newSession().parse("Key value")
+                .getString("KEY"));
+    }
+
+    @Test
+    public void testSpecialBytes() {
+        String specials = " \t\n\r\"/[\\]{}";
+        Random random = new Random(44);
+        for(int n = 0; n < 100000; n++) {
+            // Mostly ordinary characters, with the odd special or non-ASCII byte
+            long word = 0;
+            int expected = 8;
+            for(int i = 7; i >= 0; i--) {
+                int b = 0x21 + random.nextInt(0x7F - 0x21);
+                int roll = random.nextInt(16);
+                if(roll == 0)
+                    b = specials.charAt(random.nextInt(specials.length()));
+                else if(roll == 1)
+                    b = 0x80 + random.nextInt(0x80);
+                else if(roll == 2)
+                    b = random.nextInt(0x21);
+
+                if(b <= ' ' || specials.indexOf(b) >= 0 || b >= 0x80)
+                    expected = i;
+                word = word << 8 | b;
+            }
+
+            Assert.assertEquals(expected, Long.numberOfTrailingZeros(VDFTokenizer.special(word)) >>> 3);
+        }
+    }
+
+    @Test
+    public void testCompressed() throws IOException {
+        String corpus = new VDFCorpusGenerator().setSeed(46).setSize(1 << 18).setCommentRatio(0.2)
+                .setEscapeRatio(0.2).generate();
+        VDFNode expected = parser.parse(corpus);
+        byte[] utf8 = corpus.getBytes(StandardCharsets.UTF_8);
+        byte[] gzip = gzip(utf8);
+        byte[] zlib = deflate(utf8);
+
+        VDFDiff diff = new VDFDiff();
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(gzip)).size());
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(zlib)).size());
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(new ByteArrayInputStream(gzip))).size());
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(new GZIPInputStream(
+                new ByteArrayInputStream(gzip)))).size());
+        Assert.assertEquals(0, diff.changes(expected, parser.parse(gzip(corpus.getBytes(StandardCharsets.UTF_16))))
+                .size());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            VDFParser background = new VDFParser().setReadExecutor(executor);
+            Assert.assertEquals(0, diff.changes(expected, background.parse(new ByteArrayInputStream(zlib))).size());
+            Assert.assertEquals(0, diff.changes(parser.parse(corpus, VDFProjection.of("*/*/name")),
+                    background.parse(new ByteArrayInputStream(gzip), VDFProjection.of("*/*/name"))).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testPreprocessedStream() throws IOException {
+        // Custom preprocessors need the whole document, which is larger than the window a background read keeps
+        String corpus = new VDFCorpusGenerator().setSeed(48).setSize(3 << 20).generate();
+        byte[] utf8 = corpus.getBytes(StandardCharsets.UTF_8);
+        VDFNode expected = parser.parse(corpus);
+
+        VDFDiff diff = new VDFDiff();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            VDFParser background = new VDFParser(new VDFPreprocessor() {}).setReadExecutor(executor);
+            Assert.assertEquals(0, diff.changes(expected, background.parse(new ByteArrayInputStream(utf8))).size());
+            Assert.assertEquals(0, diff.changes(expected, background.parse(new ByteArrayInputStream(gzip(utf8))))
+                    .size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTrickledStream() throws IOException {
+        String corpus = new VDFCorpusGenerator().setSeed(146).setSize(1 << 16).setCommentRatio(0.2)
+                .setEscapeRatio(0.2).setConditionalRatio(0.1).generate();
+        byte[] utf8 = concat(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF },
+                corpus.getBytes(StandardCharsets.UTF_8));
+
+        // A stream that hands out a few bytes at a time splits lines, tokens and characters at every position
+        Random random = new Random(46);
+        InputStream trickle = new ByteArrayInputStream(utf8) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1 + random.nextInt(7)));
+            }
+        };
+
+        VDFDiff diff = new VDFDiff();
+        Assert.assertEquals(0, diff.changes(parser.parse(corpus), parser.parse(trickle)).size());
+
+        trickle.reset();
+        Assert.assertEquals(0, diff.changes(parser.parse(corpus, VDFProjection.of("*/*")),
+                parser.parse(trickle, VDFProjection.of("*/*"))).size());
+    }
+
+    @Test(expected = VDFParseException.class)
+    public void testCorruptCompressed() throws IOException {
+        byte[] gzip = gzip(VDF_SAMPLE.getBytes(StandardCharsets.UTF_8));
+        parser.parse(Arrays.copyOf(gzip, gzip.length / 2));
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(DeflaterOutputStream deflate = new DeflaterOutputStream(out)) {
+            deflate.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
 }
@@ -43,4 +43,12 @@ public class TestPreprocessor {
         Assert.assertEquals(VDF_NEWLINE_DELIM_TEST_RESULT, preprocessor.process(VDF_NEWLINE_DELIM_TEST));
     }
 
+    private static final String VDF_CONDITIONAL_TEST = "\"key\"   \"value\"   [$WIN32]  // comment";
+    private static final String VDF_CONDITIONAL_TEST_RESULT = "\"key\" \"value\" [$WIN32] ";
+
+    @Test
+    public void testConditionalKept() {
+        Assert.assertEquals(VDF_CONDITIONAL_TEST_RESULT, preprocessor.process(VDF_CONDITIONAL_TEST));
+    }
+
 }
@@ -0,0 +1,115 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestProjection {
+
+    private static final String VDF_SCHEMA = "\"items_game\"\n{\n" +
+            "\t\"items\"\n\t{\n" +
+            "\t\t\"1\"\n\t\t{\n" +
+            "\t\t\t\"name\"\t\"Knife\"\n" +
+            "\t\t\t\"description\"\t\"Has a } brace and \\\"quotes {\\\"\"\n" +
+            "\t\t\t\"attributes\" // { unbalanced comment\n\t\t\t{\n" +
+            "\t\t\t\t\"damage\"\t\"12\"\n" +
+            "\t\t\t\t\"odd\"\t\"[{\"\t[$WIN32]\n" +
+            "\t\t\t}\n" +
+            "\t\t}\n" +
+            "\t\t\"2\"\n\t\t{\n" +
+            "\t\t\t\"icon\" [$X360] \"icon.png\"\n" +
+            "\t\t\t\"name\"\t\"Pistol\"\t[$WIN32]\n" +
+            "\t\t\t\"tags\" { \"a\" \"1\" \"b\" \"2\" }\n" +
+            "\t\t}\n" +
+            "\t\t\"unquoted\" value\n" +
+            "\t}\n" +
+            "\t\"prefabs\"\n\t{\n\t\t\"weapon\" { \"slot\" \"primary\" }\n\t}\n" +
+            "\t\"qualities\" { \"normal\" { \"value\" \"0\" } }\n" +
+            "}\n";
+
+    @Test
+    public void testProjection() {
+        VDFProjection projection = VDFProjection.of("items_game/items/*/name", "items_game/prefabs");
+        VDFNode schema = new VDFParser().parse(VDF_SCHEMA, projection).getSubNode("items_game");
+
+        Assert.assertEquals(2, schema.size());
+        Assert.assertFalse(schema.containsKey("qualities"));
+        Assert.assertEquals("primary", schema.getSubNode("prefabs").getSubNode("weapon").getString("slot"));
+
+        VDFNode items = schema.getSubNode("items");
+        Assert.assertEquals(2, items.size());
+        Assert.assertEquals(1, items.getSubNode("1").size());
+        Assert.assertEquals("Knife", items.getSubNode("1").getString("name"));
+        Assert.assertEquals("Pistol", items.getSubNode("2").getString("name"));
+        Assert.assertEquals("$WIN32", items.getSubNode("2").getCondition("name", 0).expression());
+        Assert.assertNull(items.getSubNode("2").getCondition("icon", 0));
+
+        VDFDiff diff = new VDFDiff();
+        VDFNode full = new VDFParser().parse(VDF_SCHEMA);
+        for(String[] patterns : new String[][] {
+                { "items_game/items/*/name", "items_game/prefabs" },
+                { "*/*/*/attributes" },
+                { "*/items/2/*", "*/qualities/normal" },
+                { "*" },
+                { "missing" } }) {
+            VDFNode expected = project(full, VDFProjection.of(patterns));
+            Assert.assertEquals(0, diff.changes(expected, new VDFParser().parse(VDF_SCHEMA, VDFProjection.of(patterns))).size());
+            Assert.assertEquals(0, diff.changes(expected, new VDFParser().parse(
+                    VDF_SCHEMA.getBytes(StandardCharsets.UTF_8), VDFProjection.of(patterns))).size());
+        }
+    }
+
+    @Test
+    public void testCorpus() {
+        String corpus = new VDFCorpusGenerator().setSeed(40).setSize(1 << 18).setCommentRatio(0.2)
+                .setEscapeRatio(0.2).setConditionalRatio(0.1).generate();
+        VDFNode full = new VDFParser().parse(corpus);
+
+        String first = full.firstKey();
+        VDFDiff diff = new VDFDiff();
+        for(String pattern : new String[] { "*", "*/*", "*/*/*", first, first + "/*/*" }) {
+            VDFProjection projection = VDFProjection.of(pattern);
+            VDFNode expected = project(full, projection);
+            Assert.assertEquals(pattern, 0, diff.changes(expected, new VDFParser().parse(corpus, projection)).size());
+            Assert.assertEquals(pattern, 0, diff.changes(expected, new VDFParser().parse(
+                    corpus.getBytes(StandardCharsets.UTF_8), projection)).size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyKey() {
+        VDFProjection.of("items//name");
+    }
+
+    /**
+     * Applies a projection to a parsed tree, the slow way.
+     */
+    private static VDFNode project(VDFNode full, VDFProjection projection) {
+        return project(full, projection, new String[64], 1);
+    }
+
+    private static VDFNode project(VDFNode node, VDFProjection projection, String[] ancestors, int depth) {
+        VDFNode result = new VDFNode();
+        for(Map.Entry<String, Object[]> e : node.entrySet()) {
+            String key = e.getKey();
+            int match = projection.match(ancestors, depth, key, false);
+            Object[] values = e.getValue();
+            for(int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if(match == VDFProjection.SELECT) {
+                    result.put(key, value, node.getCondition(key, i));
+                } else if(match == VDFProjection.DESCEND && value instanceof VDFNode) {
+                    ancestors[depth] = key;
+                    result.put(key, project((VDFNode) value, projection, ancestors, depth + 1), node.getCondition(key, i));
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,157 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestSchema {
+
+    private static final String VDF_ITEMS = "\"items_game\"\n{\n" +
+            "\t\"items\"\n\t{\n" +
+            "\t\t\"1\"\n\t\t{\n" +
+            "\t\t\t\"name\"\t\"Knife\"\n" +
+            "\t\t\t\"item_quality\"\t\"4\"\n" +
+            "\t\t\t\"weight\"\t\"1.50\"\n" +
+            "\t\t\t\"owner\"\t\"76561197960287930\"\n" +
+            "\t\t}\n" +
+            "\t\t\"2\"\n\t\t{\n" +
+            "\t\t\t\"name\"\t\"1234\"\n" +
+            "\t\t\t\"item_quality\"\t\"-12\" [$WIN32]\n" +
+            "\t\t\t\"item_quality\"\t\"2147483647\"\n" +
+            "\t\t\t\"weight\"\t\"3\"\n" +
+            "\t\t\t\"owner\"\t\"0\"\n" +
+            "\t\t}\n" +
+            "\t\t\"default\" { \"item_quality\" \"0007\" \"weight\" \"0\" }\n" +
+            "\t}\n" +
+            "\t\"version\"\t\"2\"\n" +
+            "}\n";
+
+    private static final String VDF_SCHEMA_DEFINITION = "\"items_game\"\n{\n" +
+            "\t\"items\"\n\t{\n" +
+            "\t\t\"*\" { \"item_quality\" \"int\" \"weight\" \"float\" \"owner\" \"long\" \"name\" \"string\" }\n" +
+            "\t\t\"default\" { \"weight\" \"string\" }\n" +
+            "\t}\n" +
+            "\t\"version\"\t\"INT\"\n" +
+            "}\n";
+
+    private static VDFSchema schema() {
+        return VDFSchema.builder()
+                .type("items_game/items/*/item_quality", VDFSchema.Type.INT)
+                .type("items_game/items/*/weight", VDFSchema.Type.FLOAT)
+                .type("items_game/items/*/owner", VDFSchema.Type.LONG)
+                .type("items_game/items/*/name", VDFSchema.Type.STRING)
+                .type("items_game/items/default/weight", VDFSchema.Type.STRING)
+                .type("items_game/version", VDFSchema.Type.INT)
+                .build();
+    }
+
+    @Test
+    public void testTypedValues() {
+        VDFSchema schema = schema();
+        VDFParser parser = new VDFParser().setSchema(schema);
+
+        for(VDFNode root : new VDFNode[] { parser.parse(VDF_ITEMS),
+                parser.parse(VDF_ITEMS.getBytes(StandardCharsets.UTF_8)),
+                parser.newSession().parse(VDF_ITEMS),
+                new VDFParser().setValueSlices(true).setSchema(schema).parse(VDF_ITEMS) }) {
+            VDFNode game = root.getSubNode("items_game");
+            Assert.assertEquals(2, game.get("version")[0]);
+
+            VDFNode knife = game.getSubNode("items").getSubNode("1");
+            Assert.assertEquals("Knife", knife.getString("name"));
+            Assert.assertEquals(4, knife.get("item_quality")[0]);
+            Assert.assertEquals(1.5f, knife.get("weight")[0]);
+            Assert.assertEquals(76561197960287930L, knife.get("owner")[0]);
+            Assert.assertEquals(4, knife.getInt("item_quality"));
+            Assert.assertEquals(1.5f, knife.getFloat("weight"), 0);
+            Assert.assertEquals(76561197960287930L, knife.getLong("owner"));
+            Assert.assertEquals("1.5", knife.getString("weight"));
+
+            VDFNode pistol = game.getSubNode("items").getSubNode("2");
+            Assert.assertEquals("1234", pistol.get("name")[0].toString());
+            Assert.assertFalse(pistol.get("name")[0] instanceof Number);
+            Assert.assertArrayEquals(new Object[] { -12, Integer.MAX_VALUE }, pistol.get("item_quality"));
+            Assert.assertEquals("$WIN32", pistol.getCondition("item_quality", 0).expression());
+            Assert.assertEquals(3f, pistol.get("weight")[0]);
+            Assert.assertEquals(0L, pistol.get("owner")[0]);
+
+            // The exact key overrides the wildcard
+            VDFNode defaults = game.getSubNode("items").getSubNode("default");
+            Assert.assertEquals(7, defaults.get("item_quality")[0]);
+            Assert.assertEquals("0", defaults.get("weight")[0].toString());
+        }
+    }
+
+    @Test
+    public void testSchemaDefinition() {
+        VDFSchema schema = VDFSchema.of(new VDFParser().parse(VDF_SCHEMA_DEFINITION));
+        Assert.assertEquals(VDFSchema.Type.INT, schema.typeOf(VDFPath.parse("items_game/items/5/item_quality")));
+        Assert.assertEquals(VDFSchema.Type.STRING, schema.typeOf(VDFPath.parse("items_game/items/default/weight")));
+        Assert.assertEquals(VDFSchema.Type.FLOAT, schema.typeOf(VDFPath.parse("items_game/items/2/weight")));
+        Assert.assertNull(schema.typeOf(VDFPath.parse("items_game/items/2/missing")));
+        Assert.assertNull(schema.typeOf(VDFPath.parse("items_game/items")));
+
+        VDFDiff diff = new VDFDiff();
+        VDFParser builtIn = new VDFParser().setSchema(schema());
+        VDFParser loaded = new VDFParser().setSchema(schema);
+        Assert.assertEquals(0, diff.changes(builtIn.parse(VDF_ITEMS), loaded.parse(VDF_ITEMS)).size());
+
+        // Typed values write out as numbers and read back the same
+        VDFNode typed = loaded.parse(VDF_ITEMS);
+        VDFNode reparsed = loaded.parse(new VDFWriter().write(typed, false));
+        Assert.assertEquals(0, diff.changes(typed, reparsed).size());
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        VDFNode root = new VDFParser().setIgnoreCase(true).setSchema(schema()).parse(VDF_ITEMS.replace("items", "Items"));
+        VDFNode knife = root.getSubNode("items_game").getSubNode("items").getSubNode("1");
+        Assert.assertEquals(4, knife.get("item_quality")[0]);
+    }
+
+    @Test
+    public void testMismatch() {
+        VDFParser parser = new VDFParser().setSchema(schema());
+        String[] invalid = {
+                VDF_ITEMS.replace("\"-12\"", "\"twelve\""),
+                VDF_ITEMS.replace("\"2147483647\"", "\"2147483648\""),
+                VDF_ITEMS.replace("\"1.50\"", "\"heavy\""),
+                VDF_ITEMS.replace("\"item_quality\"\t\"4\"", "\"item_quality\" { \"value\" \"4\" }")
+        };
+        String[] paths = {
+                "items_game/items/2/item_quality",
+                "items_game/items/2/item_quality[1]",
+                "items_game/items/1/weight",
+                "items_game/items/1/item_quality"
+        };
+
+        for(int i = 0; i < invalid.length; i++) {
+            for(int utf8 = 0; utf8 < 2; utf8++) {
+                try {
+                    if(utf8 == 0)
+                        parser.parse(invalid[i]);
+                    else
+                        parser.parse(invalid[i].getBytes(StandardCharsets.UTF_8));
+                    Assert.fail("Parsed " + paths[i]);
+                } catch(VDFParseException e) {
+                    Assert.assertTrue(e.getMessage(), e.getMessage().contains(" of " + paths[i] + " is "));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConflictingTypes() {
+        VDFSchema.builder().type("a/b", VDFSchema.Type.INT).type("a/b", VDFSchema.Type.FLOAT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownType() {
+        VDFSchema.of(new VDFParser().parse("a { b double }"));
+    }
+
+}
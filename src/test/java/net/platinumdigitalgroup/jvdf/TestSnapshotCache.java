@@ -0,0 +1,111 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestSnapshotCache {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final VDFParser parser = new VDFParser().setSnapshotCache(true);
+
+    private Path write(String name, String vdf) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, vdf.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testSnapshotWritten() throws Exception {
+        Path file = write("config.txt", "root { key value }");
+        VDFNode first = parser.parse(file);
+
+        Assert.assertTrue(Files.exists(VDFSnapshotCache.snapshotOf(file)));
+        Assert.assertTrue(first instanceof VDFFlatNode);
+        Assert.assertEquals("value", first.getSubNode("root").getString("key"));
+    }
+
+    @Test
+    public void testSnapshotUsed() throws Exception {
+        Path file = write("config.txt", "root { key value }");
+        parser.parse(file);
+
+        // A parser that counts its parses shows that the second load does not parse
+        int[] parses = new int[1];
+        VDFParser counting = new VDFParser().setSnapshotCache(true).setMetricsListener(m -> parses[0]++);
+        VDFNode cached = counting.parse(file);
+
+        Assert.assertEquals(0, parses[0]);
+        Assert.assertEquals("value", cached.getSubNode("root").getString("key"));
+    }
+
+    @Test
+    public void testIgnoreCaseSnapshot() throws Exception {
+        Path file = write("config.txt", "Root { Key value }");
+        parser.parse(file);
+
+        // A snapshot written in the other key mode is not reused
+        VDFParser ignoreCase = new VDFParser().setSnapshotCache(true).setIgnoreCase(true);
+        Assert.assertEquals("value", ignoreCase.parse(file).getSubNode("root").getString("key"));
+        Assert.assertEquals("value", ignoreCase.parse(file).getSubNode("ROOT").getString("KEY"));
+        Assert.assertNull(parser.parse(file).getSubNode("root"));
+    }
+
+    @Test
+    public void testStaleSnapshot() throws Exception {
+        Path file = write("config.txt", "root { key value }");
+        parser.parse(file);
+
+        write("config.txt", "root { key changed }");
+        Assert.assertEquals("changed", parser.parse(file).getSubNode("root").getString("key"));
+        Assert.assertEquals("changed", parser.parse(file).getSubNode("root").getString("key"));
+    }
+
+    @Test
+    public void testCorruptSnapshot() throws Exception {
+        Path file = write("config.txt", "root { key value }");
+        Files.write(VDFSnapshotCache.snapshotOf(file), "garbage".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals("value", parser.parse(file).getSubNode("root").getString("key"));
+    }
+
+    @Test
+    public void testSchemaBypassesSnapshot() throws Exception {
+        Path file = write("config.txt", "root { bad x port 1 }");
+        parser.parse(file);
+
+        // A snapshot holds strings only, so a parser with a schema parses the file again
+        VDFSchema schema = VDFSchema.builder().type("root/port", VDFSchema.Type.INT).build();
+        VDFParser typed = new VDFParser().setSnapshotCache(true).setSchema(schema);
+        Assert.assertEquals(1, typed.parse(file).getSubNode("root").get("port")[0]);
+
+        VDFParser strict = new VDFParser().setSnapshotCache(true)
+                .setSchema(VDFSchema.builder().type("root/bad", VDFSchema.Type.INT).build());
+        try {
+            strict.parse(file);
+            Assert.fail();
+        } catch(VDFParseException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("root/bad"));
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        Path file = write("config.txt", "root { key value }");
+        VDFNode root = new VDFParser().parse(file);
+
+        Assert.assertFalse(Files.exists(VDFSnapshotCache.snapshotOf(file)));
+        Assert.assertEquals("value", root.getSubNode("root").getString("key"));
+    }
+
+}
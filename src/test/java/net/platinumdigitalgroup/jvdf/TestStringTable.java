@@ -0,0 +1,112 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestStringTable {
+
+    private static final String VDF_LANG = "\"lang\"\n{\n" +
+            "\t\"Language\"\t\"english\"\n" +
+            "\t\"Tokens\"\n\t{\n" +
+            "\t\t\"DOTA_Tooltip_ability_a\"\t\"Ability A\"\n" +
+            "\t\t\"DOTA_Tooltip_ability_b\"\t\"Ability B\"\n" +
+            "\t\t\"DOTA_Hero_Name\"\t\"Hero\"\n" +
+            "\t\t\"dota_tooltip_other\"\t\"Other\"\n" +
+            "\t\t\"Platform\"\t\"PC\"\t[$WIN32]\n" +
+            "\t\t\"Platform\"\t\"Console\"\t[$X360]\n" +
+            "\t}\n}\n";
+
+    @Test
+    public void testLookup() {
+        VDFNode lang = new VDFParser().setStringTable("lang/Tokens", false).parse(VDF_LANG).getSubNode("lang");
+        VDFNode tokens = lang.getSubNode("Tokens");
+
+        Assert.assertTrue(tokens instanceof VDFStringTableNode);
+        Assert.assertFalse(lang instanceof VDFStringTableNode);
+        Assert.assertEquals(5, tokens.size());
+        Assert.assertEquals("Ability A", tokens.getString("DOTA_Tooltip_ability_a"));
+        Assert.assertNull(tokens.getString("dota_tooltip_ability_a"));
+        Assert.assertEquals(2, tokens.values("Platform"));
+        Assert.assertEquals("Console", tokens.getString("Platform", 1));
+        Assert.assertEquals("$X360", tokens.getCondition("Platform", 1).expression());
+        Assert.assertEquals("PC", tokens.view(Collections.singleton("WIN32")).getString("Platform"));
+
+        VDFNode plain = new VDFParser().parse(VDF_LANG);
+        VDFNode table = new VDFParser().setStringTable("lang/Tokens", false).parse(VDF_LANG);
+        Assert.assertEquals(0, new VDFDiff().changes(plain, table).size());
+        Assert.assertEquals(new VDFWriter().write(plain, true), new VDFWriter().write(table, true));
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        VDFNode tokens = new VDFParser().setStringTable("LANG/tokens", true).parse(VDF_LANG)
+                .getSubNode("lang").getSubNode("Tokens");
+
+        Assert.assertEquals("Ability A", tokens.getString("dota_tooltip_ability_a"));
+        Assert.assertEquals("Hero", tokens.getString("DOTA_HERO_NAME"));
+        Assert.assertTrue(tokens.containsKey("platform"));
+        Assert.assertFalse(tokens.containsKey("missing"));
+    }
+
+    @Test
+    public void testPrefix() {
+        VDFStringTableNode tokens = (VDFStringTableNode) new VDFParser().setStringTable("lang/Tokens", true)
+                .parse(VDF_LANG).getSubNode("lang").getSubNode("Tokens");
+
+        List<String> keys = tokens.withPrefix("dota_tooltip_").map(Map.Entry::getKey).collect(Collectors.toList());
+        Assert.assertEquals(3, keys.size());
+        Assert.assertEquals("DOTA_Tooltip_ability_a", keys.get(0));
+        Assert.assertEquals("dota_tooltip_other", keys.get(2));
+
+        Assert.assertEquals(2, tokens.withPrefix("Platform").count());
+        Assert.assertEquals(0, tokens.withPrefix("zzz").count());
+    }
+
+    @Test
+    public void testLargeTable() {
+        StringBuilder vdf = new StringBuilder("lang { Tokens {\n");
+        for(int i = 0; i < 10000; i++)
+            vdf.append("\"token_").append(i).append("\" \"value ").append(i).append("\"\n");
+        vdf.append("} }");
+
+        VDFNode tokens = new VDFParser().setStringTable("lang/Tokens", false).parse(vdf.toString())
+                .getSubNode("lang").getSubNode("Tokens");
+        Assert.assertEquals(10000, tokens.size());
+        for(int i = 0; i < 10000; i++)
+            Assert.assertEquals("value " + i, tokens.getString("token_" + i));
+        Assert.assertEquals("token_0", tokens.firstKey());
+    }
+
+    @Test
+    public void testReduceKeepsConditionals() {
+        VDFNode lang = new VDFParser().setStringTable("lang/Tokens", true)
+                .parse("lang { Tokens [$WIN32] { a b } Tokens [$X360] { c d } }").reduce().getSubNode("lang");
+
+        // Reducing replaces the tables with mutable copies, which keep their conditionals
+        Assert.assertFalse(lang.getSubNode("Tokens") instanceof VDFStringTableNode);
+        Assert.assertEquals("b", lang.getSubNode("Tokens", 0).getString("a"));
+        Assert.assertEquals("$WIN32", lang.getCondition("Tokens", 0).expression());
+        Assert.assertEquals("d", lang.getSubNode("Tokens", 1).getString("c"));
+        Assert.assertEquals("$X360", lang.getCondition("Tokens", 1).expression());
+    }
+
+    @Test(expected = VDFParseException.class)
+    public void testSubNode() {
+        new VDFParser().setStringTable("lang/Tokens", false).parse("lang { Tokens { key { child value } } }");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() {
+        new VDFParser().setStringTable("lang/Tokens", false).parse(VDF_LANG)
+                .getSubNode("lang").getSubNode("Tokens").put("key", "value");
+    }
+
+}
@@ -0,0 +1,122 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestTranscoder {
+
+    private static final String VDF_SORTED = "\"other\" \"5\"\n" +
+            "\"root\" {\n" +
+            "    \"a\" \"1\"\n" +
+            "    \"b\" {\n" +
+            "        \"c\" \"x y\"\n" +
+            "        \"c\" \"z\"\n" +
+            "        \"e\" {}\n" +
+            "    }\n" +
+            "    \"d\" \"q\\\"\\n\" [$WIN32]\n" +
+            "}\n";
+
+    @Test
+    public void testToJson() {
+        VDFTranscoder transcoder = new VDFTranscoder();
+        Assert.assertEquals("{\"other\":\"5\",\"root\":{\"a\":\"1\",\"b\":{\"c\":\"x y\",\"c\":\"z\",\"e\":{}}," +
+                "\"d\":\"q\\\"\\n\"}}", transcoder.toJson(VDF_SORTED));
+        Assert.assertEquals("{}", transcoder.toJson(""));
+        Assert.assertEquals("{\"c\":\"a\\\\b\\u0001\"}", transcoder.toJson("c \"a\\\\b\u0001\""));
+
+        transcoder.setMultimap(VDFTranscoder.Multimap.ARRAYS);
+        Assert.assertEquals("{\"other\":[\"5\"],\"root\":[{\"a\":[\"1\"],\"b\":[{\"c\":[\"x y\",\"z\"],\"e\":[{}]}]," +
+                "\"d\":[\"q\\\"\\n\"]}]}", transcoder.toJson(VDF_SORTED));
+        Assert.assertEquals("{\"k\":[\"1\",\"2\"],\"j\":[\"3\"],\"k\":[{}]}", transcoder.toJson("k 1 k 2 j 3 k {}"));
+    }
+
+    @Test
+    public void testSchema() {
+        VDFSchema schema = VDFSchema.builder()
+                .type("root/a", VDFSchema.Type.INT)
+                .type("root/*/f", VDFSchema.Type.FLOAT)
+                .build();
+        VDFTranscoder transcoder = new VDFTranscoder().setSchema(schema);
+        Assert.assertEquals("{\"root\":{\"a\":-12,\"b\":{\"f\":1.5,\"f\":\"NaN\",\"g\":\"2\"}}}",
+                transcoder.toJson("root { a -12 b { f 1.50 f NaN g 2 } }"));
+
+        try {
+            transcoder.toJson("root { a twelve }");
+            Assert.fail();
+        } catch(VDFParseException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("root/a"));
+        }
+    }
+
+    @Test
+    public void testToVdf() {
+        VDFTranscoder transcoder = new VDFTranscoder();
+        String withoutConditional = VDF_SORTED.replace(" [$WIN32]", "");
+        Assert.assertEquals(withoutConditional, transcoder.toVdf(transcoder.toJson(VDF_SORTED)));
+        Assert.assertEquals(withoutConditional, new VDFWriter().write(new VDFParser().parse(withoutConditional), false));
+
+        Assert.assertEquals("\"k\" \"1\"\n\"k\" \"a\"\n\"k\" {}\n\"k\" \"2.50e3\"\n\"t\" \"1\"\n\"f\" \"0\"\n" +
+                        "\"n\" \"\"\n\"u\" \"\u00e9/\\\\\"\n",
+                transcoder.toVdf(" { \"k\" : [ 1, [\"a\", {}] ], \"k\": 2.50e3, \"t\": true, \"f\": false, " +
+                        "\"n\": null, \"u\": \"\\u00e9\\/\\\\\" } "));
+        Assert.assertEquals("", transcoder.toVdf("{}"));
+
+        for(String malformed : new String[] { "[]", "{\"a\" 1}", "{\"a\": 1,}", "{\"a\": tru}", "{\"a\": \"b}",
+                "{\"a\": 1} 2", "{\"a\": 1.2.3}", "{\"a\": {}", "{\"a\": \"\\x\"}" }) {
+            try {
+                transcoder.toVdf(malformed);
+                Assert.fail(malformed);
+            } catch(VDFParseException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("line 1"));
+            }
+        }
+    }
+
+    @Test
+    public void testDeepJson() throws IOException {
+        int depth = 100000;
+        StringBuilder json = new StringBuilder("{\"a\":");
+        for(int i = 0; i < depth; i++)
+            json.append('[');
+        json.append("1,{}");
+        for(int i = 0; i < depth; i++)
+            json.append(']');
+        json.append('}');
+
+        StringBuilder vdf = new StringBuilder();
+        new VDFTranscoder().toVdf(new StringReader(json.toString()), vdf);
+        Assert.assertEquals("\"a\" \"1\"\n\"a\" {}\n", vdf.toString());
+    }
+
+    @Test
+    public void testCorpus() throws IOException {
+        String corpus = new VDFCorpusGenerator().setSeed(48).setSize(1 << 20).setCommentRatio(0.2)
+                .setEscapeRatio(0.2).setConditionalRatio(0).generate();
+        VDFTranscoder transcoder = new VDFTranscoder();
+        String json = transcoder.toJson(corpus);
+
+        VDFDiff diff = new VDFDiff();
+        VDFParser parser = new VDFParser();
+        Assert.assertEquals(0, diff.changes(parser.parse(corpus), parser.parse(transcoder.toVdf(json))).size());
+
+        // Streams are read in a window much smaller than the corpus
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(corpus.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder streamed = new StringBuilder();
+        transcoder.toJson(new ByteArrayInputStream(compressed.toByteArray()), streamed);
+        Assert.assertEquals(json, streamed.toString());
+    }
+
+}
@@ -0,0 +1,79 @@
+package net.platinumdigitalgroup.jvdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brendan Heinonen
+ */
+public class TestWalk {
+
+    private final VDFParser parser = new VDFParser();
+
+    @Test
+    public void testOrder() {
+        VDFNode root = parser.parse("a { x 1 y { z 2 } } b 3 b 4");
+
+        List<String> paths = root.walk().map(e -> e.getKey().toString()).collect(Collectors.toList());
+        Assert.assertEquals("[a, a/x, a/y, a/y/z, b, b[1]]", paths.toString());
+
+        List<Object> leaves = root.leaves().map(Map.Entry::getValue).collect(Collectors.toList());
+        Assert.assertEquals("[1, 2, 3, 4]", leaves.toString());
+        Assert.assertEquals(0, new VDFNode().walk().count());
+    }
+
+    @Test
+    public void testParallel() {
+        VDFNode root = parser.parse(new VDFCorpusGenerator().setSeed(41).setSize(1 << 20).generate());
+
+        List<Map.Entry<VDFPath, Object>> expected = new ArrayList<>();
+        collect(root, VDFPath.ROOT, expected);
+
+        List<Map.Entry<VDFPath, Object>> sequential = root.walk().collect(Collectors.toList());
+        List<Map.Entry<VDFPath, Object>> parallel = root.walk().parallel().collect(Collectors.toList());
+        Assert.assertEquals(expected, sequential);
+        Assert.assertEquals(expected, parallel);
+
+        Assert.assertEquals(expected.stream().filter(e -> !(e.getValue() instanceof VDFNode)).count(),
+                root.leaves().parallel().count());
+        Assert.assertTrue(root.leaves().parallel().allMatch(e -> e.getKey().resolve(root) == e.getValue()));
+    }
+
+    @Test
+    public void testDeepTree() {
+        VDFNode root = new VDFNode();
+        VDFNode node = root;
+        for(int i = 0; i < 100000; i++) {
+            VDFNode child = new VDFNode();
+            node.put("value", Integer.toString(i));
+            node.put("child", child);
+            node = child;
+        }
+
+        Assert.assertEquals(100000, root.leaves().parallel().count());
+        Assert.assertEquals(200000, root.walk().count());
+        Assert.assertEquals(99999, root.leaves().mapToInt(e -> e.getKey().depth()).max().getAsInt() - 1);
+    }
+
+    /**
+     * Walks the tree the recursive way.
+     */
+    private static void collect(VDFNode node, VDFPath path, List<Map.Entry<VDFPath, Object>> entries) {
+        for(Map.Entry<String, Object[]> e : node.entrySet()) {
+            Object[] values = e.getValue();
+            for(int i = 0; i < values.length; i++) {
+                VDFPath child = path.child(e.getKey(), i);
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(child, values[i]));
+                if(values[i] instanceof VDFNode)
+                    collect((VDFNode) values[i], child, entries);
+            }
+        }
+    }
+
+}
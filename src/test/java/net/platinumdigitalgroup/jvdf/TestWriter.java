@@ -60,6 +60,24 @@ public class TestWriter {
         assertNodesEquals(node1, node2);
     }
 
+    @Test
+    public void testConditionals() {
+        VDFNode node1 = parser.parse("key value [$WIN32] node [!$X360] { child value }");
+        VDFNode node2 = parser.parse(writer.write(node1));
+        assertNodesEquals(node1, node2);
+        Assert.assertEquals("$WIN32", node2.getCondition("key", 0).expression());
+        Assert.assertEquals("!$X360", node2.getCondition("node", 0).expression());
+    }
+
+    @Test
+    public void testEscapes() {
+        VDFNode node1 = parser.parse("\"key with \\\"\" \"value with \\\" and \\\\\" newline \"a\\nb\"");
+        VDFNode node2 = parser.parse(writer.write(node1));
+        assertNodesEquals(node1, node2);
+        Assert.assertEquals("value with \" and \\", node2.getString("key with \""));
+        Assert.assertEquals("a\nb", node2.getString("newline"));
+    }
+
     /*
     private void assertStringEquals(String string1, String string2) {
         String[] split1 = string1.split("\n");